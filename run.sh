@@ -8,6 +8,7 @@ function usage()
    echo "  clean 		Clean, removes target directory"
    echo "  install 		Compile sources and generates jar"
    echo "  clean install 	Clean, Compile sources and generates jar"
+   echo "  bench 		Compile and run the benchmarks against the installed classes"
    echo "  help			Display this"
 }
 
@@ -51,11 +52,32 @@ function install()
    echo "Build successful"
 }
 
+function bench()
+{
+   if [ ! -d $CLASSES_DIR ];
+   then
+      echo "$CLASSES_DIR not found. Run ./run.sh install"
+      return
+   fi
+
+   mkdir -p $BENCH_CLASSES_DIR
+
+   currentDir=`pwd`
+   echo "Building $currentDir/$BENCH_CLASSES_DIR ..."
+   find $BENCH_SOURCE_DIR -name "*.java" | xargs javac -cp $CLASSES_DIR -d $BENCH_CLASSES_DIR
+
+   java -cp $CLASSES_DIR:$BENCH_CLASSES_DIR com.prasanna.fileevents.ParserBenchmark
+   java -cp $CLASSES_DIR:$BENCH_CLASSES_DIR com.prasanna.fileevents.PipelineBenchmark
+   java -Xmx512m -cp $CLASSES_DIR:$BENCH_CLASSES_DIR com.prasanna.fileevents.HistoryStoreBenchmark
+}
+
 JAR_NAME=FileEvents.jar
 SOURCE_DIR=src/main/java
 TARGET_DIR=target
 DOC_DIR=docs
 CLASSES_DIR=$TARGET_DIR/classes
+BENCH_SOURCE_DIR=src/bench/java
+BENCH_CLASSES_DIR=$TARGET_DIR/bench-classes
 ROOT_PKG=com
 MANIFEST_FILE=manifest.txt
 JAR_OPTS=cfm
@@ -82,6 +104,10 @@ else
             install
             ;;
 
+         "bench")
+            bench
+            ;;
+
          "help")
             usage
             ;;
@@ -0,0 +1,238 @@
+package com.prasanna.fileevents;
+
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * <p>
+ * Compares the garbage collection pauses of the {@link EventInterpreter}
+ * holding its pending histories on the heap and off heap, see
+ * {@link OffHeapEventStore}. Lines are parsed as they are interpreted, the
+ * way a stream is read, so an event only outlives the young generation if the
+ * interpreter holds it. The workloads are the ones holding large histories.
+ * </p>
+ *
+ * <p>
+ * Reports events per second, allocation rate and the number, total, p99 and
+ * maximum duration of the collections during the last iteration, earlier
+ * iterations warm up the JIT. Run with a fixed heap, e.g. -Xmx512m, for the
+ * pauses of both to be compared on the same footing.
+ * </p>
+ *
+ * Usage: HistoryStoreBenchmark [number of events] [tree depth] [iterations]
+ * [workload...]
+ *
+ * @author prasanna
+ */
+public class HistoryStoreBenchmark
+{
+    private static final List<Workload> DEFAULT_WORKLOADS = Arrays.asList(Workload.LARGE_DIRECTORY_MOVE,
+                    Workload.LARGE_TREE_DELETES, Workload.DEEP_DIRECTORY_MOVES);
+
+    public static void main(String[] args)
+    {
+        int numEvents = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        List<Workload> workloads = new ArrayList<Workload>();
+        for (int i = 3; i < args.length; i++)
+            workloads.add(Workload.valueOf(args[i]));
+
+        if (workloads.isEmpty())
+            workloads.addAll(DEFAULT_WORKLOADS);
+
+        GcPauses gcPauses = new GcPauses();
+
+        System.out.println(String.format("%d events, tree depth %d, %d iterations, max heap %d MB", numEvents, depth,
+                        iterations, Runtime.getRuntime().maxMemory() / (1024 * 1024)));
+        System.out.println(String.format("%-28s %-8s %14s %14s %8s %12s %10s %10s", "Workload", "Store", "events/s",
+                        "MB/s alloc", "GCs", "total ms", "p99 ms", "max ms"));
+
+        for (Workload workload : workloads)
+        {
+            String[] lines = workload.generate(numEvents, depth);
+
+            for (boolean isOffHeap : new boolean[] { false, true })
+            {
+                String report = null;
+
+                for (int i = 0; i < iterations; i++)
+                {
+                    System.gc();
+                    report = run(lines, isOffHeap, gcPauses);
+                }
+
+                System.out.println(String.format("%-28s %-8s %s", workload, isOffHeap ? "off-heap" : "heap", report));
+            }
+        }
+    }
+
+    private static String run(String[] lines, boolean isOffHeap, GcPauses gcPauses)
+    {
+        EventLineParser parser = new EventLineParser();
+        EventInterpreter interpreter = new EventInterpreter(new NullLogger());
+        interpreter.setOffHeap(isOffHeap);
+
+        StageStats stats = new StageStats("interpret", 0);
+        gcPauses.start();
+        stats.start();
+
+        for (String line : lines)
+        {
+            Event event = parser.parse(line);
+            if (event != null)
+                interpreter.interpretEvent(event);
+        }
+
+        interpreter.flush();
+        stats.stop();
+
+        long[] pauses = gcPauses.stop();
+        long totalPause = 0;
+        for (long pause : pauses)
+            totalPause += pause;
+
+        double seconds = stats.getElapsedNanos() / 1e9;
+        return String.format("%14.0f %14.1f %8d %12d %10d %10d", lines.length / seconds, stats.getAllocatedBytes()
+                        / seconds / (1024 * 1024), pauses.length, totalPause, percentile(pauses, 0.99),
+                        pauses.length == 0 ? 0 : pauses[pauses.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0)
+            return 0;
+
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    /**
+     * Records the duration of every collection from the notifications of the
+     * garbage collectors. Notifications arrive on a thread of their own, so
+     * starting and stopping wait for those of the collections done so far.
+     */
+    private static class GcPauses implements NotificationListener
+    {
+        private static final long MAX_WAIT_MILLIS = 1000;
+
+        private final List<GarbageCollectorMXBean> gcBeans = new ArrayList<GarbageCollectorMXBean>();
+        private final List<Long> durations = new ArrayList<Long>();
+        private long numNotifications;
+
+        GcPauses()
+        {
+            for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                if (gcBean instanceof NotificationEmitter)
+                {
+                    ((NotificationEmitter) gcBean).addNotificationListener(this, null, null);
+                    gcBeans.add(gcBean);
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback)
+        {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+                return;
+
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                            .from((CompositeData) notification.getUserData());
+
+            synchronized (durations)
+            {
+                numNotifications++;
+
+                // Concurrent cycles do not pause the application
+                if (!info.getGcName().contains("Cycles") && !info.getGcName().contains("Concurrent"))
+                    durations.add(info.getGcInfo().getDuration());
+
+                durations.notifyAll();
+            }
+        }
+
+        void start()
+        {
+            synchronized (durations)
+            {
+                awaitNotifications();
+                durations.clear();
+            }
+        }
+
+        private void awaitNotifications()
+        {
+            long numCollections = 0;
+            for (GarbageCollectorMXBean gcBean : gcBeans)
+                numCollections += gcBean.getCollectionCount();
+
+            long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+
+            try
+            {
+                while (numNotifications < numCollections && System.currentTimeMillis() < deadline)
+                    durations.wait(MAX_WAIT_MILLIS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Returns the durations in milliseconds of the collections since
+         * started, sorted.
+         */
+        long[] stop()
+        {
+            synchronized (durations)
+            {
+                awaitNotifications();
+
+                long[] sorted = new long[durations.size()];
+                for (int i = 0; i < sorted.length; i++)
+                    sorted[i] = durations.get(i);
+
+                Arrays.sort(sorted);
+                return sorted;
+            }
+        }
+    }
+
+    private static class NullLogger extends Logger
+    {
+        NullLogger()
+        {
+            super(new OutputStream()
+            {
+                @Override
+                public void write(int b)
+                {
+                }
+            });
+        }
+
+        @Override
+        public void printHeader()
+        {
+        }
+
+        @Override
+        public void log(Event event, Action action, String destinationPath)
+        {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.prasanna.fileevents;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the {@link EventLineParser} with the regular expression previously
+ * used by the {@link EventReader} to parse event lines.
+ *
+ * Usage: ParserBenchmark [number of lines] [iterations]
+ *
+ * @author prasanna
+ */
+public class ParserBenchmark
+{
+    private static final String eventInputPattern = "(^add|del)\\s+(\\d+)\\s+(/[^\\$/\\^\\*%#@!\\(\\);:\\\\<>\\?\\,\\&]+[/[^\\$/\\^\\*%#@!\\(\\);:\\\\<>\\?\\,\\&]*]*)\\s+(\\w{8}|\\-$)";
+    private static final Pattern pattern = Pattern.compile(eventInputPattern, Pattern.CASE_INSENSITIVE);
+
+    public static void main(String[] args)
+    {
+        int numLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] lines = generateLines(numLines);
+
+        EventLineParser parser = new EventLineParser();
+
+        for (int i = 0; i < iterations; i++)
+        {
+            long regexNanos = timeRegex(lines);
+            long scannerNanos = timeScanner(parser, lines);
+
+            System.out.println(String.format("Iteration %d: regex %.1f ns/line, scanner %.1f ns/line", i + 1,
+                            (double) regexNanos / numLines, (double) scannerNanos / numLines));
+        }
+    }
+
+    private static String[] generateLines(int numLines)
+    {
+        String[] lines = new String[numLines];
+
+        for (int i = 0; i < numLines; i++)
+        {
+            String eventType = i % 2 == 0 ? "ADD" : "DEL";
+            if (i % 10 == 0)
+                lines[i] = eventType + " " + (1325932405374L + i) + " /folder" + (i % 100) + " -";
+            else
+                lines[i] = eventType + " " + (1325932405374L + i) + " /folder" + (i % 100) + "/sub" + (i % 7) + "/file"
+                                + i + ".txt " + String.format("%08x", i);
+        }
+
+        return lines;
+    }
+
+    private static long timeRegex(String[] lines)
+    {
+        long start = System.nanoTime();
+        long checksum = 0;
+
+        for (String line : lines)
+        {
+            Event event = parseWithPattern(line);
+            if (event != null)
+                checksum += event.getTimestamp();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        consume(checksum);
+        return elapsed;
+    }
+
+    private static long timeScanner(EventLineParser parser, String[] lines)
+    {
+        long start = System.nanoTime();
+        long checksum = 0;
+
+        for (String line : lines)
+        {
+            Event event = parser.parse(line);
+            if (event != null)
+                checksum += event.getTimestamp();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        consume(checksum);
+        return elapsed;
+    }
+
+    private static Event parseWithPattern(String text)
+    {
+        Event event = null;
+        Matcher matcher = pattern.matcher(text);
+
+        if (matcher.find() && matcher.groupCount() == 4)
+        {
+            event = new Event();
+            event.setEventType(EventType.valueOf(matcher.group(1)));
+            event.setTimestamp(Long.valueOf(matcher.group(2)));
+            event.setPath(matcher.group(3));
+            event.setContentHash(matcher.group(4));
+        }
+
+        return event;
+    }
+
+    private static void consume(long checksum)
+    {
+        if (checksum == 42)
+            System.out.println();
+    }
+}
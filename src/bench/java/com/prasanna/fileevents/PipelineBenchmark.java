@@ -0,0 +1,339 @@
+package com.prasanna.fileevents;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>
+ * Measures each stage of the pipeline, parsing with the
+ * {@link EventLineParser}, interpreting with the {@link EventInterpreter} from
+ * events and from an {@link EventBatch}, logging with the {@link Logger},
+ * interpreting sharded by top level directory with the
+ * {@link ShardedEventInterpreter}, and all of them end to end from the raw
+ * input bytes, either streamed or memory mapped, and from a binary event log,
+ * for every {@link Workload}.
+ * </p>
+ *
+ * <p>
+ * Reports events per second, allocation rate and p50/p99 latency per event of
+ * the last iteration, earlier iterations warm up the JIT.
+ * </p>
+ *
+ * Usage: PipelineBenchmark [number of events] [tree depth] [iterations]
+ * [workload...]
+ *
+ * @author prasanna
+ */
+public class PipelineBenchmark
+{
+    public static void main(String[] args)
+    {
+        int numEvents = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        List<Workload> workloads = new ArrayList<Workload>();
+        for (int i = 3; i < args.length; i++)
+            workloads.add(Workload.valueOf(args[i]));
+
+        if (workloads.isEmpty())
+            workloads.addAll(Arrays.asList(Workload.values()));
+
+        System.out.println(String.format("%d events, tree depth %d, %d iterations", numEvents, depth, iterations));
+        System.out.println(StageStats.header());
+
+        for (Workload workload : workloads)
+        {
+            String[] lines = workload.generate(numEvents, depth);
+            List<StageStats> stats = null;
+
+            for (int i = 0; i < iterations; i++)
+                stats = run(lines);
+
+            for (StageStats stageStats : stats)
+                System.out.println(stageStats.report(workload));
+        }
+    }
+
+    private static List<StageStats> run(String[] lines)
+    {
+        List<StageStats> stats = new ArrayList<StageStats>();
+
+        StageStats parseStats = new StageStats("parse", lines.length);
+        Event[] events = parse(lines, parseStats);
+        stats.add(parseStats);
+
+        StageStats interpretStats = new StageStats("interpret", lines.length);
+        RecordingLogger recordingLogger = new RecordingLogger();
+        interpret(events, recordingLogger, interpretStats);
+        stats.add(interpretStats);
+
+        StageStats batchStats = new StageStats("batch", lines.length);
+        interpretBatch(events, batchStats);
+        stats.add(batchStats);
+
+        StageStats logStats = new StageStats("log", recordingLogger.size());
+        log(recordingLogger, OutputFormat.TABLE, logStats);
+        stats.add(logStats);
+
+        for (String format : new String[] { OutputFormat.NDJSON, OutputFormat.CSV, OutputFormat.BINARY })
+        {
+            StageStats formatStats = new StageStats("log-" + format, recordingLogger.size());
+            log(recordingLogger, format, formatStats);
+            stats.add(formatStats);
+        }
+
+        StageStats shardedStats = new StageStats("sharded", lines.length);
+        interpretSharded(events, shardedStats);
+        stats.add(shardedStats);
+
+        StageStats endToEndStats = new StageStats("end2end", lines.length);
+        byte[] input = toBytes(lines);
+        endToEnd(input, endToEndStats);
+        stats.add(endToEndStats);
+
+        StageStats mappedStats = new StageStats("mapped", lines.length);
+        endToEndMapped(input, mappedStats);
+        stats.add(mappedStats);
+
+        StageStats binaryLogStats = new StageStats("binlog", lines.length);
+        endToEndBinaryLog(events, binaryLogStats);
+        stats.add(binaryLogStats);
+
+        return stats;
+    }
+
+    private static Event[] parse(String[] lines, StageStats stats)
+    {
+        EventLineParser parser = new EventLineParser();
+        Event[] events = new Event[lines.length];
+
+        stats.start();
+        for (int i = 0; i < lines.length; i++)
+        {
+            stats.startEvent();
+            events[i] = parser.parse(lines[i]);
+            stats.endEvent();
+        }
+        stats.stop();
+
+        return events;
+    }
+
+    private static void interpret(Event[] events, Logger logger, StageStats stats)
+    {
+        EventInterpreter interpreter = new EventInterpreter(logger);
+
+        stats.start();
+        for (Event event : events)
+        {
+            stats.startEvent();
+            interpreter.interpretEvent(event);
+            stats.endEvent();
+        }
+        interpreter.flush();
+        stats.stop();
+    }
+
+    /**
+     * Interprets the events from a columnar batch, measuring the time to create
+     * and interpret each event. Filling the batch is not measured.
+     */
+    private static void interpretBatch(Event[] events, StageStats stats)
+    {
+        EventBatch batch = EventBatch.of(Arrays.asList(events).iterator());
+        EventInterpreter interpreter = new EventInterpreter(new Logger(new NullOutputStream()));
+
+        stats.start();
+        for (int i = 0; i < batch.size(); i++)
+        {
+            stats.startEvent();
+            interpreter.interpretEvent(batch.get(i));
+            stats.endEvent();
+        }
+        interpreter.flush();
+        stats.stop();
+    }
+
+    /**
+     * Interprets the events with a shard per top level directory on all the
+     * processors, measuring the time to route each event.
+     */
+    private static void interpretSharded(Event[] events, StageStats stats)
+    {
+        ShardedEventInterpreter interpreter = new ShardedEventInterpreter(new NullOutputStream(),
+                        OutputFormat.TABLE, Runtime.getRuntime().availableProcessors());
+
+        try
+        {
+            stats.start();
+            for (Event event : events)
+            {
+                stats.startEvent();
+                interpreter.interpretEvent(event);
+                stats.endEvent();
+            }
+            interpreter.flush();
+            stats.stop();
+
+            interpreter.shutdown();
+        }
+        catch (InterruptedException e)
+        {
+            throw new IllegalStateException("Interrupted while interpreting shards", e);
+        }
+    }
+
+    private static void log(RecordingLogger recordingLogger, String format, StageStats stats)
+    {
+        Logger logger = new Logger(new NullOutputStream(), OutputFormat.forName(format));
+
+        stats.start();
+        for (int i = 0; i < recordingLogger.size(); i++)
+        {
+            stats.startEvent();
+            logger.log(recordingLogger.events.get(i), recordingLogger.actions.get(i),
+                            recordingLogger.destinationPaths.get(i));
+            stats.endEvent();
+        }
+        logger.flush();
+        stats.stop();
+    }
+
+    private static byte[] toBytes(String[] lines)
+    {
+        StringBuilder input = new StringBuilder();
+        for (String line : lines)
+            input.append(line).append('\n');
+
+        return input.toString().getBytes();
+    }
+
+    private static void endToEnd(byte[] input, StageStats stats)
+    {
+        stats.start();
+        EventReader reader = new EventReader(new ByteArrayInputStream(input));
+        endToEnd(reader.iterator(), stats);
+    }
+
+    private static void endToEndMapped(byte[] input, StageStats stats)
+    {
+        try
+        {
+            File file = File.createTempFile("events", ".log");
+            file.deleteOnExit();
+
+            FileOutputStream outputStream = new FileOutputStream(file);
+            outputStream.write(input);
+            outputStream.close();
+
+            MappedEventReader reader = new MappedEventReader(file);
+            stats.start();
+            endToEnd(reader.iterator(), stats);
+            reader.close();
+            file.delete();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot write benchmark input", e);
+        }
+    }
+
+    /**
+     * Interprets the events read from a binary event log. Writing the log is
+     * not measured.
+     */
+    private static void endToEndBinaryLog(Event[] events, StageStats stats)
+    {
+        try
+        {
+            File file = File.createTempFile("events", ".fevl");
+            file.deleteOnExit();
+
+            BinaryEventLogWriter writer = new BinaryEventLogWriter(file);
+            for (Event event : events)
+            {
+                if (event != null)
+                    writer.write(event);
+            }
+            writer.close();
+
+            BinaryEventLogReader reader = new BinaryEventLogReader(file);
+            stats.start();
+            endToEnd(reader.iterator(), stats);
+            reader.close();
+            file.delete();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot write benchmark input", e);
+        }
+    }
+
+    private static void endToEnd(Iterator<Event> iterator, StageStats stats)
+    {
+        EventInterpreter interpreter = new EventInterpreter(new Logger(new NullOutputStream()));
+
+        while (true)
+        {
+            stats.startEvent();
+            if (!iterator.hasNext())
+                break;
+
+            interpreter.interpretEvent(iterator.next());
+            stats.endEvent();
+        }
+        interpreter.flush();
+        stats.stop();
+    }
+
+    private static class RecordingLogger extends Logger
+    {
+        private final List<Event> events = new ArrayList<Event>();
+        private final List<Action> actions = new ArrayList<Action>();
+        private final List<String> destinationPaths = new ArrayList<String>();
+
+        RecordingLogger()
+        {
+            super(new NullOutputStream());
+        }
+
+        @Override
+        public void printHeader()
+        {
+        }
+
+        @Override
+        public void log(Event event, Action action, String destinationPath)
+        {
+            events.add(event);
+            actions.add(action);
+            destinationPaths.add(destinationPath);
+        }
+
+        int size()
+        {
+            return events.size();
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream
+    {
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.prasanna.fileevents;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Measures throughput, allocation and per event latency of a benchmark stage
+ * running on the current thread.
+ *
+ * @author prasanna
+ */
+public class StageStats
+{
+    private static final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean();
+
+    private final String name;
+    private final long[] latencies;
+    private int numEvents;
+    private long startNanos;
+    private long startAllocatedBytes;
+    private long elapsedNanos;
+    private long allocatedBytes;
+    private long eventStartNanos;
+
+    public StageStats(String name, int capacity)
+    {
+        this.name = name;
+        latencies = new long[capacity];
+    }
+
+    public void start()
+    {
+        numEvents = 0;
+        startAllocatedBytes = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    public void startEvent()
+    {
+        eventStartNanos = System.nanoTime();
+    }
+
+    public void endEvent()
+    {
+        if (numEvents < latencies.length)
+            latencies[numEvents] = System.nanoTime() - eventStartNanos;
+
+        numEvents++;
+    }
+
+    public void stop()
+    {
+        elapsedNanos = System.nanoTime() - startNanos;
+        allocatedBytes = allocatedBytes() - startAllocatedBytes;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    public static String header()
+    {
+        return String.format("%-28s %-10s %14s %14s %12s %10s %10s", "Workload", "Stage", "events/s", "MB/s alloc",
+                        "B/event", "p50 ns", "p99 ns");
+    }
+
+    public String report(Workload workload)
+    {
+        int numSamples = Math.min(numEvents, latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, numSamples);
+        Arrays.sort(sorted);
+
+        double seconds = elapsedNanos / 1e9;
+        return String.format("%-28s %-10s %14.0f %14.1f %12.1f %10d %10d", workload, name, numEvents / seconds,
+                        allocatedBytes / seconds / (1024 * 1024), (double) allocatedBytes / Math.max(1, numEvents),
+                        percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    private static long percentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0)
+            return 0;
+
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static long allocatedBytes()
+    {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
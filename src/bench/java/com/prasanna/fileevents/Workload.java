@@ -0,0 +1,213 @@
+package com.prasanna.fileevents;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic event workloads used by the benchmarks. Each workload generates
+ * lines in the input format read by the {@link EventReader} with strictly
+ * increasing timestamps.
+ *
+ * @author prasanna
+ */
+public enum Workload
+{
+    /**
+     * Files added to a handful of directories.
+     */
+    FLAT_ADDS
+    {
+        @Override
+        void generate(Output output, int numEvents, int depth)
+        {
+            for (int i = 0; output.size() < numEvents; i++)
+                output.add("ADD", root(depth, i % 16) + "/file" + i + ".txt", hash(i));
+        }
+    },
+
+    /**
+     * Directories nested depth levels deep moved to a different parent along
+     * with all their files.
+     */
+    DEEP_DIRECTORY_MOVES
+    {
+        @Override
+        void generate(Output output, int numEvents, int depth)
+        {
+            for (int i = 0; output.size() < numEvents; i++)
+            {
+                String oldDir = root(depth, i) + "/dir" + i;
+                String newDir = "/moved" + i % 16 + "/dir" + i;
+                int numFiles = Math.max(1, Math.min(FILES_PER_DIRECTORY, (numEvents - output.size() - 2) / 2));
+
+                output.add("DEL", oldDir, Event.DIRECTORY_CONTENT_HASH);
+                for (int j = 0; j < numFiles; j++)
+                    output.add("DEL", oldDir + "/file" + j + ".txt", hash(i * FILES_PER_DIRECTORY + j));
+
+                output.add("ADD", newDir, Event.DIRECTORY_CONTENT_HASH);
+                for (int j = 0; j < numFiles; j++)
+                    output.add("ADD", newDir + "/file" + j + ".txt", hash(i * FILES_PER_DIRECTORY + j));
+            }
+        }
+    },
+
+    /**
+     * A single directory holding all the files moved to a different parent.
+     */
+    LARGE_DIRECTORY_MOVE
+    {
+        @Override
+        void generate(Output output, int numEvents, int depth)
+        {
+            String oldDir = root(depth, 0) + "/large";
+            String newDir = "/moved/large";
+            int numFiles = Math.max(1, (numEvents - 2) / 2);
+
+            output.add("DEL", oldDir, Event.DIRECTORY_CONTENT_HASH);
+            for (int j = 0; j < numFiles; j++)
+                output.add("DEL", oldDir + "/file" + j + ".txt", hash(j));
+
+            output.add("ADD", newDir, Event.DIRECTORY_CONTENT_HASH);
+            for (int j = 0; j < numFiles; j++)
+                output.add("ADD", newDir + "/file" + j + ".txt", hash(j));
+        }
+    },
+
+    /**
+     * Files renamed one after the other within the same directory.
+     */
+    MASS_RENAMES
+    {
+        @Override
+        void generate(Output output, int numEvents, int depth)
+        {
+            for (int i = 0; output.size() < numEvents; i++)
+            {
+                String dir = root(depth, i % 16);
+                output.add("DEL", dir + "/old" + i + ".txt", hash(i));
+                output.add("ADD", dir + "/new" + i + ".txt", hash(i));
+            }
+        }
+    },
+
+    /**
+     * Directories nested depth levels deep deleted along with all their files.
+     */
+    LARGE_TREE_DELETES
+    {
+        @Override
+        void generate(Output output, int numEvents, int depth)
+        {
+            for (int i = 0; output.size() < numEvents; i++)
+            {
+                String dir = root(depth, i) + "/tree" + i;
+
+                output.add("DEL", dir, Event.DIRECTORY_CONTENT_HASH);
+                for (int j = 0; j < FILES_PER_DIRECTORY && output.size() < numEvents; j++)
+                    output.add("DEL", dir + "/file" + j + ".txt", hash(i * FILES_PER_DIRECTORY + j));
+            }
+        }
+    },
+
+    /**
+     * Directories moved within the top level directory of one of many users,
+     * with the events of the users interleaved one at a time.
+     */
+    MULTI_ROOT_MOVES
+    {
+        @Override
+        void generate(Output output, int numEvents, int depth)
+        {
+            int numRoots = 64;
+            int filesPerMove = 8;
+            int eventsPerRoot = (numEvents + numRoots - 1) / numRoots;
+            List<List<String[]>> roots = new ArrayList<List<String[]>>();
+
+            for (int k = 0; k < numRoots; k++)
+            {
+                List<String[]> events = new ArrayList<String[]>();
+
+                for (int i = 0; events.size() < eventsPerRoot; i++)
+                {
+                    String oldDir = "/user" + k + root(depth, i) + "/dir" + i;
+                    String newDir = "/user" + k + "/moved" + i;
+
+                    events.add(new String[] { "DEL", oldDir, Event.DIRECTORY_CONTENT_HASH });
+                    for (int j = 0; j < filesPerMove; j++)
+                        events.add(new String[] { "DEL", oldDir + "/file" + j + ".txt", hash(i * filesPerMove + j) });
+
+                    events.add(new String[] { "ADD", newDir, Event.DIRECTORY_CONTENT_HASH });
+                    for (int j = 0; j < filesPerMove; j++)
+                        events.add(new String[] { "ADD", newDir + "/file" + j + ".txt", hash(i * filesPerMove + j) });
+                }
+
+                roots.add(events);
+            }
+
+            for (int i = 0; output.size() < numEvents; i++)
+            {
+                for (List<String[]> events : roots)
+                {
+                    if (i < events.size())
+                        output.add(events.get(i)[0], events.get(i)[1], events.get(i)[2]);
+                }
+            }
+        }
+    };
+
+    private static final int FILES_PER_DIRECTORY = 1000;
+    private static final long START_TIME = 1325932405374L;
+
+    abstract void generate(Output output, int numEvents, int depth);
+
+    /**
+     * Generates at least numEvents lines, directories are nested depth levels
+     * below the root.
+     */
+    public String[] generate(int numEvents, int depth)
+    {
+        Output output = new Output(numEvents);
+        generate(output, numEvents, depth);
+        return output.toArray();
+    }
+
+    private static String root(int depth, int index)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (int level = 0; level < depth; level++)
+            builder.append("/level").append(level).append('_').append(index % 4);
+
+        return builder.toString();
+    }
+
+    private static String hash(int index)
+    {
+        return String.format("%08x", index);
+    }
+
+    static class Output
+    {
+        private final List<String> lines;
+
+        Output(int numEvents)
+        {
+            lines = new ArrayList<String>(numEvents);
+        }
+
+        void add(String eventType, String path, String contentHash)
+        {
+            lines.add(eventType + " " + (START_TIME + lines.size()) + " " + path + " " + contentHash);
+        }
+
+        int size()
+        {
+            return lines.size();
+        }
+
+        String[] toArray()
+        {
+            return lines.toArray(new String[lines.size()]);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.prasanna.fileevents;
+
+/**
+ * What a {@link RingBuffer} does with an item added while it is full.
+ *
+ * @author prasanna
+ */
+public enum Backpressure
+{
+    /** Waits until there is room for the item. */
+    BLOCK,
+
+    /** Drops the item and counts it. */
+    DROP
+}
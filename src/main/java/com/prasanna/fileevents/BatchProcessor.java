@@ -0,0 +1,348 @@
+package com.prasanna.fileevents;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * <p>
+ * Interprets many event log files in one process, each with a reader and an
+ * {@link EventInterpreter} of its own, logging its actions to an output file
+ * of its own. The files are the files of a directory or the files matching a
+ * glob, such as logs/*&#47;*.log or logs/**.gz, and every output file has the
+ * path of its input relative to the directory, or to the part of the glob
+ * before its first wildcard, under the output directory, with the extension
+ * of the output format.
+ * </p>
+ *
+ * <p>
+ * Each file is interpreted on a virtual thread if the runtime has them,
+ * found by reflection as they are not part of the Java version the sources
+ * are written for, otherwise on a pool of platform threads. Either way at most
+ * a given number of files are interpreted at a time, which bounds the open
+ * files and the memory of the pending events. Gzip compressed files and binary
+ * event logs are read like with --file. A file that cannot be read or written
+ * is reported to stderr and does not stop the others.
+ * </p>
+ *
+ * <p>
+ * Nothing is shared between the files but the metrics, whose counts are
+ * summed over the files.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class BatchProcessor
+{
+    public static final int DEFAULT_MAX_CONCURRENT_FILES = Runtime.getRuntime().availableProcessors();
+
+    private static final String WILDCARDS = "*?[{";
+
+    private final File outputDirectory;
+    private final String format;
+    private final Compression compression;
+    private final int maxConcurrentFiles;
+    private final AtomicInteger numFailedFiles = new AtomicInteger();
+    private MetricsRegistry metrics;
+
+    public BatchProcessor(File outputDirectory, String format, Compression compression, int maxConcurrentFiles)
+    {
+        if (outputDirectory == null)
+            throw new IllegalArgumentException("Cannot initialize batch without output directory");
+
+        if (OutputFormat.forName(format) == null)
+            throw new IllegalArgumentException("Unknown output format " + format);
+
+        if (compression == null || compression == Compression.ZSTD)
+            throw new IllegalArgumentException("Output can only be uncompressed or gzip compressed");
+
+        if (maxConcurrentFiles <= 0)
+            throw new IllegalArgumentException("Number of concurrent files must be positive");
+
+        this.outputDirectory = outputDirectory;
+        this.format = format;
+        this.compression = compression;
+        this.maxConcurrentFiles = maxConcurrentFiles;
+    }
+
+    /**
+     * Measures the readers and interpreters of all the files in the registry,
+     * or stops measuring if it is null.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the number of files that could not be interpreted so far.
+     */
+    public int getNumFailedFiles()
+    {
+        return numFailedFiles.get();
+    }
+
+    /**
+     * Interprets the files of the directory or matching the glob and returns
+     * the number of files interpreted, the failed ones included.
+     */
+    public int process(String directoryOrGlob) throws IOException, InterruptedException
+    {
+        Path root = getRoot(directoryOrGlob);
+        String glob = getGlob(directoryOrGlob);
+        List<Path> files = findFiles(root, glob);
+
+        ExecutorService executor = createExecutor();
+        final Semaphore permits = new Semaphore(maxConcurrentFiles);
+
+        try
+        {
+            for (final Path file : files)
+            {
+                final File inputFile = root.resolve(file).toFile();
+                final File outputFile = new File(outputDirectory, file + "." + getExtension());
+
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            permits.acquire();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            return;
+                        }
+
+                        try
+                        {
+                            process(inputFile, outputFile);
+                        }
+                        catch (IOException e)
+                        {
+                            fail(inputFile, e.getMessage());
+                        }
+                        catch (RuntimeException e)
+                        {
+                            fail(inputFile, e.toString());
+                        }
+                        finally
+                        {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return files.size();
+    }
+
+    /**
+     * Interprets a single file into the output file, replacing it.
+     */
+    public void process(File inputFile, File outputFile) throws IOException
+    {
+        Compression inputCompression = Compression.detect(inputFile);
+        if (inputCompression == Compression.ZSTD)
+            throw new IOException("Zstandard compressed files are not supported, decompress it with zstd -d");
+
+        File parent = outputFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+            throw new IOException("Cannot create directory " + parent);
+
+        OutputStream fileOutput = new FileOutputStream(outputFile);
+
+        try
+        {
+            OutputStream output = compression.compress(fileOutput);
+            EventInterpreter interpreter = new EventInterpreter(new Logger(output, OutputFormat.forName(format)));
+            interpreter.setMetrics(metrics);
+
+            if (inputCompression == Compression.NONE && BinaryEventLogReader.isBinaryEventLog(inputFile))
+            {
+                BinaryEventLogReader reader = new BinaryEventLogReader(inputFile);
+
+                try
+                {
+                    interpreter.interpret(reader.iterator());
+                }
+                finally
+                {
+                    reader.close();
+                }
+            }
+            else
+            {
+                InputStream input = new FileInputStream(inputFile);
+
+                try
+                {
+                    EventReader reader = new EventReader(input);
+                    reader.setMetrics(metrics);
+                    interpreter.interpret(reader.iterator());
+                }
+                finally
+                {
+                    input.close();
+                }
+            }
+
+            if (output instanceof DeflaterOutputStream)
+                ((DeflaterOutputStream) output).finish();
+        }
+        finally
+        {
+            fileOutput.close();
+        }
+    }
+
+    private void fail(File inputFile, String message)
+    {
+        numFailedFiles.incrementAndGet();
+        System.err.println("Cannot process " + inputFile + ": " + message);
+    }
+
+    /**
+     * Returns an executor running every task on a virtual thread of its own
+     * if the runtime has them, otherwise a pool of as many platform threads as
+     * files may be interpreted at a time.
+     */
+    private ExecutorService createExecutor()
+    {
+        try
+        {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newFixedThreadPool(maxConcurrentFiles);
+        }
+    }
+
+    private String getExtension()
+    {
+        String extension = OutputFormat.TABLE.equals(format) ? "txt" : OutputFormat.BINARY.equals(format) ? "bin"
+                        : format;
+
+        return compression == Compression.GZIP ? extension + ".gz" : extension;
+    }
+
+    /**
+     * Returns the directory, or the part of the glob before the name with the
+     * first wildcard.
+     */
+    private static Path getRoot(String directoryOrGlob) throws IOException
+    {
+        String[] names = directoryOrGlob.split("/", -1);
+        StringBuilder root = new StringBuilder();
+
+        for (int i = 0; i < names.length && !hasWildcard(names[i]); i++)
+        {
+            if (i > 0)
+                root.append('/');
+
+            root.append(names[i]);
+        }
+
+        Path path = Paths.get(root.length() == 0 ? (directoryOrGlob.startsWith("/") ? "/" : ".") : root.toString());
+
+        if (!Files.isDirectory(path))
+            throw new IOException(path + " is not a directory");
+
+        return path;
+    }
+
+    /**
+     * Returns the glob relative to the root, every file directly in it for a
+     * directory.
+     */
+    private static String getGlob(String directoryOrGlob)
+    {
+        String[] names = directoryOrGlob.split("/", -1);
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (hasWildcard(names[i]))
+            {
+                StringBuilder glob = new StringBuilder();
+                for (int j = i; j < names.length; j++)
+                    glob.append(j > i ? "/" : "").append(names[j]);
+
+                return glob.toString();
+            }
+        }
+
+        return "*";
+    }
+
+    private static boolean hasWildcard(String name)
+    {
+        for (int i = 0; i < name.length(); i++)
+        {
+            if (WILDCARDS.indexOf(name.charAt(i)) >= 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the regular files below the root matching the glob, as paths
+     * relative to the root, in order.
+     */
+    private static List<Path> findFiles(final Path root, String glob) throws IOException
+    {
+        final PathMatcher matcher = root.getFileSystem().getPathMatcher("glob:" + glob);
+        final List<Path> files = new ArrayList<Path>();
+        int maxDepth = glob.contains("**") ? Integer.MAX_VALUE : glob.split("/").length;
+
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth,
+                        new SimpleFileVisitor<Path>()
+                        {
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+                            {
+                                Path relativePath = root.relativize(file);
+
+                                if (attributes.isRegularFile() && matcher.matches(relativePath))
+                                    files.add(relativePath);
+
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+
+        Collections.sort(files);
+        return files;
+    }
+}
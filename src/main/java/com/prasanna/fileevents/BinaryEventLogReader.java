@@ -0,0 +1,398 @@
+package com.prasanna.fileevents;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * Reads the events of a binary event log written by a
+ * {@link BinaryEventLogWriter}, in the order they were written. Opening the
+ * log reads its path dictionary into a {@link PathTrie}, so the events share
+ * interned path nodes, and its block index. Events are decoded from the
+ * mapped blocks as they are iterated, no text is parsed.
+ * </p>
+ *
+ * <p>
+ * An iteration over a range of time only reads the blocks whose lowest and
+ * highest timestamps overlap the range. It starts at the first block with an
+ * event at or after the start of the range, found by a binary search over the
+ * highest timestamps of the blocks so far, and ends before the first block
+ * from which on all events are past the range. The file is mapped one segment
+ * of blocks at a time, like by the {@link MappedEventReader}.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class BinaryEventLogReader implements Iterable<Event>, Closeable
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final PathTrie pathTrie = new PathTrie(Integer.MAX_VALUE);
+    private long dictionaryOffset;
+    private long[] blockOffsets;
+    private long[] blockMinTimestamps;
+    private long[] blockMaxTimestamps;
+    private long[] maxTimestampsSoFar;
+    private long[] minTimestampsFrom;
+    private int[] blockSizes;
+    private long numEvents;
+
+    public BinaryEventLogReader(File file) throws IOException
+    {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public BinaryEventLogReader(File file, int segmentSize) throws IOException
+    {
+        if (file == null)
+            throw new IllegalArgumentException("Cannot initialize reader without input file");
+
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Segment size must be positive");
+
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.segmentSize = segmentSize;
+
+        try
+        {
+            readFooter();
+        }
+        catch (IOException e)
+        {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if the file starts with the magic bytes of a binary event
+     * log.
+     */
+    public static boolean isBinaryEventLog(File file) throws IOException
+    {
+        InputStream input = new FileInputStream(file);
+
+        try
+        {
+            byte[] header = new byte[BinaryEventLogWriter.MAGIC.length];
+            return Compression.readFully(input, header) == header.length
+                            && Arrays.equals(header, BinaryEventLogWriter.MAGIC);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    public long getNumEvents()
+    {
+        return numEvents;
+    }
+
+    public int getNumBlocks()
+    {
+        return blockOffsets.length;
+    }
+
+    /**
+     * Returns an iterator over all the events of the log.
+     */
+    @Override
+    public Iterator<Event> iterator()
+    {
+        return iterator(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the events with a timestamp in [from, to).
+     */
+    public Iterator<Event> iterator(long from, long to)
+    {
+        return new BlockIterator(findFirstBlock(from), from, to);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    /**
+     * Returns the first block with an event at or after the timestamp, the
+     * number of blocks if there is none.
+     */
+    private int findFirstBlock(long timestamp)
+    {
+        int low = 0;
+        int high = maxTimestampsSoFar.length;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+
+            if (maxTimestampsSoFar[middle] < timestamp)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    private void readFooter() throws IOException
+    {
+        long size = channel.size();
+        int headerLength = BinaryEventLogWriter.HEADER_LENGTH;
+        int trailerLength = BinaryEventLogWriter.TRAILER_LENGTH;
+
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, headerLength));
+        if (size < headerLength + trailerLength || !hasMagic(header)
+                        || header.get() != BinaryEventLogWriter.VERSION)
+            throw new IOException("Not a binary event log of version " + BinaryEventLogWriter.VERSION);
+
+        ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - trailerLength, trailerLength);
+        dictionaryOffset = trailer.getLong();
+        long indexOffset = trailer.getLong();
+
+        if (!hasMagic(trailer) || dictionaryOffset < headerLength || indexOffset < dictionaryOffset
+                        || indexOffset > size - trailerLength)
+            throw new IOException("Binary event log is incomplete, it was not closed");
+
+        if (size - trailerLength - dictionaryOffset > Integer.MAX_VALUE)
+            throw new IOException("Binary event log has too many paths to be read");
+
+        ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryOffset, size - trailerLength
+                        - dictionaryOffset);
+        readDictionary(footer);
+
+        footer.position((int) (indexOffset - dictionaryOffset));
+        readIndex(footer);
+    }
+
+    private void readDictionary(ByteBuffer dictionary) throws IOException
+    {
+        int numPaths = (int) readVarint(dictionary);
+
+        for (int id = 1; id <= numPaths; id++)
+        {
+            int parentId = (int) readVarint(dictionary);
+            String name = readString(dictionary);
+
+            if (parentId >= id)
+                throw new IOException("Binary event log has a path before its parent");
+
+            PathNode parent = pathTrie.getNode(parentId);
+            String path = (parent.getDepth() == 0 ? "" : parent.getPath()) + "/" + name;
+
+            if (pathTrie.intern(path).getId() != id)
+                throw new IOException("Binary event log has an invalid path " + path);
+        }
+    }
+
+    private void readIndex(ByteBuffer index)
+    {
+        int numBlocks = (int) readVarint(index);
+
+        blockOffsets = new long[numBlocks];
+        blockMinTimestamps = new long[numBlocks];
+        blockMaxTimestamps = new long[numBlocks];
+        blockSizes = new int[numBlocks];
+
+        for (int i = 0; i < numBlocks; i++)
+        {
+            blockOffsets[i] = index.getLong();
+            blockMinTimestamps[i] = index.getLong();
+            blockMaxTimestamps[i] = index.getLong();
+            blockSizes[i] = index.getInt();
+            numEvents += blockSizes[i];
+        }
+
+        // Both are sorted whatever the order of the events
+        maxTimestampsSoFar = new long[numBlocks];
+        minTimestampsFrom = new long[numBlocks];
+
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < numBlocks; i++)
+        {
+            maxTimestamp = Math.max(maxTimestamp, blockMaxTimestamps[i]);
+            maxTimestampsSoFar[i] = maxTimestamp;
+        }
+
+        long minTimestamp = Long.MAX_VALUE;
+        for (int i = numBlocks - 1; i >= 0; i--)
+        {
+            minTimestamp = Math.min(minTimestamp, blockMinTimestamps[i]);
+            minTimestampsFrom[i] = minTimestamp;
+        }
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer)
+    {
+        for (byte b : BinaryEventLogWriter.MAGIC)
+        {
+            if (buffer.get() != b)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static long readVarint(ByteBuffer buffer)
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+
+        do
+        {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while (b < 0);
+
+        return value;
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[(int) readVarint(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Decodes the events of the blocks overlapping the range from a first
+     * block on, skipping the events out of the range.
+     */
+    private class BlockIterator implements Iterator<Event>
+    {
+        private final long from;
+        private final long to;
+        private int block;
+        private int numEventsLeft;
+        private long lastTimestamp;
+        private MappedByteBuffer segment;
+        private long segmentStart;
+        private Event nextEvent;
+        private boolean isDone;
+
+        BlockIterator(int firstBlock, long from, long to)
+        {
+            this.block = firstBlock - 1;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            try
+            {
+                while (nextEvent == null && !isDone)
+                {
+                    if (numEventsLeft == 0 && !startNextBlock())
+                        isDone = true;
+                    else
+                    {
+                        Event event = readEvent();
+
+                        if (event.getTimestamp() >= from && event.getTimestamp() < to)
+                            nextEvent = event;
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                isDone = true;
+            }
+
+            return nextEvent != null;
+        }
+
+        @Override
+        public Event next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            Event event = nextEvent;
+            nextEvent = null;
+            return event;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("Events cannot be removed from the log");
+        }
+
+        private boolean startNextBlock() throws IOException
+        {
+            do
+            {
+                block++;
+                if (block >= blockOffsets.length || minTimestampsFrom[block] >= to)
+                    return false;
+            }
+            while (blockMaxTimestamps[block] < from || blockMinTimestamps[block] >= to);
+
+            long start = blockOffsets[block];
+            long end = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : dictionaryOffset;
+
+            if (segment == null || start < segmentStart || end > segmentStart + segment.limit())
+            {
+                segmentStart = start;
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(Math.max(segmentSize, end
+                                - start), dictionaryOffset - start));
+            }
+
+            segment.position((int) (start - segmentStart));
+            numEventsLeft = blockSizes[block];
+            lastTimestamp = 0;
+            return true;
+        }
+
+        private Event readEvent()
+        {
+            int flags = segment.get();
+            long delta = readVarint(segment);
+            lastTimestamp += (delta >>> 1) ^ -(delta & 1);
+            PathNode pathNode = pathTrie.getNode((int) readVarint(segment));
+            String path = (flags & BinaryEventLogWriter.RAW_PATH) != 0 ? readString(segment) : pathNode.getPath();
+
+            Event event = new Event();
+            event.setEventType((flags & BinaryEventLogWriter.DEL) != 0 ? EventType.DEL : EventType.ADD);
+            event.setTimestamp(lastTimestamp);
+            event.setPath(path, pathNode);
+
+            if ((flags & BinaryEventLogWriter.DIRECTORY) != 0)
+                event.setContentHash(Event.DIRECTORY_CONTENT_HASH);
+            else if ((flags & BinaryEventLogWriter.RAW_HASH) != 0)
+                event.setContentHash(readString(segment));
+            else
+                event.setContentHash(EventBatch.unpackHash(segment.getInt()));
+
+            numEventsLeft--;
+            return event;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.prasanna.fileevents;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Writes events to a binary event log, which a {@link BinaryEventLogReader}
+ * reads back without parsing any text. The log starts with the magic bytes
+ * FEVL and the format version byte, followed by the events in blocks of up to
+ * a block size of events, the path dictionary, the block index and a trailer.
+ * Numbers are unsigned varints, 7 bits per byte with the high bit set on all
+ * but the last byte, unless said otherwise. Every event is laid out as:
+ * </p>
+ *
+ * <pre>
+ * byte    flags, 1 for a DEL, 2 for a directory, 4 for a hash that is not 8
+ *         lower case hex digits, 8 for a path that is not the same as the
+ *         path of its dictionary entry
+ * varint  milliseconds since the previous event of the block, zigzag encoded
+ *         so an earlier event takes as few bytes as a later one, the first
+ *         event of a block has its timestamp
+ * varint  id of the path in the dictionary
+ * varint  with the path flag, length of the path, followed by it in UTF-8
+ * int     content hash of 8 hex digits as its value in big endian order, none
+ *         for a directory or with the hash flag, in which case the length of
+ *         the hash as a varint and the hash in UTF-8
+ * </pre>
+ *
+ * <p>
+ * The dictionary holds the paths of the log as the nodes of a {@link PathTrie}
+ * in the order of their ids, each as the id of its parent and its name, so a
+ * name is written once whatever the number of paths below it. The root has
+ * id 0 and is not written. The dictionary is laid out as the number of
+ * entries followed by each entry as the varint parent id and the varint length
+ * of the name followed by the name in UTF-8.
+ * </p>
+ *
+ * <p>
+ * The index is the number of blocks as a varint followed by each block as its
+ * offset in the log, its lowest and highest timestamp as big endian longs and
+ * its number of events as a big endian int. The trailer is the offsets of the
+ * dictionary and of the index as big endian longs followed by the magic bytes.
+ * A log is only complete, and readable, once the writer is closed.
+ * </p>
+ *
+ * <p>
+ * Events can be written in any order. The events read by an
+ * {@link EventReader} are in chronological order but for those following an
+ * event out of order, so a range of time is found in a few consecutive
+ * blocks. The paths of the log are kept in memory until it is closed. A
+ * writer is not thread safe.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class BinaryEventLogWriter implements Closeable
+{
+    public static final byte[] MAGIC = { 'F', 'E', 'V', 'L' };
+    public static final int VERSION = 1;
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    static final int DEL = 1;
+    static final int DIRECTORY = 2;
+    static final int RAW_HASH = 4;
+    static final int RAW_PATH = 8;
+
+    static final int HEADER_LENGTH = MAGIC.length + 1;
+    static final int TRAILER_LENGTH = 8 + 8 + MAGIC.length;
+    static final int INDEX_ENTRY_LENGTH = 8 + 8 + 8 + 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream output;
+    private final int blockSize;
+    private final PathTrie pathTrie = new PathTrie(Integer.MAX_VALUE);
+    private final byte[] longBuffer = new byte[8];
+    private long position;
+    private long numEventsWritten;
+    private long lastTimestamp;
+    private long[] blockOffsets = new long[16];
+    private long[] blockMinTimestamps = new long[16];
+    private long[] blockMaxTimestamps = new long[16];
+    private int[] blockSizes = new int[16];
+    private int numBlocks;
+    private boolean isClosed;
+
+    public BinaryEventLogWriter(File file) throws IOException
+    {
+        this(file, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BinaryEventLogWriter(File file, int blockSize) throws IOException
+    {
+        if (file == null)
+            throw new IllegalArgumentException("Cannot initialize writer without output file");
+
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Block size must be positive");
+
+        this.output = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        this.blockSize = blockSize;
+
+        write(MAGIC);
+        write(VERSION);
+    }
+
+    /**
+     * Writes all the events of the iterator to the file and closes the log.
+     * Returns the number of events written.
+     */
+    public static long convert(Iterator<Event> events, File file) throws IOException
+    {
+        BinaryEventLogWriter writer = new BinaryEventLogWriter(file);
+
+        try
+        {
+            while (events.hasNext())
+                writer.write(events.next());
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        return writer.getNumEventsWritten();
+    }
+
+    public void write(Event event) throws IOException
+    {
+        if (event.getEventType() == null || event.getPath() == null || event.getContentHash() == null)
+            throw new IllegalArgumentException("Cannot write event without type, path or content hash");
+
+        if (numBlocks == 0 || blockSizes[numBlocks - 1] == blockSize)
+            startBlock(event.getTimestamp());
+
+        String path = event.getPath();
+        String contentHash = event.getContentHash();
+        PathNode pathNode = pathTrie.intern(path);
+        boolean isRawPath = !pathNode.getPath().equals(path);
+        int flags = event.getEventType() == EventType.DEL ? DEL : 0;
+
+        if (event.isDirectoryEvent())
+            flags |= DIRECTORY;
+        else if (!EventBatch.isPackable(contentHash))
+            flags |= RAW_HASH;
+
+        if (isRawPath)
+            flags |= RAW_PATH;
+
+        write(flags);
+        long delta = event.getTimestamp() - lastTimestamp;
+        writeVarint((delta << 1) ^ (delta >> 63));
+        writeVarint(pathNode.getId());
+
+        if (isRawPath)
+            writeString(path);
+
+        if ((flags & RAW_HASH) != 0)
+            writeString(contentHash);
+        else if ((flags & DIRECTORY) == 0)
+            writeInt(EventBatch.packHash(contentHash));
+
+        lastTimestamp = event.getTimestamp();
+        blockMinTimestamps[numBlocks - 1] = Math.min(blockMinTimestamps[numBlocks - 1], lastTimestamp);
+        blockMaxTimestamps[numBlocks - 1] = Math.max(blockMaxTimestamps[numBlocks - 1], lastTimestamp);
+        blockSizes[numBlocks - 1]++;
+        numEventsWritten++;
+    }
+
+    public long getNumEventsWritten()
+    {
+        return numEventsWritten;
+    }
+
+    /**
+     * Writes the dictionary, the index and the trailer, which completes the
+     * log, and closes the file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (isClosed)
+            return;
+
+        isClosed = true;
+
+        try
+        {
+            long dictionaryOffset = position;
+            writeVarint(pathTrie.size() - 1);
+
+            for (int id = 1; id < pathTrie.size(); id++)
+            {
+                PathNode node = pathTrie.getNode(id);
+                writeVarint(node.getParent().getId());
+                writeString(node.getName());
+            }
+
+            long indexOffset = position;
+            writeVarint(numBlocks);
+
+            for (int i = 0; i < numBlocks; i++)
+            {
+                writeLong(blockOffsets[i]);
+                writeLong(blockMinTimestamps[i]);
+                writeLong(blockMaxTimestamps[i]);
+                writeInt(blockSizes[i]);
+            }
+
+            writeLong(dictionaryOffset);
+            writeLong(indexOffset);
+            write(MAGIC);
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    private void startBlock(long timestamp)
+    {
+        if (numBlocks == blockOffsets.length)
+        {
+            int capacity = numBlocks * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+            blockMinTimestamps = Arrays.copyOf(blockMinTimestamps, capacity);
+            blockMaxTimestamps = Arrays.copyOf(blockMaxTimestamps, capacity);
+            blockSizes = Arrays.copyOf(blockSizes, capacity);
+        }
+
+        blockOffsets[numBlocks] = position;
+        blockMinTimestamps[numBlocks] = timestamp;
+        blockMaxTimestamps[numBlocks] = timestamp;
+        numBlocks++;
+
+        // Deltas of a block start from 0 so it can be read on its own
+        lastTimestamp = 0;
+    }
+
+    private void write(int b) throws IOException
+    {
+        output.write(b);
+        position++;
+    }
+
+    private void write(byte[] bytes) throws IOException
+    {
+        output.write(bytes);
+        position += bytes.length;
+    }
+
+    private void writeVarint(long value) throws IOException
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        write((int) value);
+    }
+
+    private void writeString(String string) throws IOException
+    {
+        byte[] bytes = string.getBytes(UTF_8);
+        writeVarint(bytes.length);
+        write(bytes);
+    }
+
+    private void writeInt(int value) throws IOException
+    {
+        write(value >>> 24);
+        write((value >>> 16) & 0xff);
+        write((value >>> 8) & 0xff);
+        write(value & 0xff);
+    }
+
+    private void writeLong(long value) throws IOException
+    {
+        for (int i = longBuffer.length - 1; i >= 0; i--)
+        {
+            longBuffer[i] = (byte) value;
+            value >>>= 8;
+        }
+
+        write(longBuffer);
+    }
+}
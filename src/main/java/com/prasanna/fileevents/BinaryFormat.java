@@ -0,0 +1,82 @@
+package com.prasanna.fileevents;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * Encodes actions as length prefixed binary records. The output starts with
+ * the magic bytes FEVA followed by the format version byte. Every record is
+ * then laid out as, with numbers in big endian order:
+ * </p>
+ *
+ * <pre>
+ * int    length of the rest of the record
+ * long   timestamp in milliseconds
+ * byte   ordinal of the {@link Action}
+ * byte   type, 0 for a file, 1 for a directory
+ * int    length of the source path, followed by the path in UTF-8
+ * int    length of the destination path, followed by the path in UTF-8
+ * </pre>
+ *
+ * <p>
+ * A missing path, such as the destination unless the action is a move or
+ * rename, has the length -1.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class BinaryFormat extends OutputFormat
+{
+    public static final byte[] MAGIC = { 'F', 'E', 'V', 'A' };
+    public static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FIXED_LENGTH = 8 + 1 + 1 + 4 + 4;
+
+    @Override
+    public void writeHeader(OutputBuffer output) throws IOException
+    {
+        output.write(MAGIC);
+        output.write(VERSION);
+    }
+
+    @Override
+    public void writeAction(OutputBuffer output, long timestamp, Action action, String fileType,
+                    String sourcePath, String destinationPath) throws IOException
+    {
+        byte[] source = sourcePath == null ? null : sourcePath.getBytes(UTF_8);
+        byte[] destination = destinationPath == null ? null : destinationPath.getBytes(UTF_8);
+
+        output.writeInt(FIXED_LENGTH + length(source) + length(destination));
+        output.writeLong(timestamp);
+        output.write(action.ordinal());
+        output.write("dir".equals(fileType) ? 1 : 0);
+        writePath(output, source);
+        writePath(output, destination);
+    }
+
+    private static int length(byte[] path)
+    {
+        return path == null ? 0 : path.length;
+    }
+
+    private static void writePath(OutputBuffer output, byte[] path) throws IOException
+    {
+        if (path == null)
+            output.writeInt(-1);
+        else
+        {
+            output.writeInt(path.length);
+            output.write(path);
+        }
+    }
+
+    /**
+     * Lines of free text have no place in the output and are left out.
+     */
+    @Override
+    public void writeLine(OutputBuffer output, String text)
+    {
+    }
+}
@@ -0,0 +1,63 @@
+package com.prasanna.fileevents;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A reusable view of a range of bytes in a {@link ByteBuffer} as a
+ * {@link CharSequence}. Characters are read one byte at a time without any
+ * charset decoding, which is sufficient to scan the ASCII structure of an event
+ * line. Only sub sequences, such as the path of an event, are decoded as UTF-8
+ * into a new String.
+ *
+ * @author prasanna
+ */
+class ByteSequence implements CharSequence
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    void set(ByteBuffer buffer, int offset, int length)
+    {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Index " + index + " is outside of length " + length);
+
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " is outside of length " + length);
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(offset + start + i);
+
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public String toString()
+    {
+        return subSequence(0, length).toString();
+    }
+}
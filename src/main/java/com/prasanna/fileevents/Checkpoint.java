@@ -0,0 +1,282 @@
+package com.prasanna.fileevents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * The progress of interpreting an event log file, enough to continue from
+ * where it was taken instead of from the start of the file. It holds the
+ * offset in the input following the last event interpreted, the state of the
+ * reader at that offset, the events the interpreter was holding for actions
+ * not logged yet and the offset in the output following the last action
+ * logged.
+ * </p>
+ *
+ * <p>
+ * A checkpoint is written to a temporary file next to its file, synced and
+ * then renamed over its file, so the file always holds a whole checkpoint.
+ * It starts with the magic bytes FECK and the format version, the rest is
+ * laid out as, with numbers in big endian order and strings in modified UTF-8
+ * as written by {@link DataOutputStream#writeUTF(String)}:
+ * </p>
+ *
+ * <pre>
+ * string path of the input file
+ * long   offset in the input file
+ * long   offset in the output
+ * long   events of the count line left to read, -1 if there is no count line
+ * long   number of events interpreted
+ * event  last event read, or none
+ * event  last event logged, or none
+ * long   timestamp of the last event for the quiet period of the window
+ * int    number of pending histories, each an int number of events followed
+ *        by the events
+ * </pre>
+ *
+ * <p>
+ * An event is a byte, 0 for none, 1 for an add and 2 for a delete, followed
+ * for an add or delete by its long timestamp, path and content hash.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class Checkpoint
+{
+    public static final byte[] MAGIC = { 'F', 'E', 'C', 'K' };
+    public static final int VERSION = 1;
+
+    private static final int NO_EVENT = 0;
+    private static final int ADD_EVENT = 1;
+    private static final int DEL_EVENT = 2;
+
+    private final String inputPath;
+    private final long inputOffset;
+    private final long outputOffset;
+    private final long numEventsLeft;
+    private final long numEventsInterpreted;
+    private final Event lastReadEvent;
+    private final Event lastLoggedEvent;
+    private final long lastEventTimestamp;
+    private final List<List<Event>> pendingEvents;
+
+    public Checkpoint(String inputPath, long inputOffset, long outputOffset, long numEventsLeft,
+                    long numEventsInterpreted, Event lastReadEvent, Event lastLoggedEvent, long lastEventTimestamp,
+                    List<List<Event>> pendingEvents)
+    {
+        if (inputPath == null || pendingEvents == null)
+            throw new IllegalArgumentException("Cannot create checkpoint without input path or pending events");
+
+        if (inputOffset < 0 || outputOffset < 0)
+            throw new IllegalArgumentException("Input and output offsets cannot be negative");
+
+        this.inputPath = inputPath;
+        this.inputOffset = inputOffset;
+        this.outputOffset = outputOffset;
+        this.numEventsLeft = numEventsLeft;
+        this.numEventsInterpreted = numEventsInterpreted;
+        this.lastReadEvent = lastReadEvent;
+        this.lastLoggedEvent = lastLoggedEvent;
+        this.lastEventTimestamp = lastEventTimestamp;
+        this.pendingEvents = Collections.unmodifiableList(pendingEvents);
+    }
+
+    public String getInputPath()
+    {
+        return inputPath;
+    }
+
+    public long getInputOffset()
+    {
+        return inputOffset;
+    }
+
+    public long getOutputOffset()
+    {
+        return outputOffset;
+    }
+
+    public long getNumEventsLeft()
+    {
+        return numEventsLeft;
+    }
+
+    public long getNumEventsInterpreted()
+    {
+        return numEventsInterpreted;
+    }
+
+    public Event getLastReadEvent()
+    {
+        return lastReadEvent;
+    }
+
+    public Event getLastLoggedEvent()
+    {
+        return lastLoggedEvent;
+    }
+
+    public long getLastEventTimestamp()
+    {
+        return lastEventTimestamp;
+    }
+
+    /**
+     * Returns the events held by the interpreter, a list per history from the
+     * bottom of its stack.
+     */
+    public List<List<Event>> getPendingEvents()
+    {
+        return pendingEvents;
+    }
+
+    /**
+     * Replaces the file with this checkpoint.
+     */
+    public void write(File file) throws IOException
+    {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileStream = new FileOutputStream(temporaryFile);
+
+        try
+        {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileStream));
+            output.write(MAGIC);
+            output.write(VERSION);
+            output.writeUTF(inputPath);
+            output.writeLong(inputOffset);
+            output.writeLong(outputOffset);
+            output.writeLong(numEventsLeft);
+            output.writeLong(numEventsInterpreted);
+            writeEvent(output, lastReadEvent);
+            writeEvent(output, lastLoggedEvent);
+            output.writeLong(lastEventTimestamp);
+
+            output.writeInt(pendingEvents.size());
+            for (List<Event> events : pendingEvents)
+            {
+                output.writeInt(events.size());
+                for (Event event : events)
+                    writeEvent(output, event);
+            }
+
+            output.flush();
+            fileStream.getFD().sync();
+        }
+        finally
+        {
+            fileStream.close();
+        }
+
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static Checkpoint read(File file) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try
+        {
+            byte[] magic = new byte[MAGIC.length];
+            input.readFully(magic);
+
+            for (int i = 0; i < MAGIC.length; i++)
+            {
+                if (magic[i] != MAGIC[i])
+                    throw new IOException(file + " is not a checkpoint");
+            }
+
+            int version = input.read();
+            if (version != VERSION)
+                throw new IOException("Unsupported checkpoint version " + version + " in " + file);
+
+            String inputPath = input.readUTF();
+            long inputOffset = input.readLong();
+            long outputOffset = input.readLong();
+            long numEventsLeft = input.readLong();
+            long numEventsInterpreted = input.readLong();
+
+            // Paths of the checkpoint share their nodes like the paths of the
+            // parser do
+            PathTrie pathTrie = new PathTrie(Integer.MAX_VALUE);
+            Event lastReadEvent = readEvent(input, pathTrie);
+            Event lastLoggedEvent = readEvent(input, pathTrie);
+            long lastEventTimestamp = input.readLong();
+
+            int numHistories = input.readInt();
+            List<List<Event>> pendingEvents = new ArrayList<List<Event>>(numHistories);
+
+            for (int i = 0; i < numHistories; i++)
+            {
+                int numEvents = input.readInt();
+                if (numEvents <= 0)
+                    throw new IOException("Invalid pending history of " + numEvents + " events in " + file);
+
+                List<Event> events = new ArrayList<Event>(numEvents);
+                for (int j = 0; j < numEvents; j++)
+                {
+                    Event event = readEvent(input, pathTrie);
+                    if (event == null)
+                        throw new IOException("Missing pending event in " + file);
+
+                    events.add(event);
+                }
+
+                pendingEvents.add(events);
+            }
+
+            return new Checkpoint(inputPath, inputOffset, outputOffset, numEventsLeft, numEventsInterpreted,
+                            lastReadEvent, lastLoggedEvent, lastEventTimestamp, pendingEvents);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    static void writeEvent(DataOutputStream output, Event event) throws IOException
+    {
+        if (event == null)
+        {
+            output.write(NO_EVENT);
+            return;
+        }
+
+        output.write(event.getEventType() == EventType.DEL ? DEL_EVENT : ADD_EVENT);
+        output.writeLong(event.getTimestamp());
+        output.writeUTF(event.getPath());
+        output.writeUTF(event.getContentHash());
+    }
+
+    static Event readEvent(DataInputStream input, PathTrie pathTrie) throws IOException
+    {
+        int type = input.read();
+
+        if (type == NO_EVENT)
+            return null;
+
+        if (type != ADD_EVENT && type != DEL_EVENT)
+            throw new IOException("Invalid event type " + type + " in checkpoint");
+
+        Event event = new Event();
+        event.setEventType(type == DEL_EVENT ? EventType.DEL : EventType.ADD);
+        event.setTimestamp(input.readLong());
+
+        String path = input.readUTF();
+        event.setPath(path, pathTrie.intern(path));
+        event.setContentHash(input.readUTF());
+        return event;
+    }
+}
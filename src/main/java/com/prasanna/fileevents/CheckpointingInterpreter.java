@@ -0,0 +1,195 @@
+package com.prasanna.fileevents;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Interprets an event log file, writing a {@link Checkpoint} every given
+ * number of events and once the file is interpreted. Started with resume, it
+ * continues from the checkpoint instead of from the start of the file, so a
+ * restart after a crash only reads the events since the last checkpoint,
+ * however long the file is. A checkpoint taken at the end of the file is
+ * resumed as well, interpreting only the events appended to the file since.
+ * </p>
+ *
+ * <p>
+ * The output is flushed before each checkpoint, so every action logged before
+ * it has been written. Actions logged after the last checkpoint, before the
+ * process died, are logged again on resume. When the output is appended to a
+ * file whose channel is set with {@link #setOutputFile(FileChannel)}, the file
+ * is truncated to its length at the checkpoint first, so it ends up the same
+ * as if the process had not died.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class CheckpointingInterpreter
+{
+    public static final long DEFAULT_INTERVAL = 1000000;
+
+    private final MappedEventReader reader;
+    private final String inputPath;
+    private final Logger logger;
+    private final File checkpointFile;
+    private final long interval;
+    private CoalescingWindow window = CoalescingWindow.NONE;
+    private FileChannel outputFile;
+    private long outputOffset;
+    private MetricsRegistry metrics;
+    private Histogram checkpointNanos;
+
+    public CheckpointingInterpreter(MappedEventReader reader, File inputFile, Logger logger, File checkpointFile)
+    {
+        this(reader, inputFile, logger, checkpointFile, DEFAULT_INTERVAL);
+    }
+
+    public CheckpointingInterpreter(MappedEventReader reader, File inputFile, Logger logger, File checkpointFile,
+                    long interval)
+    {
+        if (reader == null || inputFile == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without reader or input file");
+
+        if (logger == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without logger");
+
+        if (checkpointFile == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without checkpoint file");
+
+        if (interval <= 0)
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+
+        this.reader = reader;
+        this.inputPath = inputFile.getAbsolutePath();
+        this.logger = logger;
+        this.checkpointFile = checkpointFile;
+        this.interval = interval;
+    }
+
+    public void setWindow(CoalescingWindow window)
+    {
+        if (window == null)
+            throw new IllegalArgumentException("Window cannot be null, use CoalescingWindow.NONE");
+
+        this.window = window;
+    }
+
+    /**
+     * Measures the interpreter in the registry along with the time taken to
+     * write each checkpoint, null to stop measuring. The events read are
+     * counted by the registry of the reader.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        this.metrics = metrics;
+        checkpointNanos = metrics == null ? null : metrics.histogram("checkpoint.write.nanos");
+    }
+
+    /**
+     * Sets the channel of the file the output is written to, null if the
+     * output is not a file.
+     */
+    public void setOutputFile(FileChannel outputFile)
+    {
+        this.outputFile = outputFile;
+    }
+
+    /**
+     * Interprets the file, from the checkpoint if resume is set and there is
+     * one, otherwise from the start.
+     *
+     * @throws IOException if the checkpoint cannot be read or written, if it
+     *             was taken of another file or if the output file is shorter
+     *             than it was at the checkpoint
+     */
+    public void interpret(boolean resume) throws IOException
+    {
+        Checkpoint checkpoint = resume && checkpointFile.exists() ? Checkpoint.read(checkpointFile) : null;
+        EventInterpreter interpreter;
+        MappedEventReader.MappedEventIterator events;
+        long numEvents = 0;
+
+        if (checkpoint == null)
+        {
+            // Output appended to a file starts at its end. The first checkpoint
+            // is taken before anything is logged, resuming it starts over.
+            long start = outputFile == null ? 0 : outputFile.size();
+            outputOffset = start - logger.getNumBytesLogged();
+            new Checkpoint(inputPath, 0, start, -1, 0, null, null, 0, new ArrayList<List<Event>>())
+                            .write(checkpointFile);
+        }
+        else
+        {
+            if (!checkpoint.getInputPath().equals(inputPath))
+                throw new IOException("Checkpoint " + checkpointFile + " was taken of " + checkpoint.getInputPath());
+
+            if (checkpoint.getInputOffset() > reader.size())
+                throw new IOException("Checkpoint " + checkpointFile + " is past the end of " + inputPath);
+
+            if (outputFile != null)
+                truncateOutput(checkpoint.getOutputOffset());
+
+            outputOffset = checkpoint.getOutputOffset() - logger.getNumBytesLogged();
+        }
+
+        if (checkpoint == null || checkpoint.getInputOffset() == 0)
+        {
+            interpreter = new EventInterpreter(logger);
+            events = reader.positionedIterator();
+        }
+        else
+        {
+            interpreter = new EventInterpreter(logger, checkpoint.getLastLoggedEvent());
+            interpreter.restorePendingEvents(checkpoint.getPendingEvents(), checkpoint.getLastEventTimestamp());
+            events = reader.positionedIterator(checkpoint.getInputOffset(), checkpoint.getNumEventsLeft(),
+                            checkpoint.getLastReadEvent());
+            numEvents = checkpoint.getNumEventsInterpreted();
+        }
+
+        interpreter.setWindow(window);
+        interpreter.setMetrics(metrics);
+
+        while (events.hasNext())
+        {
+            interpreter.interpretEvent(events.next());
+
+            if (++numEvents % interval == 0)
+                writeCheckpoint(interpreter, events, numEvents);
+        }
+
+        interpreter.flush();
+        writeCheckpoint(interpreter, events, numEvents);
+    }
+
+    private void truncateOutput(long offset) throws IOException
+    {
+        if (outputFile.size() < offset)
+            throw new IOException("Output is shorter than at checkpoint " + checkpointFile + ", " + offset
+                            + " bytes, it must be appended to");
+
+        outputFile.truncate(offset);
+        outputFile.position(offset);
+    }
+
+    private void writeCheckpoint(EventInterpreter interpreter, MappedEventReader.MappedEventIterator events,
+                    long numEvents) throws IOException
+    {
+        logger.flush();
+
+        // Nothing was read from an empty file, the first checkpoint still holds
+        if (events.getPosition() == 0)
+            return;
+
+        long start = System.nanoTime();
+
+        new Checkpoint(inputPath, events.getPosition(), outputOffset + logger.getNumBytesLogged(),
+                        events.getNumEventsLeft(), numEvents, events.getLastEvent(), interpreter.getLastLoggedEvent(),
+                        interpreter.getLastEventTimestamp(), interpreter.getPendingEvents()).write(checkpointFile);
+
+        if (checkpointNanos != null)
+            checkpointNanos.record(System.nanoTime() - start);
+    }
+}
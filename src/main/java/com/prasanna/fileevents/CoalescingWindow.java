@@ -0,0 +1,70 @@
+package com.prasanna.fileevents;
+
+/**
+ * <p>
+ * Bounds how long and how many events the {@link EventInterpreter} holds
+ * while waiting for the events that complete a move or rename. Pending events
+ * are interpreted with what is known once no event arrived for the quiet
+ * period, or once the history of pending events reaches its maximum size,
+ * instead of waiting for an event that does not belong to them.
+ * </p>
+ *
+ * <p>
+ * Events that complete an operation after it was interpreted are interpreted
+ * on their own, so a window trades the detection of slow or very large moves
+ * for bounded latency and memory on endless streams.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class CoalescingWindow
+{
+    /** Holds pending events until an event that does not belong to them. */
+    public static final CoalescingWindow NONE = new CoalescingWindow(0, WindowClock.EVENT_TIME, 0);
+
+    private final long quietPeriod;
+    private final WindowClock clock;
+    private final int maxHistorySize;
+
+    /**
+     * Creates a window with the quiet period in milliseconds and the maximum
+     * number of pending events, either of which is disabled with 0.
+     */
+    public CoalescingWindow(long quietPeriod, WindowClock clock, int maxHistorySize)
+    {
+        if (quietPeriod < 0 || maxHistorySize < 0)
+            throw new IllegalArgumentException("Quiet period and history size cannot be negative");
+
+        if (clock == null)
+            throw new IllegalArgumentException("Cannot initialize window without clock");
+
+        this.quietPeriod = quietPeriod;
+        this.clock = clock;
+        this.maxHistorySize = maxHistorySize;
+    }
+
+    public long getQuietPeriod()
+    {
+        return quietPeriod;
+    }
+
+    public boolean hasQuietPeriod()
+    {
+        return quietPeriod > 0;
+    }
+
+    public WindowClock getClock()
+    {
+        return clock;
+    }
+
+    public int getMaxHistorySize()
+    {
+        return maxHistorySize;
+    }
+
+    public boolean hasMaxHistorySize()
+    {
+        return maxHistorySize > 0;
+    }
+}
@@ -0,0 +1,132 @@
+package com.prasanna.fileevents;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Compression of event logs and outputs, told apart by the magic bytes at the
+ * start of the data. Gzip is read and written with the JDK. Zstandard is
+ * recognized but not supported, the JDK has no codec for it, such data has to
+ * be decompressed with zstd -d first.
+ * </p>
+ *
+ * @author prasanna
+ */
+public enum Compression
+{
+    NONE, GZIP, ZSTD;
+
+    /**
+     * Number of bytes needed to tell the compressions apart.
+     */
+    public static final int MAGIC_LENGTH = 4;
+
+    private static final byte[] GZIP_MAGIC = { 0x1f, (byte) 0x8b };
+    private static final byte[] ZSTD_MAGIC = { 0x28, (byte) 0xb5, 0x2f, (byte) 0xfd };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns the compression of data starting with the first length bytes of
+     * the header.
+     */
+    public static Compression detect(byte[] header, int length)
+    {
+        if (startsWith(header, length, GZIP_MAGIC))
+            return GZIP;
+
+        if (startsWith(header, length, ZSTD_MAGIC))
+            return ZSTD;
+
+        return NONE;
+    }
+
+    public static Compression detect(File file) throws IOException
+    {
+        InputStream input = new FileInputStream(file);
+
+        try
+        {
+            byte[] header = new byte[MAGIC_LENGTH];
+            return detect(header, readFully(input, header));
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the compression with the given name, or null if there is none.
+     */
+    public static Compression forName(String name)
+    {
+        for (Compression compression : values())
+        {
+            if (compression.name().equalsIgnoreCase(name))
+                return compression;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a stream compressing what is written to it into the output. A
+     * flush of the stream writes all the data written so far, so it can be
+     * decompressed while more is written. The stream must be finished, or
+     * closed, for the compressed data to be complete.
+     *
+     * @throws IOException if the compression is not supported
+     */
+    public OutputStream compress(OutputStream output) throws IOException
+    {
+        switch (this)
+        {
+        case NONE:
+            return output;
+        case GZIP:
+            return new GZIPOutputStream(output, BUFFER_SIZE, true);
+        default:
+            throw new IOException(this + " compression is not supported");
+        }
+    }
+
+    /**
+     * Reads up to buffer length bytes, fewer only at the end of the input.
+     * Returns the number of bytes read.
+     */
+    static int readFully(InputStream input, byte[] buffer) throws IOException
+    {
+        int length = 0;
+
+        while (length < buffer.length)
+        {
+            int numRead = input.read(buffer, length, buffer.length - length);
+            if (numRead < 0)
+                break;
+
+            length += numRead;
+        }
+
+        return length;
+    }
+
+    private static boolean startsWith(byte[] header, int length, byte[] magic)
+    {
+        if (length < magic.length)
+            return false;
+
+        for (int i = 0; i < magic.length; i++)
+        {
+            if (header[i] != magic[i])
+                return false;
+        }
+
+        return true;
+    }
+}
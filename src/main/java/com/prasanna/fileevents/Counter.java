@@ -0,0 +1,36 @@
+package com.prasanna.fileevents;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up, such as the number of lines read. Safe to use
+ * from multiple threads.
+ *
+ * @author prasanna
+ */
+public class Counter implements CounterMBean
+{
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment()
+    {
+        count.incrementAndGet();
+    }
+
+    public void add(long delta)
+    {
+        count.addAndGet(delta);
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.valueOf(getCount());
+    }
+}
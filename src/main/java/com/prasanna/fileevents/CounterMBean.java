@@ -0,0 +1,11 @@
+package com.prasanna.fileevents;
+
+/**
+ * JMX view of a {@link Counter}.
+ *
+ * @author prasanna
+ */
+public interface CounterMBean
+{
+    long getCount();
+}
@@ -0,0 +1,88 @@
+package com.prasanna.fileevents;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Formats actions as comma separated values with a header row. The columns
+ * are the timestamp in milliseconds, the action, the type, the source path and
+ * the destination path, which is empty unless the action is a move or rename.
+ * Values holding a comma, a quote or a line break are quoted. Text is encoded
+ * as UTF-8.
+ *
+ * @author prasanna
+ */
+public class CsvFormat extends OutputFormat
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HEADER = "timestamp,action,type,source,destination\n";
+
+    private final StringBuilder line = new StringBuilder(128);
+
+    @Override
+    public void writeHeader(OutputBuffer output) throws IOException
+    {
+        output.write(HEADER, UTF_8);
+    }
+
+    @Override
+    public void writeAction(OutputBuffer output, long timestamp, Action action, String fileType,
+                    String sourcePath, String destinationPath) throws IOException
+    {
+        line.setLength(0);
+        line.append(timestamp).append(',');
+        line.append(action.name()).append(',');
+        line.append(fileType).append(',');
+        appendValue(sourcePath);
+        line.append(',');
+        appendValue(destinationPath);
+        line.append('\n');
+
+        output.write(line, UTF_8);
+    }
+
+    private void appendValue(String value)
+    {
+        if (value == null)
+            return;
+
+        if (!needsQuotes(value))
+        {
+            line.append(value);
+            return;
+        }
+
+        line.append('"');
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"')
+                line.append('"');
+
+            line.append(c);
+        }
+
+        line.append('"');
+    }
+
+    private static boolean needsQuotes(String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r')
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Lines of free text have no place in the output and are left out.
+     */
+    @Override
+    public void writeLine(OutputBuffer output, String text)
+    {
+    }
+}
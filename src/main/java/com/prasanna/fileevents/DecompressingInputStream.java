@@ -0,0 +1,259 @@
+package com.prasanna.fileevents;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Input stream that reads compressed or plain input alike, telling them apart
+ * by the magic bytes of its first read, see {@link Compression}. Plain input
+ * is read as is. Gzip input is decompressed on a thread of its own into a few
+ * chunks handed over through a {@link RingBuffer}, so decompressing overlaps
+ * with the reader parsing the chunk before. A chunk is handed over once full
+ * or once the compressed input has no more bytes available, so a live gzip
+ * stream that is flushed is read as it arrives. The chunks are handed back
+ * once read and reused.
+ * </p>
+ *
+ * <p>
+ * Only as many bytes as needed are read to detect the compression, the first
+ * one unless it can start a magic, so lines of a live plain input are not
+ * held back.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class DecompressingInputStream extends InputStream
+{
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int NUM_CHUNKS = 8;
+
+    private final PushbackInputStream source;
+    private Compression compression;
+    private RingBuffer<Chunk> filledChunks;
+    private RingBuffer<Chunk> emptyChunks;
+    private Thread decompressor;
+    private volatile IOException failure;
+    private final List<Chunk> batch = new ArrayList<Chunk>(1);
+    private Chunk chunk;
+    private int position;
+
+    public DecompressingInputStream(InputStream source)
+    {
+        if (source == null)
+            throw new IllegalArgumentException("Cannot initialize stream without source");
+
+        this.source = new PushbackInputStream(source, Compression.MAGIC_LENGTH);
+    }
+
+    /**
+     * Returns the compression of the input, detecting it if nothing was read
+     * yet.
+     */
+    public Compression getCompression() throws IOException
+    {
+        if (compression == null)
+            detect();
+
+        return compression;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (getCompression() == Compression.NONE)
+            return source.read(b, off, len);
+
+        if (len == 0)
+            return 0;
+
+        if ((chunk == null || position == chunk.length) && !nextChunk())
+            return -1;
+
+        int length = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk.bytes, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        if (getCompression() == Compression.NONE)
+            return source.available();
+
+        int available = chunk == null ? 0 : chunk.length - position;
+        return available > 0 ? available : filledChunks.size() > 0 ? 1 : 0;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (decompressor != null)
+        {
+            decompressor.interrupt();
+            filledChunks.close();
+            emptyChunks.close();
+        }
+
+        source.close();
+    }
+
+    private void detect() throws IOException
+    {
+        byte[] header = new byte[Compression.MAGIC_LENGTH];
+        int length = source.read(header, 0, 1);
+
+        // Only the magic bytes are waited for, any other first byte is plain
+        if (length == 1 && (header[0] == 0x1f || header[0] == 0x28))
+        {
+            while (length < header.length)
+            {
+                int numRead = source.read(header, length, header.length - length);
+                if (numRead < 0)
+                    break;
+
+                length += numRead;
+            }
+        }
+
+        if (length > 0)
+            source.unread(header, 0, length);
+
+        compression = Compression.detect(header, Math.max(length, 0));
+
+        if (compression == Compression.ZSTD)
+            throw new IOException("Zstandard compressed input is not supported, decompress it with zstd -d");
+
+        if (compression == Compression.GZIP)
+            startDecompressor();
+    }
+
+    private void startDecompressor() throws IOException
+    {
+        final GZIPInputStream gzipInput = new GZIPInputStream(source, CHUNK_SIZE);
+
+        filledChunks = new RingBuffer<Chunk>(NUM_CHUNKS, Backpressure.BLOCK);
+        emptyChunks = new RingBuffer<Chunk>(NUM_CHUNKS, Backpressure.BLOCK);
+
+        try
+        {
+            for (int i = 0; i < NUM_CHUNKS; i++)
+                emptyChunks.put(new Chunk());
+        }
+        catch (InterruptedException e)
+        {
+            throw new IllegalStateException("Interrupted while creating chunks", e);
+        }
+
+        decompressor = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                decompress(gzipInput);
+            }
+        }, "decompressor");
+        decompressor.setDaemon(true);
+        decompressor.start();
+    }
+
+    private void decompress(InputStream input)
+    {
+        List<Chunk> empty = new ArrayList<Chunk>(1);
+
+        try
+        {
+            while (emptyChunks.drainTo(empty, 1) > 0)
+            {
+                Chunk emptyChunk = empty.remove(0);
+                if (!fill(input, emptyChunk))
+                    break;
+
+                filledChunks.put(emptyChunk);
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        catch (InterruptedException e)
+        {
+            // Closed
+        }
+        finally
+        {
+            filledChunks.close();
+        }
+    }
+
+    /**
+     * Fills the chunk with as much as can be decompressed without waiting for
+     * more input, at least one byte. Returns false at the end of the input.
+     */
+    private boolean fill(InputStream input, Chunk emptyChunk) throws IOException
+    {
+        emptyChunk.length = 0;
+
+        while (emptyChunk.length < emptyChunk.bytes.length)
+        {
+            int numRead = input.read(emptyChunk.bytes, emptyChunk.length, emptyChunk.bytes.length
+                            - emptyChunk.length);
+
+            if (numRead < 0)
+                break;
+
+            emptyChunk.length += numRead;
+
+            if (emptyChunk.length > 0 && source.available() == 0)
+                break;
+        }
+
+        return emptyChunk.length > 0;
+    }
+
+    private boolean nextChunk() throws IOException
+    {
+        try
+        {
+            if (chunk != null)
+                emptyChunks.put(chunk);
+
+            chunk = null;
+            position = 0;
+
+            if (filledChunks.drainTo(batch, 1) == 0)
+            {
+                if (failure != null)
+                    throw failure;
+
+                return false;
+            }
+
+            chunk = batch.remove(0);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for decompressed input");
+        }
+    }
+
+    private static class Chunk
+    {
+        private final byte[] bytes = new byte[CHUNK_SIZE];
+        private int length;
+    }
+}
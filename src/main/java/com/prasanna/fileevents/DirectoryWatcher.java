@@ -0,0 +1,582 @@
+package com.prasanna.fileevents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * Watches a directory tree with a {@link WatchService} and pushes the adds and
+ * deletes of its files and directories into an {@link EventInterpreter}. Paths
+ * are relative to the watched directory, which is /.
+ * </p>
+ *
+ * <p>
+ * The watcher keeps a snapshot of the tree with the content hash of every
+ * file, the CRC32 of its contents as 8 hex digits, so a delete carries the
+ * hash the file had and moves and renames are recognized. Files are hashed on
+ * a pool with a bounded number of threads and only hashed again when their
+ * size or modification time changes.
+ * </p>
+ *
+ * <p>
+ * Notifications are collected until none arrives for a moment and handled as
+ * a batch. The deletes of a batch are handled before its creates, so the two
+ * halves of a move are in the order the interpreter expects, and the
+ * interpreter is flushed after every batch. A directory delete is followed by
+ * the deletes of everything below it and a directory create by the adds of
+ * everything in it. When notifications are lost the tree is scanned again and
+ * compared with the snapshot.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class DirectoryWatcher implements Closeable
+{
+    private static final long BATCH_DELAY_MILLIS = 50;
+    private static final int MAX_BATCH_SIZE = 4096;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final EventInterpreter interpreter;
+    private final WatchService watchService;
+    private final ExecutorService hashingPool;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+    private final TreeMap<String, Entry> snapshot = new TreeMap<String, Entry>();
+    private long lastTimestamp;
+
+    /**
+     * Creates a watcher logging the actions with a new interpreter. The
+     * interpreter ignores a file delete when no action was logged before it,
+     * as the delete of the directory it was in may have been left out of an
+     * event log. A watched tree is complete from the start, so the interpreter
+     * starts as if the add of the root directory was logged.
+     */
+    public DirectoryWatcher(Path root, Logger logger, int hashingThreads) throws IOException
+    {
+        this(root, createInterpreter(logger), hashingThreads);
+    }
+
+    public DirectoryWatcher(Path root, EventInterpreter interpreter, int hashingThreads) throws IOException
+    {
+        if (root == null || !Files.isDirectory(root))
+            throw new IllegalArgumentException("Cannot watch " + root + ", it is not a directory");
+
+        if (interpreter == null)
+            throw new IllegalArgumentException("Cannot initialize watcher without interpreter");
+
+        if (hashingThreads <= 0)
+            throw new IllegalArgumentException("Number of hashing threads must be positive");
+
+        this.root = root.toAbsolutePath().normalize();
+        this.interpreter = interpreter;
+        this.watchService = root.getFileSystem().newWatchService();
+        this.hashingPool = Executors.newFixedThreadPool(hashingThreads);
+    }
+
+    private static EventInterpreter createInterpreter(Logger logger)
+    {
+        if (logger == null)
+            throw new IllegalArgumentException("Cannot initialize watcher without logger");
+
+        logger.printHeader();
+        return new EventInterpreter(logger, createEvent(EventType.ADD, 0, "/", Event.DIRECTORY_CONTENT_HASH));
+    }
+
+    /**
+     * Takes the snapshot of the tree and interprets its changes until the
+     * watcher is closed.
+     */
+    public void watch() throws IOException, InterruptedException
+    {
+        scan(root, null);
+
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watchService.take();
+                List<Notification> batch = new ArrayList<Notification>();
+                boolean isOverflow = false;
+
+                // Notifications are collected until none arrives for a moment
+                while (key != null)
+                {
+                    isOverflow |= collect(key, batch);
+                    key = batch.size() < MAX_BATCH_SIZE ? watchService.poll(BATCH_DELAY_MILLIS,
+                                    TimeUnit.MILLISECONDS) : null;
+                }
+
+                if (isOverflow)
+                    rescan();
+                else
+                    handle(batch);
+
+                interpreter.flush();
+            }
+        }
+        catch (ClosedWatchServiceException e)
+        {
+            // Closed, stop watching
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        watchService.close();
+        hashingPool.shutdownNow();
+    }
+
+    /**
+     * Adds the notifications of the key to the batch. Returns true if
+     * notifications were lost.
+     */
+    private boolean collect(WatchKey key, List<Notification> batch)
+    {
+        Path directory = watchedDirectories.get(key);
+        boolean isOverflow = false;
+
+        for (WatchEvent<?> watchEvent : key.pollEvents())
+        {
+            WatchEvent.Kind<?> kind = watchEvent.kind();
+
+            if (kind == StandardWatchEventKinds.OVERFLOW)
+                isOverflow = true;
+            else if (directory != null)
+                batch.add(new Notification(kind, directory.resolve((Path) watchEvent.context())));
+        }
+
+        if (!key.reset())
+            watchedDirectories.remove(key);
+
+        return isOverflow;
+    }
+
+    private void handle(List<Notification> batch) throws IOException, InterruptedException
+    {
+        // A directory sorts before what is below it, so its delete comes
+        // first and covers the deletes of its contents
+        Set<String> deleted = new TreeSet<String>();
+        Set<Path> created = new LinkedHashSet<Path>();
+        Set<Path> modified = new LinkedHashSet<Path>();
+
+        for (Notification notification : batch)
+        {
+            if (notification.kind == StandardWatchEventKinds.ENTRY_DELETE)
+                deleted.add(toEventPath(notification.path));
+            else if (notification.kind == StandardWatchEventKinds.ENTRY_CREATE)
+                created.add(notification.path);
+            else
+                modified.add(notification.path);
+        }
+
+        for (String eventPath : deleted)
+            delete(eventPath);
+
+        for (Path path : created)
+        {
+            if (!snapshot.containsKey(toEventPath(path)))
+                scan(path, EventType.ADD);
+        }
+
+        for (Path path : modified)
+            update(path);
+    }
+
+    /**
+     * Interprets the delete of the path and of everything below it.
+     */
+    private void delete(String eventPath)
+    {
+        Entry entry = snapshot.remove(eventPath);
+
+        if (entry == null)
+            return;
+
+        long timestamp = nextTimestamp();
+        interpreter.interpretEvent(createEvent(EventType.DEL, timestamp, eventPath, entry.contentHash));
+
+        if (entry.isDirectory())
+        {
+            SortedMap<String, Entry> descendants = getDescendants(eventPath);
+
+            for (Map.Entry<String, Entry> descendant : descendants.entrySet())
+            {
+                interpreter.interpretEvent(createEvent(EventType.DEL, timestamp, descendant.getKey(), descendant
+                                .getValue().contentHash));
+            }
+
+            descendants.clear();
+        }
+    }
+
+    /**
+     * Updates the content hash of a modified file, which does not interpret
+     * any event.
+     */
+    private void update(Path path) throws IOException, InterruptedException
+    {
+        String eventPath = toEventPath(path);
+        Entry entry = snapshot.get(eventPath);
+
+        if (entry == null || entry.isDirectory())
+            return;
+
+        List<PendingEntry> pending = new ArrayList<PendingEntry>();
+        addFile(path, eventPath, pending);
+        hash(pending);
+
+        for (PendingEntry pendingEntry : pending)
+        {
+            if (pendingEntry.entry.contentHash != null)
+                snapshot.put(pendingEntry.eventPath, pendingEntry.entry);
+        }
+    }
+
+    /**
+     * Registers the directories at and below the path and adds what is found
+     * to the snapshot. Adds are interpreted for everything found when
+     * eventType is not null.
+     */
+    private void scan(Path start, EventType eventType) throws IOException, InterruptedException
+    {
+        final List<PendingEntry> pending = new ArrayList<PendingEntry>();
+
+        if (!Files.exists(start, LinkOption.NOFOLLOW_LINKS))
+            return;
+
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+                            throws IOException
+            {
+                watchedDirectories.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY),
+                                directory);
+
+                if (!directory.equals(root))
+                    pending.add(new PendingEntry(directory, toEventPath(directory), new Entry(
+                                    Event.DIRECTORY_CONTENT_HASH, 0, 0)));
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+            {
+                if (attributes.isRegularFile())
+                    addFile(file, toEventPath(file), attributes, pending);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e)
+            {
+                // Gone before it could be read
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        hash(pending);
+
+        long timestamp = nextTimestamp();
+        for (PendingEntry pendingEntry : pending)
+        {
+            if (pendingEntry.entry.contentHash == null)
+                continue;
+
+            snapshot.put(pendingEntry.eventPath, pendingEntry.entry);
+
+            if (eventType != null)
+                interpreter.interpretEvent(createEvent(eventType, timestamp, pendingEntry.eventPath,
+                                pendingEntry.entry.contentHash));
+        }
+    }
+
+    /**
+     * Scans the whole tree after notifications were lost and interprets the
+     * differences with the snapshot. A file whose contents changed only gets
+     * its new hash.
+     */
+    private void rescan() throws IOException, InterruptedException
+    {
+        TreeMap<String, Entry> oldSnapshot = new TreeMap<String, Entry>(snapshot);
+        snapshot.clear();
+        scan(root, null);
+
+        // Deletes of what is gone, a directory along with everything below it
+        long timestamp = nextTimestamp();
+        Set<String> deletedDirectories = new HashSet<String>();
+
+        for (Map.Entry<String, Entry> entry : oldSnapshot.entrySet())
+        {
+            String eventPath = entry.getKey();
+            Entry old = entry.getValue();
+
+            if (isSameKind(old, snapshot.get(eventPath)) || isBelowAny(eventPath, deletedDirectories))
+                continue;
+
+            interpreter.interpretEvent(createEvent(EventType.DEL, timestamp, eventPath, old.contentHash));
+
+            if (old.isDirectory())
+            {
+                deletedDirectories.add(eventPath);
+
+                for (Map.Entry<String, Entry> descendant : getDescendants(oldSnapshot, eventPath).entrySet())
+                {
+                    interpreter.interpretEvent(createEvent(EventType.DEL, timestamp, descendant.getKey(),
+                                    descendant.getValue().contentHash));
+                }
+            }
+        }
+
+        // Adds of what is new, parents sort before their children
+        for (Map.Entry<String, Entry> entry : snapshot.entrySet())
+        {
+            String eventPath = entry.getKey();
+
+            if (!isSameKind(oldSnapshot.get(eventPath), entry.getValue())
+                            || isBelowAny(eventPath, deletedDirectories))
+            {
+                interpreter.interpretEvent(createEvent(EventType.ADD, timestamp, eventPath,
+                                entry.getValue().contentHash));
+            }
+        }
+    }
+
+    private static boolean isSameKind(Entry entry, Entry other)
+    {
+        return entry != null && other != null && entry.isDirectory() == other.isDirectory();
+    }
+
+    private static boolean isBelowAny(String eventPath, Set<String> directories)
+    {
+        for (int i = eventPath.lastIndexOf('/'); i > 0; i = eventPath.lastIndexOf('/', i - 1))
+        {
+            if (directories.contains(eventPath.substring(0, i)))
+                return true;
+        }
+
+        return false;
+    }
+
+    private SortedMap<String, Entry> getDescendants(String directory)
+    {
+        return getDescendants(snapshot, directory);
+    }
+
+    /**
+     * Returns the paths below the directory, which sort between the directory
+     * followed by / and the directory followed by the character after /.
+     */
+    private static SortedMap<String, Entry> getDescendants(TreeMap<String, Entry> snapshot, String directory)
+    {
+        return snapshot.subMap(directory + '/', directory + (char) ('/' + 1));
+    }
+
+    private void addFile(Path file, String eventPath, List<PendingEntry> pending)
+    {
+        try
+        {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+
+            if (attributes.isRegularFile())
+                addFile(file, eventPath, attributes, pending);
+        }
+        catch (IOException e)
+        {
+            // Gone before it could be read
+        }
+    }
+
+    private void addFile(Path file, String eventPath, BasicFileAttributes attributes, List<PendingEntry> pending)
+    {
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        // Unchanged files keep their hash
+        Entry entry = snapshot.get(eventPath);
+        if (entry != null && !entry.isDirectory() && entry.size == size && entry.lastModified == lastModified)
+            pending.add(new PendingEntry(file, eventPath, entry));
+        else
+            pending.add(new PendingEntry(file, eventPath, new Entry(null, size, lastModified)));
+    }
+
+    /**
+     * Hashes the files without a hash on the hashing pool. Files that cannot
+     * be read are left without one.
+     */
+    private void hash(List<PendingEntry> pending) throws InterruptedException
+    {
+        List<Future<String>> hashes = new ArrayList<Future<String>>(pending.size());
+
+        for (final PendingEntry pendingEntry : pending)
+        {
+            if (pendingEntry.entry.contentHash != null)
+                hashes.add(null);
+            else
+            {
+                hashes.add(hashingPool.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws IOException
+                    {
+                        return hash(pendingEntry.path);
+                    }
+                }));
+            }
+        }
+
+        for (int i = 0; i < pending.size(); i++)
+        {
+            Future<String> hash = hashes.get(i);
+            if (hash == null)
+                continue;
+
+            try
+            {
+                pending.get(i).entry.contentHash = hash.get();
+            }
+            catch (ExecutionException e)
+            {
+                // Gone before it could be read
+            }
+        }
+    }
+
+    /**
+     * Returns the CRC32 of the contents of the file as 8 hex digits. The file
+     * is read in chunks, updating the checksum as it goes.
+     */
+    static String hash(Path file) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        InputStream inputStream = Files.newInputStream(file);
+
+        try
+        {
+            int length;
+            while ((length = inputStream.read(buffer)) > 0)
+                crc.update(buffer, 0, length);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+
+        String hex = Long.toHexString(crc.getValue());
+        return "00000000".substring(hex.length()) + hex;
+    }
+
+    private String toEventPath(Path path)
+    {
+        StringBuilder eventPath = new StringBuilder();
+
+        for (Path name : root.relativize(path))
+            eventPath.append('/').append(name.toString());
+
+        return eventPath.length() == 0 ? "/" : eventPath.toString();
+    }
+
+    /**
+     * Returns the current time, never earlier than a timestamp returned
+     * before, so the interpreter sees the events in chronological order.
+     */
+    private long nextTimestamp()
+    {
+        lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        return lastTimestamp;
+    }
+
+    private static Event createEvent(EventType eventType, long timestamp, String path, String contentHash)
+    {
+        Event event = new Event();
+        event.setEventType(eventType);
+        event.setTimestamp(timestamp);
+        event.setPath(path);
+        event.setContentHash(contentHash);
+        return event;
+    }
+
+    private static class Notification
+    {
+        private final WatchEvent.Kind<?> kind;
+        private final Path path;
+
+        Notification(WatchEvent.Kind<?> kind, Path path)
+        {
+            this.kind = kind;
+            this.path = path;
+        }
+    }
+
+    /**
+     * A file or directory in the snapshot. The content hash of a file is null
+     * until it is hashed.
+     */
+    private static class Entry
+    {
+        private String contentHash;
+        private final long size;
+        private final long lastModified;
+
+        Entry(String contentHash, long size, long lastModified)
+        {
+            this.contentHash = contentHash;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean isDirectory()
+        {
+            return Event.DIRECTORY_CONTENT_HASH.equals(contentHash);
+        }
+    }
+
+    private static class PendingEntry
+    {
+        private final Path path;
+        private final String eventPath;
+        private final Entry entry;
+
+        PendingEntry(Path path, String eventPath, Entry entry)
+        {
+            this.path = path;
+            this.eventPath = eventPath;
+            this.entry = entry;
+        }
+    }
+}
@@ -1,14 +1,23 @@
 package com.prasanna.fileevents;
 
-import java.io.File;
-import java.util.StringTokenizer;
-
+/**
+ * An add or delete of a file or directory. The path is also kept as a
+ * {@link PathNode}, either interned by the parser or created on first use, so
+ * the parent, file name and ancestors of the path are known without parsing
+ * it again.
+ * 
+ * @author prasanna
+ */
 public class Event
 {
+    public static final String DIRECTORY_CONTENT_HASH = "-";
+
     private EventType eventType;
-    private Long timestamp;
+    private long timestamp;
     private String path;
+    private PathNode pathNode;
     private String contentHash;
+    private boolean isDirectory;
 
     public EventType getEventType()
     {
@@ -20,12 +29,12 @@ public class Event
         this.eventType = eventType;
     }
 
-    public Long getTimestamp()
+    public long getTimestamp()
     {
         return timestamp;
     }
 
-    public void setTimestamp(Long timestamp)
+    public void setTimestamp(long timestamp)
     {
         this.timestamp = timestamp;
     }
@@ -38,6 +47,24 @@ public class Event
     public void setPath(String path)
     {
         this.path = path;
+        this.pathNode = null;
+    }
+
+    /**
+     * Sets the path along with its interned node.
+     */
+    void setPath(String path, PathNode pathNode)
+    {
+        this.path = path;
+        this.pathNode = pathNode;
+    }
+
+    public PathNode getPathNode()
+    {
+        if (pathNode == null && path != null)
+            pathNode = PathNode.of(path);
+
+        return pathNode;
     }
 
     public String getContentHash()
@@ -48,20 +75,18 @@ public class Event
     public void setContentHash(String contentHash)
     {
         this.contentHash = contentHash;
+        this.isDirectory = contentHash != null && contentHash.equals(DIRECTORY_CONTENT_HASH);
     }
 
     public boolean isDirectoryEvent()
     {
-        if (contentHash != null && contentHash.equals("-"))
-            return true;
-
-        return false;
+        return isDirectory;
     }
 
     public String getParentPath()
     {
-        File file = new File(path);
-        return file.getParent();
+        PathNode parent = getPathNode().getParent();
+        return parent == null ? null : parent.getPath();
     }
 
     public String getFileType()
@@ -71,37 +96,37 @@ public class Event
 
     public boolean isUnderParent(String parentPath)
     {
-        boolean isUnderParent = false;
+        return parentPath != null && getPathNode().isUnder(PathNode.of(parentPath));
+    }
 
-        if (parentPath != null && path.length() > parentPath.length())
-        {
-            StringTokenizer tokenizer = new StringTokenizer(parentPath, "/");
-            StringTokenizer tokenizerForMyPath = new StringTokenizer(path, "/");
-
-            while (tokenizer.hasMoreTokens())
-            {
-                String parentPathPart = tokenizer.nextToken();
-                String myPathPart = tokenizerForMyPath.nextToken();
-                if (myPathPart == null || !myPathPart.equals(parentPathPart))
-                {
-                    isUnderParent = false;
-                    break;
-                }
-
-                isUnderParent = true;
-            }
-        }
+    /**
+     * Returns true if the path of this event is below the path of the given
+     * event, at any depth.
+     */
+    public boolean isUnderParent(Event parent)
+    {
+        return getPathNode().isUnder(parent.getPathNode());
+    }
 
-        return isUnderParent;
+    /**
+     * Returns true if the path of this event is directly below the path of the
+     * given event.
+     */
+    public boolean isChildOf(Event parent)
+    {
+        return getPathNode().getParent() != null && getPathNode().getParent().isSame(parent.getPathNode());
+    }
+
+    public boolean hasSameParent(Event event)
+    {
+        PathNode parent = getPathNode().getParent();
+        return parent != null && parent.isSame(event.getPathNode().getParent());
     }
 
     public String getFileName()
     {
         if (path != null)
-        {
-            File file = new File(path);
-            return file.getName();
-        }
+            return getPathNode().getName();
 
         return null;
     }
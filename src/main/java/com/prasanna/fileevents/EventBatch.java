@@ -0,0 +1,299 @@
+package com.prasanna.fileevents;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A batch of events stored column by column in primitive arrays instead of as
+ * one {@link Event} object per event. Per event it holds the timestamp, a byte
+ * of flags for the event type and whether it is a directory, the id of the
+ * path in a {@link PathTrie} of the batch and the content hash packed into an
+ * int, which takes about 17 bytes per event plus the shared path nodes.
+ * </p>
+ *
+ * <p>
+ * Content hashes of 8 lower case hex digits are packed as their value. Any
+ * other hash is kept once in a table of the batch and the int is its index in
+ * the table, as is a path that is not the same as the path of its node, such
+ * as one with empty names, so every event reads back exactly as it was added.
+ * </p>
+ *
+ * <p>
+ * {@link #get(int)} creates the event at an index, sharing the interned path
+ * node, so an {@link EventInterpreter} running over the batch only has
+ * objects for the events it is holding. A batch is not thread safe.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class EventBatch implements Iterable<Event>
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final byte DEL = 1;
+    private static final byte DIRECTORY = 2;
+    private static final byte PACKED_HASH = 4;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final PathTrie pathTrie = new PathTrie(Integer.MAX_VALUE);
+    private final List<String> hashTable = new ArrayList<String>();
+    private final Map<String, Integer> hashIndexes = new HashMap<String, Integer>();
+    private final Map<Integer, String> originalPaths = new HashMap<Integer, String>();
+
+    private long[] timestamps;
+    private byte[] flags;
+    private int[] pathIds;
+    private int[] hashes;
+    private int size;
+
+    public EventBatch()
+    {
+        this(INITIAL_CAPACITY);
+    }
+
+    public EventBatch(int initialCapacity)
+    {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Initial capacity cannot be negative");
+
+        timestamps = new long[initialCapacity];
+        flags = new byte[initialCapacity];
+        pathIds = new int[initialCapacity];
+        hashes = new int[initialCapacity];
+    }
+
+    /**
+     * Reads all the events of the iterator into a new batch.
+     */
+    public static EventBatch of(Iterator<Event> events)
+    {
+        EventBatch batch = new EventBatch();
+
+        while (events.hasNext())
+            batch.add(events.next());
+
+        return batch;
+    }
+
+    public void add(Event event)
+    {
+        add(event.getEventType(), event.getTimestamp(), event.getPath(), event.getContentHash());
+    }
+
+    public void add(EventType eventType, long timestamp, String path, String contentHash)
+    {
+        if (eventType == null || path == null || contentHash == null)
+            throw new IllegalArgumentException("Cannot add event without type, path or content hash");
+
+        if (size == timestamps.length)
+            grow();
+
+        PathNode pathNode = pathTrie.intern(path);
+        byte eventFlags = eventType == EventType.DEL ? DEL : 0;
+
+        if (contentHash.equals(Event.DIRECTORY_CONTENT_HASH))
+            eventFlags |= DIRECTORY;
+        else if (isPackable(contentHash))
+        {
+            eventFlags |= PACKED_HASH;
+            hashes[size] = packHash(contentHash);
+        }
+        else
+            hashes[size] = indexOf(contentHash);
+
+        if (!pathNode.getPath().equals(path))
+            originalPaths.put(size, path);
+
+        timestamps[size] = timestamp;
+        flags[size] = eventFlags;
+        pathIds[size] = pathNode.getId();
+        size++;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long getTimestamp(int index)
+    {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public EventType getEventType(int index)
+    {
+        checkIndex(index);
+        return (flags[index] & DEL) != 0 ? EventType.DEL : EventType.ADD;
+    }
+
+    public boolean isDirectoryEvent(int index)
+    {
+        checkIndex(index);
+        return (flags[index] & DIRECTORY) != 0;
+    }
+
+    public PathNode getPathNode(int index)
+    {
+        checkIndex(index);
+        return pathTrie.getNode(pathIds[index]);
+    }
+
+    public String getPath(int index)
+    {
+        String path = originalPaths.isEmpty() ? null : originalPaths.get(index);
+        return path != null ? path : getPathNode(index).getPath();
+    }
+
+    public String getContentHash(int index)
+    {
+        checkIndex(index);
+
+        if ((flags[index] & DIRECTORY) != 0)
+            return Event.DIRECTORY_CONTENT_HASH;
+
+        if ((flags[index] & PACKED_HASH) == 0)
+            return hashTable.get(hashes[index]);
+
+        return unpackHash(hashes[index]);
+    }
+
+    /**
+     * Returns true if the events at both indexes have the same content hash,
+     * without creating the hashes.
+     */
+    public boolean hasSameContentHash(int index, int otherIndex)
+    {
+        checkIndex(index);
+        checkIndex(otherIndex);
+
+        int contentFlags = DIRECTORY | PACKED_HASH;
+        if ((flags[index] & contentFlags) != (flags[otherIndex] & contentFlags))
+            return false;
+
+        return (flags[index] & DIRECTORY) != 0 || hashes[index] == hashes[otherIndex];
+    }
+
+    /**
+     * Creates the event at the index. Its path node is the one interned by the
+     * batch.
+     */
+    public Event get(int index)
+    {
+        checkIndex(index);
+
+        Event event = new Event();
+        event.setEventType(getEventType(index));
+        event.setTimestamp(timestamps[index]);
+        event.setPath(getPath(index), getPathNode(index));
+        event.setContentHash(getContentHash(index));
+        return event;
+    }
+
+    /**
+     * Returns an iterator creating the events of the batch in order.
+     */
+    @Override
+    public Iterator<Event> iterator()
+    {
+        return new Iterator<Event>()
+        {
+            private int index;
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < size;
+            }
+
+            @Override
+            public Event next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                return get(index++);
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns true if the content hash is 8 lower case hex digits, which are
+     * packed into an int by {@link #packHash(String)}.
+     */
+    static boolean isPackable(String contentHash)
+    {
+        if (contentHash.length() != 8)
+            return false;
+
+        for (int i = 0; i < contentHash.length(); i++)
+        {
+            char c = contentHash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+
+        return true;
+    }
+
+    static int packHash(String contentHash)
+    {
+        return (int) Long.parseLong(contentHash, 16);
+    }
+
+    static String unpackHash(int hash)
+    {
+        char[] digits = new char[8];
+
+        for (int i = digits.length - 1; i >= 0; i--)
+        {
+            digits[i] = HEX_DIGITS[hash & 0xf];
+            hash >>>= 4;
+        }
+
+        return new String(digits);
+    }
+
+    private int indexOf(String contentHash)
+    {
+        Integer index = hashIndexes.get(contentHash);
+
+        if (index == null)
+        {
+            index = hashTable.size();
+            hashTable.add(contentHash);
+            hashIndexes.put(contentHash, index);
+        }
+
+        return index;
+    }
+
+    private void grow()
+    {
+        int capacity = Math.max(INITIAL_CAPACITY, timestamps.length + (timestamps.length >> 1));
+
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        pathIds = Arrays.copyOf(pathIds, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+}
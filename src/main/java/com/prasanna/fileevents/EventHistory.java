@@ -0,0 +1,365 @@
+package com.prasanna.fileevents;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * Sequence of events the {@link EventInterpreter} holds until their action is
+ * known. Alongside the events it keeps the content hashes seen so far and the
+ * last directory event, so checking whether a new event belongs to the history
+ * does not scan it.
+ * </p>
+ *
+ * <p>
+ * A history starting with a directory delete also keeps a {@link Fingerprint}
+ * of the tree deleted below the directory and of the tree added below the
+ * first directory added after it, the sums of the fingerprints of their
+ * entries relative to each directory. Whether the directory was moved whole,
+ * nested directories included, is then known by comparing two numbers rather
+ * than pairing up its events.
+ * </p>
+ *
+ * <p>
+ * A history created with a memory budget spills its events to a
+ * {@link HistorySpill} once their estimated size is over the budget, and
+ * from then on only holds the events added since the last spill. The content
+ * hashes are then only known to a Bloom filter, whose answers may be wrong
+ * for a content hash that is not in the history, so the interpreter checks
+ * the events taken on them before logging the history. A spilled history must
+ * be closed once logged.
+ * </p>
+ *
+ * <p>
+ * A history created with an {@link OffHeapEventStore} holds its events and
+ * content hashes there rather than on the heap, only the first event and the
+ * directories it is compared with stay on the heap. Its events are then
+ * created anew each time they are read.
+ * </p>
+ *
+ * @author prasanna
+ */
+class EventHistory implements Iterable<Event>
+{
+    /**
+     * Rough size of an event held, its path aside, with its node, content
+     * hash and entries in the list and set.
+     */
+    private static final int EVENT_SIZE = 200;
+
+    private final Event firstEvent;
+    private final long memoryBudget;
+    private final File spillDirectory;
+    private final OffHeapEventStore store;
+    private final List<Event> events;
+    private Set<String> contentHashes;
+    private HistorySpill spill;
+    private boolean hasUnverifiedContentHashes;
+    private long memoryUsed;
+    private int size;
+    private int addedDirectoryIndex = -1;
+    private Event lastDirectoryEvent;
+    private boolean hasDirectoryAdd;
+    private Event deletedDirectory;
+    private Event addedDirectory;
+    private boolean isTreeShaped;
+    private boolean hasNestedDeletes;
+    private long deletedFingerprint;
+    private long addedFingerprint;
+    private int numDeleted;
+    private int numAdded;
+
+    EventHistory(Event event)
+    {
+        this(event, 0, null, null);
+    }
+
+    /**
+     * Creates a history that spills its events to a file in the directory once
+     * they take more than the memory budget, in bytes, if it is positive, and
+     * holds them in the store if it is not null. The store must be empty.
+     */
+    EventHistory(Event event, long memoryBudget, File spillDirectory, OffHeapEventStore store)
+    {
+        this.firstEvent = event;
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.store = store;
+
+        if (store == null)
+        {
+            events = new ArrayList<Event>();
+            contentHashes = new HashSet<String>();
+        }
+        else
+            events = store;
+
+        if (event.isDirectoryEvent() && event.getEventType().equals(EventType.DEL))
+        {
+            deletedDirectory = event;
+            isTreeShaped = true;
+        }
+
+        add(event);
+    }
+
+    void add(Event event)
+    {
+        if (isTreeShaped && size > 0)
+            addToTrees(event);
+
+        events.add(event);
+        size++;
+
+        if (spill != null)
+            spill.addContentHash(event.getContentHash());
+        else if (store != null)
+            store.addContentHash(event.getContentHash());
+        else
+            contentHashes.add(event.getContentHash());
+
+        if (event.isDirectoryEvent())
+        {
+            lastDirectoryEvent = event;
+            hasDirectoryAdd |= event.getEventType().equals(EventType.ADD);
+        }
+
+        if (memoryBudget > 0)
+        {
+            memoryUsed += EVENT_SIZE + 2 * event.getPath().length();
+
+            if (memoryUsed > memoryBudget)
+                spill();
+        }
+    }
+
+    private void spill()
+    {
+        try
+        {
+            // The events held before the first spill are all there are
+            boolean isFirstSpill = spill == null;
+            if (isFirstSpill)
+                spill = new HistorySpill(spillDirectory, memoryBudget);
+
+            for (Event event : events)
+            {
+                if (isFirstSpill)
+                    spill.addContentHash(event.getContentHash());
+
+                spill.write(event);
+            }
+
+            contentHashes = null;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot spill pending events to " + spillDirectory, e);
+        }
+
+        events.clear();
+        memoryUsed = 0;
+    }
+
+    /**
+     * Adds the event to the fingerprint of the deleted or the added tree. The
+     * history stops being tree shaped at the first event that is in neither,
+     * a delete not below the deleted directory or following an add, or an add
+     * not below the added directory.
+     */
+    private void addToTrees(Event event)
+    {
+        if (event.getEventType().equals(EventType.DEL))
+        {
+            if (addedDirectory == null && event.isUnderParent(deletedDirectory))
+            {
+                if (event.isDirectoryEvent() || !event.isChildOf(deletedDirectory))
+                    hasNestedDeletes = true;
+
+                deletedFingerprint += Fingerprint.ofEntry(event.getPathNode(), deletedDirectory.getPathNode(),
+                                event.getContentHash());
+                numDeleted++;
+                return;
+            }
+        }
+        else if (addedDirectory == null)
+        {
+            if (event.isDirectoryEvent())
+            {
+                addedDirectory = event;
+                addedDirectoryIndex = size;
+                return;
+            }
+        }
+        else if (event.isUnderParent(addedDirectory))
+        {
+            addedFingerprint += Fingerprint.ofEntry(event.getPathNode(), addedDirectory.getPathNode(),
+                            event.getContentHash());
+            numAdded++;
+            return;
+        }
+
+        isTreeShaped = false;
+    }
+
+    Event get(int index)
+    {
+        if (spill == null)
+            return events.get(index);
+
+        Iterator<Event> iterator = iterator();
+        for (int i = 0; i < index; i++)
+            iterator.next();
+
+        return iterator.next();
+    }
+
+    Event getFirst()
+    {
+        return firstEvent;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isSpilled()
+    {
+        return spill != null;
+    }
+
+    /**
+     * Returns the store holding the events off heap, or null if they are held
+     * on the heap.
+     */
+    OffHeapEventStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Returns true if an event may have been taken as part of the spilled
+     * history on a content hash it does not hold, see
+     * {@link #containsContentHash(String)}.
+     */
+    boolean hasUnverifiedContentHashes()
+    {
+        return hasUnverifiedContentHashes;
+    }
+
+    /**
+     * Returns the last directory event added or null if there is none.
+     */
+    Event getLastDirectoryEvent()
+    {
+        return lastDirectoryEvent;
+    }
+
+    /**
+     * Returns true if a directory was added, which a history has to be a
+     * directory operation.
+     */
+    boolean hasDirectoryAdd()
+    {
+        return hasDirectoryAdd;
+    }
+
+    /**
+     * Returns true if the history is the delete of a directory and of events
+     * below it, with no add yet.
+     */
+    boolean isDeletingDirectory()
+    {
+        return isTreeShaped && addedDirectory == null;
+    }
+
+    /**
+     * Returns true if events below the deleted directory other than its files
+     * were deleted, which only histories of nested directories have.
+     */
+    boolean hasNestedDeletes()
+    {
+        return hasNestedDeletes;
+    }
+
+    /**
+     * Returns the first directory added after the deleted directory, or null
+     * if there is none or the history does not start with a directory
+     * delete.
+     */
+    Event getAddedDirectory()
+    {
+        return isTreeShaped ? addedDirectory : null;
+    }
+
+    /**
+     * Returns the index of the directory returned by
+     * {@link #getAddedDirectory()}.
+     */
+    int getAddedDirectoryIndex()
+    {
+        return isTreeShaped ? addedDirectoryIndex : -1;
+    }
+
+    /**
+     * Returns true if the history is a directory deleted with the events below
+     * it, then a directory added with the same entries at the same relative
+     * paths, in any order.
+     */
+    boolean isRelocation()
+    {
+        return isTreeShaped && addedDirectory != null && numDeleted == numAdded
+                        && deletedFingerprint == addedFingerprint;
+    }
+
+    /**
+     * Returns true if an event of the content hash was added. Once spilled, it
+     * may also return true if none was, which the history remembers.
+     */
+    boolean containsContentHash(String contentHash)
+    {
+        if (spill == null)
+            return store == null ? contentHashes.contains(contentHash) : store.containsContentHash(contentHash);
+
+        if (!spill.mayContainContentHash(contentHash))
+            return false;
+
+        hasUnverifiedContentHashes = true;
+        return true;
+    }
+
+    /**
+     * Returns the events in order, read back from the spill file if the
+     * history was spilled.
+     */
+    @Override
+    public Iterator<Event> iterator()
+    {
+        if (spill == null)
+            return events.iterator();
+
+        try
+        {
+            return spill.iterator(events);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot read spilled events", e);
+        }
+    }
+
+    /**
+     * Deletes the spill file, if any.
+     */
+    void close()
+    {
+        if (spill != null)
+            spill.close();
+    }
+}
@@ -1,7 +1,10 @@
 package com.prasanna.fileevents;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -64,6 +67,50 @@ import java.util.Stack;
  * directory with the same name at a different directory level followed by
  * addition of the exact same deleted contents along with exact same relative
  * path.
+ * 
+ * A directory may hold nested directories, whose deletes and adds are taken
+ * as part of its own. The deleted and added trees are compared by their
+ * fingerprints, see {@link EventHistory}, whatever the order of their events.
+ * If only some of the deleted entries are added back, at the same relative
+ * paths, the others are logged as deleted before the move or rename. If none
+ * are, the events are logged as they would have been had each nested delete
+ * started a sequence of its own.
+ * </p>
+ * 
+ * <p>
+ * Events can be supplied as a list or a columnar {@link EventBatch}, pulled
+ * from an iterator or pushed one at a time through {@link #interpretEvent(Event)} followed by {@link #flush()}.
+ * Only the events of the directory operation in progress are held in memory.
+ * </p>
+ * 
+ * <p>
+ * On endless streams, a {@link CoalescingWindow} bounds how long and how many
+ * events are held. The quiet period of the window is checked as events arrive
+ * and whenever {@link #tick()} is called, which is how a stream that went
+ * quiet gets its pending events interpreted.
+ * </p>
+ * 
+ * <p>
+ * With a {@link MetricsRegistry} set, the interpreter counts the events it
+ * interprets, tracks the number of events it holds and records the size of
+ * each history and the time taken to log the actions of the events it held.
+ * </p>
+ * 
+ * <p>
+ * With a memory budget set, a history whose events take more than the budget
+ * is spilled to disk, see {@link EventHistory}, and its events are paired up
+ * on records sorted on disk rather than in maps. An event taken as part of it
+ * on a content hash it does not hold is found before it is logged, and the
+ * history is then logged up to that event, the rest interpreted again as if
+ * they had just arrived.
+ * </p>
+ * 
+ * <p>
+ * With histories held off heap, the events of a history are held in an
+ * {@link OffHeapEventStore} rather than in objects, which the interpreter
+ * reuses for the next history once it is logged. Events held for a large
+ * directory operation are then neither promoted to the old generation nor
+ * collected with it.
  * </p>
  * 
  * @author prasanna
@@ -71,33 +118,214 @@ import java.util.Stack;
  */
 public class EventInterpreter
 {
-    private static final Logger logger = new Logger(System.out);
-    private Stack<List<Event>> eventStack;
+    /**
+     * Stands in as the last logged event for a history that was skipped, an
+     * add that no later event is taken as part of.
+     */
+    private static final Event SKIPPED_HISTORY = new Event();
+
+    /**
+     * Rough size of a record sorted for a spilled history, so a run of records
+     * fits in the budget and its runs are few enough to be merged at once.
+     */
+    private static final int RECORD_SIZE = 256;
+    private static final int MIN_RUN_SIZE = 1000;
+
+    static
+    {
+        SKIPPED_HISTORY.setEventType(EventType.ADD);
+        SKIPPED_HISTORY.setContentHash(Event.DIRECTORY_CONTENT_HASH);
+    }
+
+    private final Logger logger;
+    private Stack<EventHistory> eventStack;
     private Event lastLoggedEvent;
+    private CoalescingWindow window = CoalescingWindow.NONE;
+    private long lastEventTimestamp;
+    private long lastEventArrival;
+    private Counter eventsInterpreted;
+    private Counter windowFlushes;
+    private Gauge pendingEvents;
+    private Histogram historySizes;
+    private Histogram flushNanos;
+    private long memoryBudget;
+    private File spillDirectory;
+    private SpilledHistoryOperations spilledOperations;
+    private boolean isOffHeap;
+    private final List<OffHeapEventStore> freeStores = new ArrayList<OffHeapEventStore>();
 
     public EventInterpreter()
     {
-        eventStack = new Stack<List<Event>>();
+        this(new Logger(System.out));
+    }
+
+    public EventInterpreter(Logger logger)
+    {
+        if (logger == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without logger");
+
+        this.logger = logger;
+        eventStack = new Stack<EventHistory>();
         logger.printHeader();
     }
 
+    /**
+     * Creates an interpreter that continues the output of an earlier one, whose
+     * pending events have been flushed, without logging the header again.
+     */
+    EventInterpreter(Logger logger, Event lastLoggedEvent)
+    {
+        this.logger = logger;
+        this.lastLoggedEvent = lastLoggedEvent;
+        eventStack = new Stack<EventHistory>();
+    }
+
+    public void setWindow(CoalescingWindow window)
+    {
+        if (window == null)
+            throw new IllegalArgumentException("Window cannot be null, use CoalescingWindow.NONE");
+
+        this.window = window;
+    }
+
+    public CoalescingWindow getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * Spills each history whose events take more than the memory budget, in
+     * bytes, to files in the directory, which also holds the runs of records
+     * sorted to log it.
+     */
+    public void setMemoryBudget(long memoryBudget, File spillDirectory)
+    {
+        if (memoryBudget <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive");
+
+        if (spillDirectory == null)
+            throw new IllegalArgumentException("Spill directory cannot be null");
+
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        spilledOperations = new SpilledHistoryOperations(spillDirectory, (int) Math.max(MIN_RUN_SIZE,
+                        Math.min(memoryBudget / RECORD_SIZE, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Holds the events of the histories started from now on off heap, see
+     * {@link OffHeapEventStore}, or on the heap.
+     */
+    public void setOffHeap(boolean isOffHeap)
+    {
+        this.isOffHeap = isOffHeap;
+
+        if (!isOffHeap)
+            freeStores.clear();
+    }
+
+    /**
+     * Measures the interpreter in the registry, or stops measuring if it is
+     * null.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        if (metrics == null)
+        {
+            eventsInterpreted = null;
+            return;
+        }
+
+        windowFlushes = metrics.counter("interpreter.window.flushes");
+        pendingEvents = metrics.gauge("interpreter.pending.events");
+        historySizes = metrics.histogram("interpreter.history.size");
+        flushNanos = metrics.histogram("interpreter.flush.nanos");
+        eventsInterpreted = metrics.counter("interpreter.events");
+    }
+
     public void interpret(List<Event> events)
     {
         if (events != null)
+            interpret(events.iterator());
+    }
+
+    /**
+     * Interprets a columnar batch, creating each event only as it is
+     * interpreted, so only the events held for a pending action are objects.
+     */
+    public void interpret(EventBatch batch)
+    {
+        if (batch != null)
         {
-            for (Event event : events)
-                interpretEvent(event);
+            for (int i = 0; i < batch.size(); i++)
+                interpretEvent(batch.get(i));
 
-            processRemainingInStack();
+            flush();
         }
     }
 
-    private void interpretEvent(Event event)
+    public void interpret(Iterator<Event> events)
     {
+        if (events != null)
+        {
+            while (events.hasNext())
+                interpretEvent(events.next());
+
+            flush();
+        }
+    }
+
+    /**
+     * Interprets a single event. The action for the event may only be logged
+     * once later events are known, call {@link #flush()} once the input ends.
+     */
+    public void interpretEvent(Event event)
+    {
+        if (window.hasQuietPeriod())
+        {
+            long now = System.currentTimeMillis();
+
+            if (!eventStack.isEmpty() && isQuiet(event.getTimestamp(), now))
+                processRemainingInStackOnWindow();
+
+            lastEventTimestamp = event.getTimestamp();
+            lastEventArrival = now;
+        }
+
         if (event.getEventType().equals(EventType.DEL))
             interpretDelEvent(event);
         else
             interpretAddEvent(event);
+
+        if (window.hasMaxHistorySize() && !eventStack.isEmpty()
+                        && eventStack.peek().size() >= window.getMaxHistorySize())
+            processRemainingInStackOnWindow();
+
+        if (eventsInterpreted != null)
+        {
+            eventsInterpreted.increment();
+            pendingEvents.set(eventStack.isEmpty() ? 0 : eventStack.peek().size());
+        }
+    }
+
+    /**
+     * Interprets the pending events if no event arrived for the quiet period
+     * of the window. With no event to tell the time by, the period is measured
+     * by the wall clock even if the window uses the event timestamps.
+     */
+    public void tick()
+    {
+        if (window.hasQuietPeriod() && !eventStack.isEmpty()
+                        && System.currentTimeMillis() - lastEventArrival >= window.getQuietPeriod())
+            processRemainingInStackOnWindow();
+    }
+
+    private boolean isQuiet(long timestamp, long now)
+    {
+        if (window.getClock() == WindowClock.EVENT_TIME)
+            return timestamp - lastEventTimestamp >= window.getQuietPeriod();
+
+        return now - lastEventArrival >= window.getQuietPeriod();
     }
 
     private void interpretAddEvent(Event event)
@@ -106,40 +334,36 @@ public class EventInterpreter
         {
             if (isMoveOrRename(event))
             {
-                List<Event> dirEventHistory = eventStack.pop();
-                dirEventHistory.add(event);
-                eventStack.push(dirEventHistory);
+                eventStack.peek().add(event);
             }
             else
                 emptyStackAndAddNewEvent(event);
         }
         else
-            logger.prettyLog(event, Action.ADDED, event.getPath());
+            logger.log(event, Action.ADDED, null);
     }
 
     private void interpretDelEvent(Event event)
     {
-        if (event.isDirectoryEvent())
+        if (!eventStack.isEmpty() && eventStack.peek().isDeletingDirectory()
+                        && event.isUnderParent(eventStack.peek().getFirst()))
+            eventStack.peek().add(event);
+        else if (event.isDirectoryEvent())
             emptyStackAndAddNewEvent(event);
         else
         {
             if (!eventStack.isEmpty())
             {
-                if (eventStack.peek().get(0).isDirectoryEvent()
-                                && eventStack.peek().get(0).getPath().equals(event.getParentPath()))
+                if (eventStack.peek().getFirst().isDirectoryEvent() && event.isChildOf(eventStack.peek().getFirst()))
                 {
-                    List<Event> dirEventHistory = eventStack.pop();
-                    dirEventHistory.add(event);
-                    eventStack.push(dirEventHistory);
+                    eventStack.peek().add(event);
                 }
                 else
                     emptyStackAndAddNewEvent(event);
             }
             else if (isNewEventHistory(event))
             {
-                List<Event> dirEventHistory = new ArrayList<Event>();
-                dirEventHistory.add(event);
-                eventStack.push(dirEventHistory);
+                eventStack.push(newHistory(event));
             }
         }
     }
@@ -149,42 +373,224 @@ public class EventInterpreter
         return lastLoggedEvent != null
                         && (!lastLoggedEvent.isDirectoryEvent()
                                         || !lastLoggedEvent.getEventType().equals(EventType.DEL) || !event
-                                            .isUnderParent(lastLoggedEvent.getPath()));
+                                            .isUnderParent(lastLoggedEvent));
+    }
+
+    /**
+     * Logs the actions for all the events still waiting to be interpreted and
+     * flushes the logger.
+     */
+    public void flush()
+    {
+        processAllInStack();
+        logger.flush();
+    }
+
+    Event getLastLoggedEvent()
+    {
+        return lastLoggedEvent;
+    }
+
+    /**
+     * Interprets the pending events, as the delete starting a new history
+     * would, and returns the last logged event.
+     */
+    Event endHistory()
+    {
+        processAllInStack();
+        return lastLoggedEvent;
+    }
+
+    /**
+     * Stands in for a history of events that is left out, after
+     * {@link #endHistory()}. Had it been interpreted it would have been
+     * logged, unless it started with a file delete before anything was
+     * logged, so later deletes are not taken as part of a directory deleted
+     * before it. The next history must not start below a directory deleted in
+     * the skipped one or below the last logged event, whether it is taken as
+     * an action of its own depends on which directory was logged last.
+     */
+    void skipHistory(boolean startsWithDirectoryDelete)
+    {
+        if (lastLoggedEvent != null || startsWithDirectoryDelete)
+            lastLoggedEvent = SKIPPED_HISTORY;
+    }
+
+    /**
+     * Returns the events held for actions not logged yet, a list per history
+     * from the bottom of the stack.
+     */
+    List<List<Event>> getPendingEvents()
+    {
+        List<List<Event>> pendingEvents = new ArrayList<List<Event>>(eventStack.size());
+
+        for (EventHistory eventHistory : eventStack)
+        {
+            List<Event> events = new ArrayList<Event>(eventHistory.size());
+            for (Event event : eventHistory)
+                events.add(event);
+
+            pendingEvents.add(events);
+        }
+
+        return pendingEvents;
     }
 
-    private void processRemainingInStack()
+    long getLastEventTimestamp()
+    {
+        return lastEventTimestamp;
+    }
+
+    /**
+     * Holds the pending events of an earlier interpreter, as returned by
+     * {@link #getPendingEvents()}, as if they had just arrived.
+     */
+    void restorePendingEvents(List<List<Event>> pendingEvents, long lastEventTimestamp)
+    {
+        eventStack.clear();
+
+        for (List<Event> events : pendingEvents)
+        {
+            EventHistory eventHistory = newHistory(events.get(0));
+            for (int i = 1; i < events.size(); i++)
+                eventHistory.add(events.get(i));
+
+            eventStack.push(eventHistory);
+        }
+
+        this.lastEventTimestamp = lastEventTimestamp;
+        this.lastEventArrival = System.currentTimeMillis();
+    }
+
+    /**
+     * Logs the pending events and returns true if a history was logged as
+     * separate histories, see {@link #detailNestedDirOperation(EventHistory)}.
+     * The events of a history that is split, see
+     * {@link #detailSpilledEvent(EventHistory, int)}, may leave a new history
+     * pending.
+     */
+    private boolean processRemainingInStack()
+    {
+        boolean isSeparated = false;
+
+        if (eventsInterpreted != null && !eventStack.isEmpty())
+        {
+            long start = System.nanoTime();
+
+            for (int i = eventStack.size() - 1; i >= 0; i--)
+            {
+                historySizes.record(eventStack.get(i).size());
+                isSeparated |= detailAndClose(eventStack.remove(i));
+            }
+
+            flushNanos.record(System.nanoTime() - start);
+            pendingEvents.set(eventStack.isEmpty() ? 0 : eventStack.peek().size());
+            return isSeparated;
+        }
+
+        for (int i = eventStack.size() - 1; i >= 0; i--)
+            isSeparated |= detailAndClose(eventStack.remove(i));
+
+        return isSeparated;
+    }
+
+    private void processAllInStack()
     {
         while (!eventStack.isEmpty())
-            detailEvent(eventStack.pop());
+            processRemainingInStack();
+    }
+
+    private void processRemainingInStackOnWindow()
+    {
+        if (eventsInterpreted != null)
+            windowFlushes.increment();
+
+        processAllInStack();
+    }
+
+    private boolean detailAndClose(EventHistory eventHistory)
+    {
+        try
+        {
+            return detailEvent(eventHistory);
+        }
+        finally
+        {
+            eventHistory.close();
+
+            OffHeapEventStore store = eventHistory.getStore();
+            if (store != null && isOffHeap)
+            {
+                store.clear();
+                freeStores.add(store);
+            }
+        }
     }
 
     private void emptyStackAndAddNewEvent(Event event)
     {
-        processRemainingInStack();
+        if (processRemainingInStack())
+        {
+            // The event arrives after the separated histories, as it would
+            // have with nothing pending.
+            if (event.getEventType().equals(EventType.ADD))
+                interpretAddEvent(event);
+            else
+                interpretDelEvent(event);
+
+            return;
+        }
 
         if (lastLoggedEvent == null || !lastLoggedEvent.isDirectoryEvent()
                         || !lastLoggedEvent.getEventType().equals(EventType.DEL)
                         || !event.getEventType().equals(EventType.DEL)
-                        || !event.isUnderParent(lastLoggedEvent.getPath()))
+                        || !event.isUnderParent(lastLoggedEvent))
         {
-            List<Event> dirEventHistory = new ArrayList<Event>();
-            dirEventHistory.add(event);
-            eventStack.push(dirEventHistory);
+            eventStack.push(newHistory(event));
         }
     }
 
-    private void detailEvent(List<Event> eventHistory)
+    private EventHistory newHistory(Event event)
+    {
+        OffHeapEventStore store = null;
+
+        if (isOffHeap)
+            store = freeStores.isEmpty() ? new OffHeapEventStore() : freeStores.remove(freeStores.size() - 1);
+
+        return new EventHistory(event, memoryBudget, spillDirectory, store);
+    }
+
+    /**
+     * Logs the actions of the history and returns true if it was logged as
+     * separate histories.
+     */
+    private boolean detailEvent(EventHistory eventHistory)
     {
         if (eventHistory.size() == 1)
         {
-            Event event = eventHistory.get(0);
+            Event event = eventHistory.getFirst();
 
-            logger.prettyLog(event, getActionString(event.getEventType()), event.getPath());
+            logger.log(event, getActionString(event.getEventType()), null);
             lastLoggedEvent = event;
         }
         else
         {
-            if (isADirOperation(eventHistory))
+            if (eventHistory.hasUnverifiedContentHashes())
+            {
+                int unseenIndex = findUnseenContentHash(eventHistory);
+
+                if (unseenIndex >= 0)
+                {
+                    detailSpilledEvent(eventHistory, unseenIndex);
+                    return true;
+                }
+            }
+
+            if (eventHistory.isRelocation())
+                detailDirOperation(eventHistory);
+            else if (eventHistory.hasNestedDeletes())
+                return !detailNestedDirOperation(eventHistory);
+            else if (isADirOperation(eventHistory))
                 detailDirOperation(eventHistory);
             else if (isAFileOperation(eventHistory))
                 detailFileOperation(eventHistory);
@@ -195,33 +601,195 @@ public class EventInterpreter
                 {
                     if (previousEvent != null && previousEvent.isDirectoryEvent()
                                     && previousEvent.getEventType().equals(EventType.DEL)
-                                    && previousEvent.getPath().equals(event.getParentPath()))
+                                    && event.isChildOf(previousEvent))
                     {
                         continue;
                     }
 
-                    logger.prettyLog(event, getActionString(event.getEventType()), event.getPath());
+                    logger.log(event, getActionString(event.getEventType()), null);
                     previousEvent = event;
                     lastLoggedEvent = event;
                 }
             }
         }
+
+        return false;
+    }
+
+    private int findUnseenContentHash(EventHistory eventHistory)
+    {
+        try
+        {
+            return spilledOperations.findUnseenContentHash(eventHistory);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Cannot sort spilled events in " + spillDirectory, e);
+        }
+    }
+
+    /**
+     * Logs a spilled history whose event at the index was only taken as part
+     * of it on a wrong answer of its Bloom filter: the events before it are
+     * logged as a history of their own, as they would have been when it
+     * arrived, and it and the events after it are interpreted again.
+     */
+    private void detailSpilledEvent(EventHistory eventHistory, int unseenIndex)
+    {
+        EventHistory heldHistory = null;
+        int index = 0;
+
+        for (Event event : eventHistory)
+        {
+            if (index < unseenIndex)
+            {
+                if (heldHistory == null)
+                    heldHistory = newHistory(event);
+                else
+                    heldHistory.add(event);
+            }
+            else if (index == unseenIndex)
+            {
+                eventStack.push(heldHistory);
+                emptyStackAndAddNewEvent(event);
+            }
+            else if (event.getEventType().equals(EventType.ADD))
+                interpretAddEvent(event);
+            else
+                interpretDelEvent(event);
+
+            index++;
+        }
+    }
+
+    /**
+     * <p>
+     * Logs a history with nested directories that is not a whole relocation.
+     * If every entry added below the new directory was deleted at the same
+     * relative path with the same contents, and there is at least one, the
+     * directory was moved or renamed and the deleted entries not added back
+     * are logged as deleted before it, a directory for the entries below it.
+     * </p>
+     *
+     * <p>
+     * Otherwise it is logged as separate histories, the way it would have
+     * been had each nested delete started a history: the directory is deleted,
+     * its nested deletes are ignored as below it and every add is logged as
+     * it arrived. Returns false in that case.
+     * </p>
+     */
+    private boolean detailNestedDirOperation(EventHistory eventHistory)
+    {
+        Event oldDirEvent = eventHistory.getFirst();
+        Event newDirEvent = eventHistory.getAddedDirectory();
+
+        if (newDirEvent != null && eventHistory.isSpilled())
+        {
+            try
+            {
+                if (spilledOperations.logPartialRelocation(eventHistory, logger))
+                {
+                    detailDirOperation(eventHistory);
+                    return true;
+                }
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Cannot sort spilled events in " + spillDirectory, e);
+            }
+        }
+        else if (newDirEvent != null)
+        {
+            Map<String, Event> deletedEntries = new LinkedHashMap<String, Event>();
+            int oldDirLength = oldDirEvent.getPathNode().getPath().length();
+            int newDirLength = newDirEvent.getPathNode().getPath().length();
+            int newDirIndex = eventHistory.getAddedDirectoryIndex();
+            int numAddedEntries = 0;
+
+            for (int i = 1; i < eventHistory.size(); i++)
+            {
+                Event event = eventHistory.get(i);
+                String path = event.getPathNode().getPath();
+
+                if (event.getEventType().equals(EventType.DEL))
+                    deletedEntries.put(path.substring(oldDirLength), event);
+                else if (i != newDirIndex)
+                {
+                    Event deletedEvent = deletedEntries.remove(path.substring(newDirLength));
+
+                    if (deletedEvent == null || !deletedEvent.getContentHash().equals(event.getContentHash()))
+                    {
+                        numAddedEntries = 0;
+                        break;
+                    }
+
+                    numAddedEntries++;
+                }
+            }
+
+            if (numAddedEntries > 0)
+            {
+                Event deletedDirEvent = null;
+
+                for (Event event : deletedEntries.values())
+                {
+                    if (deletedDirEvent != null && event.isUnderParent(deletedDirEvent))
+                        continue;
+
+                    logger.log(event, Action.DELETED, null);
+
+                    if (event.isDirectoryEvent())
+                        deletedDirEvent = event;
+                }
+
+                detailDirOperation(eventHistory);
+                return true;
+            }
+        }
+
+        logger.log(oldDirEvent, Action.DELETED, null);
+        lastLoggedEvent = oldDirEvent;
+
+        for (Event event : eventHistory)
+        {
+            if (event.getEventType().equals(EventType.ADD))
+                logger.log(event, Action.ADDED, null);
+        }
+
+        return false;
     }
 
-    private boolean isADirOperation(List<Event> eventHistory)
+    private boolean isADirOperation(EventHistory eventHistory)
     {
+        // Without a directory added there is no new directory, the events are
+        // not read
+        if (!eventHistory.hasDirectoryAdd())
+            return false;
+
+        if (eventHistory.isSpilled())
+        {
+            try
+            {
+                return spilledOperations.isADirOperation(eventHistory, logger);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Cannot sort spilled events in " + spillDirectory, e);
+            }
+        }
+
         boolean isADirOperation = false;
-        Map<String, Event> delFileContentMap = new HashMap<String, Event>();
+        Map<String, Event> delFileContentMap = new LinkedHashMap<String, Event>();
 
-        String newDirPath = null;
-        String oldDirPath = null;
+        Event newDirEvent = null;
+        Event oldDirEvent = null;
 
         for (Event event : eventHistory)
         {
             if (event.getEventType().equals(EventType.DEL))
             {
                 if (event.isDirectoryEvent())
-                    oldDirPath = event.getPath();
+                    oldDirEvent = event;
 
                 delFileContentMap.put(event.getContentHash(), event);
             }
@@ -236,16 +804,17 @@ public class EventInterpreter
                 else
                 {
                     if (event.isDirectoryEvent())
-                        newDirPath = event.getPath();
+                        newDirEvent = event;
                     else
                     {
-                        if (oldDirPath == null || newDirPath == null)
+                        if (oldDirEvent == null || newDirEvent == null)
                         {
                             isADirOperation = false;
                             break;
                         }
 
-                        if (!deletedEvent.getPath().replaceFirst(oldDirPath, newDirPath).equals(event.getPath()))
+                        if (!deletedEvent.getPathNode().isRelocationOf(oldDirEvent.getPathNode(),
+                                        event.getPathNode(), newDirEvent.getPathNode()))
                         {
                             isADirOperation = false;
                             break;
@@ -257,6 +826,11 @@ public class EventInterpreter
             isADirOperation = true;
         }
 
+        // A directory delete followed only by deletes of its contents is not a
+        // move or rename, its contents are logged as part of the delete.
+        if (newDirEvent == null)
+            return false;
+
         logLeftContentsInMap(delFileContentMap);
         return isADirOperation;
     }
@@ -265,27 +839,26 @@ public class EventInterpreter
     {
         for (Map.Entry<String, Event> entrySet : delFileContentMap.entrySet())
         {
-            logger.prettyLog(entrySet.getValue(), getActionString(entrySet.getValue().getEventType()), entrySet
-                            .getValue().getPath());
+            logger.log(entrySet.getValue(), getActionString(entrySet.getValue().getEventType()), null);
         }
     }
 
-    private boolean isAFileOperation(List<Event> eventHistory)
+    private boolean isAFileOperation(EventHistory eventHistory)
     {
-        if (!eventHistory.get(0).isDirectoryEvent() && eventHistory.size() == 2)
+        if (!eventHistory.getFirst().isDirectoryEvent() && eventHistory.size() == 2)
         {
-            if (!eventHistory.get(1).getContentHash().equals(eventHistory.get(0).getContentHash()))
+            if (!eventHistory.get(1).getContentHash().equals(eventHistory.getFirst().getContentHash()))
                 return true;
         }
 
         return false;
     }
 
-    private void detailFileOperation(List<Event> eventHistory)
+    private void detailFileOperation(EventHistory eventHistory)
     {
         Action action = null;
         String newPath = null;
-        Event firstEvent = eventHistory.get(0);
+        Event firstEvent = eventHistory.getFirst();
 
         for (int i = 1; i < eventHistory.size(); i++)
         {
@@ -298,20 +871,18 @@ public class EventInterpreter
             }
         }
 
-        logger.prettyLog(firstEvent, action, firstEvent.getPath() + " to " + newPath);
+        logger.log(firstEvent, action, newPath);
         lastLoggedEvent = firstEvent;
     }
 
-    private void detailDirOperation(List<Event> eventHistory)
+    private void detailDirOperation(EventHistory eventHistory)
     {
         Action action = null;
         String newPath = null;
-        Event firstEvent = eventHistory.get(0);
+        Event firstEvent = eventHistory.getFirst();
 
-        for (int i = 1; i < eventHistory.size(); i++)
+        for (Event event : eventHistory)
         {
-            Event event = eventHistory.get(i);
-
             if (event.isDirectoryEvent())
             {
                 if (event.getEventType().equals(EventType.ADD))
@@ -323,13 +894,13 @@ public class EventInterpreter
             }
         }
 
-        logger.prettyLog(firstEvent, action, firstEvent.getPath() + " to " + newPath);
+        logger.log(firstEvent, action, newPath);
         lastLoggedEvent = firstEvent;
     }
 
     private Action determineMoveOrRename(Event firstEvent, Event event)
     {
-        if (firstEvent.getParentPath().equals(event.getParentPath()))
+        if (firstEvent.hasSameParent(event))
             return Action.RENAMED;
         else
             return Action.MOVED;
@@ -342,55 +913,30 @@ public class EventInterpreter
 
     public boolean isMoveOrRename(Event event)
     {
-        boolean isMoveOrRename = false;
-        int size = eventStack.peek().size();
+        EventHistory eventHistory = eventStack.peek();
+        Event firstEvent = eventHistory.getFirst();
 
-        if (size > 0)
-        {
-            Event firstEvent = eventStack.peek().get(0);
-
-            isMoveOrRename = isAConsecutiveDirEvent(event);
+        if (isAConsecutiveDirEvent(event))
+            return true;
 
-            if (!isMoveOrRename)
-            {
-                Event lastDirEvent = null;
+        Event newDirEvent = eventHistory.getAddedDirectory();
+        if (!event.isDirectoryEvent() && eventHistory.hasNestedDeletes() && newDirEvent != null
+                        && event.isUnderParent(newDirEvent) && eventHistory.containsContentHash(event.getContentHash()))
+            return true;
 
-                for (int i = size - 1; i >= 0; i--)
-                {
-                    Event lastEvent = eventStack.peek().get(i);
-                    if (lastEvent.isDirectoryEvent())
-                    {
-                        lastDirEvent = lastEvent;
-                        break;
-                    }
-
-                }
-
-                if (!event.isDirectoryEvent() && lastDirEvent != null
-                                && lastDirEvent.getPath().equals(event.getParentPath()))
-                {
-                    for (Event historicalEvent : eventStack.peek())
-                    {
-                        if (historicalEvent.getContentHash().equals(event.getContentHash()))
-                            isMoveOrRename = true;
-                    }
-                }
-
-                if (!isMoveOrRename)
-                {
-                    isMoveOrRename = (!event.isDirectoryEvent() && !firstEvent.isDirectoryEvent() && firstEvent
-                                    .getContentHash().equals(event.getContentHash()));
-                }
-            }
-        }
+        Event lastDirEvent = eventHistory.getLastDirectoryEvent();
+        if (!event.isDirectoryEvent() && lastDirEvent != null && event.isChildOf(lastDirEvent)
+                        && eventHistory.containsContentHash(event.getContentHash()))
+            return true;
 
-        return isMoveOrRename;
+        return !event.isDirectoryEvent() && !firstEvent.isDirectoryEvent()
+                        && firstEvent.getContentHash().equals(event.getContentHash());
     }
 
     private boolean isAConsecutiveDirEvent(Event event)
     {
-        return event.isDirectoryEvent() && eventStack.peek().get(0).isDirectoryEvent()
-                        && eventStack.peek().get(0).getEventType().equals(EventType.DEL);
+        return event.isDirectoryEvent() && eventStack.peek().getFirst().isDirectoryEvent()
+                        && eventStack.peek().getFirst().getEventType().equals(EventType.DEL);
     }
 
 }
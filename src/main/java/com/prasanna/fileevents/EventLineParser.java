@@ -0,0 +1,283 @@
+package com.prasanna.fileevents;
+
+/**
+ * <p>
+ * Single pass scanner for an event line of the form [event] [timestamp] [path]
+ * [content hash]. Valid events are add and del (case insensitive), the
+ * timestamp is a non negative number, the path must start with / and must not
+ * contain any of the characters {@code $^*%#@!();:\<>?,&} and the content hash is
+ * either 8 word characters or - for a directory.
+ * </p>
+ *
+ * <p>
+ * The scanner works on any {@link CharSequence} without regular expressions or
+ * intermediate substrings. Paths are interned in a {@link PathTrie} so a path
+ * seen before is not copied again. When a line is rejected the reason is
+ * available from {@link #getLastError()}. A line can also be only scanned,
+ * which checks it and keeps where its fields are without creating an event,
+ * so a line can be filtered on its fields before it is parsed. A parser keeps
+ * the state of the last line and must not be shared between threads.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class EventLineParser
+{
+    private static final int CONTENT_HASH_LENGTH = 8;
+    private static final String INVALID_PATH_CHARACTERS = "$^*%#@!();:\\<>?,&";
+
+    private final PathTrie pathTrie;
+    private ParseError lastError;
+    private CharSequence line;
+    private EventType eventType;
+    private long timestamp;
+    private int pathStart;
+    private int pathEnd;
+    private int hashStart;
+    private int hashEnd;
+
+    public EventLineParser()
+    {
+        this(new PathTrie());
+    }
+
+    public EventLineParser(PathTrie pathTrie)
+    {
+        if (pathTrie == null)
+            throw new IllegalArgumentException("Cannot initialize parser without path trie");
+
+        this.pathTrie = pathTrie;
+    }
+
+    public Event parse(CharSequence line)
+    {
+        if (!scan(line))
+            return null;
+
+        Event event = new Event();
+        event.setEventType(eventType);
+        event.setTimestamp(timestamp);
+        setPath(event, line, pathStart, pathEnd);
+        event.setContentHash(isDirectory() ? Event.DIRECTORY_CONTENT_HASH : line.subSequence(hashStart, hashEnd)
+                        .toString());
+        return event;
+    }
+
+    /**
+     * Checks the line and keeps where its fields are, without creating an
+     * event. Returns false if the line is invalid, see {@link #getLastError()}.
+     * The fields of a valid line are read from the accessors below until the
+     * next line is scanned, and only as long as the line is not changed.
+     */
+    boolean scan(CharSequence line)
+    {
+        lastError = null;
+        this.line = line;
+
+        if (line == null)
+            return reject(ParseError.EMPTY_LINE);
+
+        int end = line.length();
+        while (end > 0 && isWhitespace(line.charAt(end - 1)))
+            end--;
+
+        int offset = skipWhitespace(line, 0, end);
+        if (offset == end)
+            return reject(ParseError.EMPTY_LINE);
+
+        eventType = scanEventType(line, offset, end);
+        if (eventType == null)
+            return reject(ParseError.INVALID_EVENT_TYPE);
+
+        offset = skipWhitespace(line, offset + 3, end);
+
+        int timestampStart = offset;
+        timestamp = 0;
+        while (offset < end && isDigit(line.charAt(offset)))
+        {
+            int digit = line.charAt(offset) - '0';
+            if (timestamp > (Long.MAX_VALUE - digit) / 10)
+                return reject(ParseError.INVALID_TIMESTAMP);
+
+            timestamp = timestamp * 10 + digit;
+            offset++;
+        }
+
+        if (offset == timestampStart || offset == end || !isWhitespace(line.charAt(offset)))
+            return reject(ParseError.INVALID_TIMESTAMP);
+
+        pathStart = skipWhitespace(line, offset, end);
+
+        hashStart = end;
+        while (hashStart > pathStart && !isWhitespace(line.charAt(hashStart - 1)))
+            hashStart--;
+
+        pathEnd = hashStart;
+        while (pathEnd > pathStart && isWhitespace(line.charAt(pathEnd - 1)))
+            pathEnd--;
+
+        if (!isValidPath(line, pathStart, pathEnd))
+            return reject(ParseError.INVALID_PATH);
+
+        hashEnd = end;
+        if (!isValidContentHash(line, hashStart, end))
+            return reject(ParseError.INVALID_CONTENT_HASH);
+
+        return true;
+    }
+
+    EventType getEventType()
+    {
+        return eventType;
+    }
+
+    long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    boolean isDirectory()
+    {
+        return hashEnd - hashStart == 1;
+    }
+
+    /**
+     * Returns the line last scanned, its path is between
+     * {@link #getPathStart()} and {@link #getPathEnd()}.
+     */
+    CharSequence getLine()
+    {
+        return line;
+    }
+
+    int getPathStart()
+    {
+        return pathStart;
+    }
+
+    int getPathEnd()
+    {
+        return pathEnd;
+    }
+
+    /**
+     * Returns why the last parsed line was rejected or null if it was valid.
+     */
+    public ParseError getLastError()
+    {
+        return lastError;
+    }
+
+    private boolean reject(ParseError error)
+    {
+        lastError = error;
+        return false;
+    }
+
+    private void setPath(Event event, CharSequence line, int start, int end)
+    {
+        PathNode pathNode;
+
+        if (line instanceof String || isAscii(line, start, end))
+            pathNode = pathTrie.intern(line, start, end);
+        else
+            pathNode = pathTrie.intern(line.subSequence(start, end).toString());
+
+        // A path with empty names keeps its original form
+        String path = pathNode.getPath();
+        if (path.length() != end - start)
+            path = line.subSequence(start, end).toString();
+
+        event.setPath(path, pathNode);
+    }
+
+    private static boolean isAscii(CharSequence line, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (line.charAt(i) >= 0x80)
+                return false;
+        }
+
+        return true;
+    }
+
+    private EventType scanEventType(CharSequence line, int offset, int end)
+    {
+        if (end - offset < 4 || !isWhitespace(line.charAt(offset + 3)))
+            return null;
+
+        char first = toLowerCase(line.charAt(offset));
+        char second = toLowerCase(line.charAt(offset + 1));
+        char third = toLowerCase(line.charAt(offset + 2));
+
+        if (first == 'a' && second == 'd' && third == 'd')
+            return EventType.ADD;
+
+        if (first == 'd' && second == 'e' && third == 'l')
+            return EventType.DEL;
+
+        return null;
+    }
+
+    static boolean isValidPath(CharSequence line, int start, int end)
+    {
+        if (end - start < 2 || line.charAt(start) != '/' || line.charAt(start + 1) == '/')
+            return false;
+
+        for (int i = start + 1; i < end; i++)
+        {
+            if (INVALID_PATH_CHARACTERS.indexOf(line.charAt(i)) >= 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    static boolean isValidContentHash(CharSequence line, int start, int end)
+    {
+        int length = end - start;
+
+        if (length == 1 && line.charAt(start) == '-')
+            return true;
+
+        if (length != CONTENT_HASH_LENGTH)
+            return false;
+
+        for (int i = start; i < end; i++)
+        {
+            if (!isWordCharacter(line.charAt(i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    private int skipWhitespace(CharSequence line, int offset, int end)
+    {
+        while (offset < end && isWhitespace(line.charAt(offset)))
+            offset++;
+
+        return offset;
+    }
+
+    private static boolean isWhitespace(char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordCharacter(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+    }
+
+    private static char toLowerCase(char c)
+    {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
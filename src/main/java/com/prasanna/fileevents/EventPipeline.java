@@ -0,0 +1,336 @@
+package com.prasanna.fileevents;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Interprets events with reading, interpreting and writing each on a thread of
+ * its own, so a slow output does not stall the interpreter and a slow input
+ * does not stall the output. Events are read and parsed on a reader thread and
+ * handed to the interpreter thread through a {@link RingBuffer}. The actions
+ * logged by the interpreter are handed to the writer, the thread calling
+ * {@link #run()}, through another one. The output is the same as with a single
+ * thread, unless the buffers drop items when full.
+ * </p>
+ *
+ * <p>
+ * The writer flushes its {@link Logger} whenever no action arrives for a
+ * moment, so the output of a live stream is not held back. With a
+ * {@link CoalescingWindow} that has a quiet period, the interpreter thread
+ * also interprets its pending events once no event arrived for that period.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class EventPipeline
+{
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int BATCH_SIZE = 256;
+    private static final long FLUSH_DELAY_MILLIS = 1;
+
+    private final Iterator<Event> events;
+    private final Logger logger;
+    private final CoalescingWindow window;
+    private final RingBuffer<Event> eventBuffer;
+    private final RingBuffer<LogRecord> recordBuffer;
+    private MetricsRegistry metrics;
+    private boolean isOffHeap;
+
+    public EventPipeline(Iterator<Event> events, Logger logger, Backpressure backpressure)
+    {
+        this(events, logger, backpressure, DEFAULT_CAPACITY);
+    }
+
+    public EventPipeline(Iterator<Event> events, Logger logger, Backpressure backpressure, int capacity)
+    {
+        this(events, logger, backpressure, capacity, CoalescingWindow.NONE);
+    }
+
+    public EventPipeline(Iterator<Event> events, Logger logger, Backpressure backpressure, int capacity,
+                    CoalescingWindow window)
+    {
+        if (events == null)
+            throw new IllegalArgumentException("Cannot initialize pipeline without events");
+
+        if (logger == null)
+            throw new IllegalArgumentException("Cannot initialize pipeline without logger");
+
+        if (window == null)
+            throw new IllegalArgumentException("Cannot initialize pipeline without window");
+
+        this.events = events;
+        this.logger = logger;
+        this.window = window;
+        this.eventBuffer = new RingBuffer<Event>(capacity, backpressure);
+        this.recordBuffer = new RingBuffer<LogRecord>(capacity, backpressure);
+    }
+
+    /**
+     * Measures the interpreter of the pipeline in the registry, null to stop
+     * measuring. Takes effect on the next run.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Holds the pending events of the interpreter off heap, see
+     * {@link EventInterpreter#setOffHeap(boolean)}. Takes effect on the next
+     * run.
+     */
+    public void setOffHeap(boolean isOffHeap)
+    {
+        this.isOffHeap = isOffHeap;
+    }
+
+    /**
+     * Interprets all the events and returns once the actions are written.
+     */
+    public void run() throws InterruptedException
+    {
+        // The header is handed on first, so it is never dropped
+        final EventInterpreter interpreter = new EventInterpreter(new QueueLogger());
+        interpreter.setWindow(window);
+        interpreter.setMetrics(metrics);
+        interpreter.setOffHeap(isOffHeap);
+
+        Thread reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                read();
+            }
+        }, "event-reader");
+
+        Thread interpreterThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                interpret(interpreter);
+            }
+        }, "event-interpreter");
+
+        reader.start();
+        interpreterThread.start();
+
+        try
+        {
+            write();
+        }
+        finally
+        {
+            eventBuffer.close();
+            recordBuffer.close();
+            reader.join();
+            interpreterThread.join();
+        }
+    }
+
+    /**
+     * Returns the buffer between the reader and the interpreter.
+     */
+    public RingBuffer<Event> getEventBuffer()
+    {
+        return eventBuffer;
+    }
+
+    /**
+     * Returns the buffer between the interpreter and the writer.
+     */
+    public RingBuffer<?> getRecordBuffer()
+    {
+        return recordBuffer;
+    }
+
+    public void printStats(PrintStream out)
+    {
+        printStats(out, "reader -> interpreter", eventBuffer);
+        printStats(out, "interpreter -> writer", recordBuffer);
+    }
+
+    private static void printStats(PrintStream out, String stage, RingBuffer<?> buffer)
+    {
+        out.println(String.format("%-22s capacity %d, added %d, dropped %d, blocked %d, max depth %d, "
+                        + "average depth %.1f", stage, buffer.getCapacity(), buffer.getNumAdded(),
+                        buffer.getNumDropped(), buffer.getNumBlocked(), buffer.getMaxSize(),
+                        buffer.getAverageSize()));
+    }
+
+    private void read()
+    {
+        try
+        {
+            while (!eventBuffer.isClosed() && events.hasNext())
+                eventBuffer.put(events.next());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            eventBuffer.close();
+        }
+    }
+
+    private void interpret(EventInterpreter interpreter)
+    {
+        List<Event> batch = new ArrayList<Event>(BATCH_SIZE);
+
+        try
+        {
+            while (true)
+            {
+                int numEvents = window.hasQuietPeriod() ? eventBuffer.drainTo(batch, BATCH_SIZE,
+                                window.getQuietPeriod(), TimeUnit.MILLISECONDS) : eventBuffer.drainTo(batch,
+                                BATCH_SIZE);
+
+                if (numEvents == 0)
+                {
+                    if (eventBuffer.isClosed() && eventBuffer.size() == 0)
+                        break;
+
+                    interpreter.tick();
+                    continue;
+                }
+
+                for (Event event : batch)
+                    interpreter.interpretEvent(event);
+
+                batch.clear();
+            }
+
+            interpreter.flush();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            eventBuffer.close();
+            recordBuffer.close();
+        }
+    }
+
+    private void write() throws InterruptedException
+    {
+        List<LogRecord> batch = new ArrayList<LogRecord>(BATCH_SIZE);
+
+        while (true)
+        {
+            if (recordBuffer.drainTo(batch, BATCH_SIZE, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS) == 0)
+            {
+                logger.flush();
+
+                if (recordBuffer.drainTo(batch, BATCH_SIZE) == 0)
+                    break;
+            }
+
+            for (LogRecord record : batch)
+                record.writeTo(logger);
+
+            batch.clear();
+        }
+
+        logger.flush();
+    }
+
+    private void hand(LogRecord record)
+    {
+        try
+        {
+            recordBuffer.put(record);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands the actions logged by the interpreter to the writer. Flushes are
+     * left to the writer.
+     */
+    private class QueueLogger extends Logger
+    {
+        @Override
+        public void printHeader()
+        {
+            hand(new LogRecord(LogRecord.HEADER, null, null, null));
+        }
+
+        @Override
+        public void log(Event event, Action action, String destinationPath)
+        {
+            hand(new LogRecord(LogRecord.ACTION, event, action, destinationPath));
+        }
+
+        @Override
+        public void prettyLog(Event event, Action action, String text)
+        {
+            hand(new LogRecord(LogRecord.TEXT, event, action, text));
+        }
+
+        @Override
+        public void logLine(String text)
+        {
+            hand(new LogRecord(LogRecord.LINE, null, null, text));
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+    }
+
+    /**
+     * A call to the {@link Logger} made by the interpreter.
+     */
+    static class LogRecord
+    {
+        static final int HEADER = 0;
+        static final int ACTION = 1;
+        static final int TEXT = 2;
+        static final int LINE = 3;
+
+        private final int kind;
+        private final Event event;
+        private final Action action;
+        private final String text;
+
+        LogRecord(int kind, Event event, Action action, String text)
+        {
+            this.kind = kind;
+            this.event = event;
+            this.action = action;
+            this.text = text;
+        }
+
+        void writeTo(Logger logger)
+        {
+            switch (kind)
+            {
+                case HEADER:
+                    logger.printHeader();
+                    break;
+                case ACTION:
+                    logger.log(event, action, text);
+                    break;
+                case TEXT:
+                    logger.prettyLog(event, action, text);
+                    break;
+                default:
+                    logger.logLine(text);
+            }
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.prasanna.fileevents;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Logs the actions of an event log file that happened in a range of time to
+ * paths under a path prefix, the same actions interpreting the whole file
+ * would log for them. An action is under the prefix if its source or its
+ * destination is the prefix or below it, so moves and renames into and out of
+ * the prefix are logged.
+ * </p>
+ *
+ * <p>
+ * Both filters are applied while reading, before events are parsed. Lines
+ * are only scanned, without creating anything, and grouped into histories,
+ * the runs of events starting with a delete that the {@link EventInterpreter}
+ * may interpret as one action, the deletes below a deleted directory included
+ * until something is added. Only the histories with a path under the
+ * prefix, or above it, are parsed and interpreted, whole so that a move or
+ * rename crossing the prefix is complete. The others are skipped, see
+ * {@link EventInterpreter#skipHistory(boolean)}, unless the next history
+ * starts below a directory deleted in them, which the interpreter would not
+ * take as an action of its own.
+ * </p>
+ *
+ * <p>
+ * Histories before the range are interpreted as well if they touch the
+ * prefix, as a directory deleted before the range changes how later deletes
+ * below it are interpreted. Reading stops at the first history starting at
+ * or after the end of the range, which assumes the events past the range are
+ * in chronological order, as the reader keeps them.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class EventQuery
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int NOT_UNDER = 0;
+    private static final int ABOVE = 1;
+    private static final int UNDER = 2;
+
+    private final MappedEventReader reader;
+    private final Logger logger;
+    private final long from;
+    private final long to;
+    private final PathNode prefix;
+    private final String[] prefixNames;
+    private final EventLineParser parser = new EventLineParser();
+    private final EventLineParser historyParser = new EventLineParser();
+    private final HashList directoryHashes = new HashList();
+    private final HashList deletedDirectoryHashes = new HashList();
+    private final HashList ancestorHashes = new HashList();
+    private EventInterpreter interpreter;
+    private int pathRelation;
+    private int pathHash;
+    private int parentHash;
+    private Counter linesSkipped;
+    private Counter linesParsed;
+
+    /**
+     * Creates a query of the actions with a timestamp in [from, to) under the
+     * path prefix, all of them if the prefix is null or /.
+     */
+    public EventQuery(MappedEventReader reader, Logger logger, long from, long to, String pathPrefix)
+    {
+        if (reader == null || logger == null)
+            throw new IllegalArgumentException("Cannot initialize query without reader or logger");
+
+        if (pathPrefix != null && !pathPrefix.startsWith("/"))
+            throw new IllegalArgumentException("Path prefix must start with /");
+
+        this.reader = reader;
+        this.logger = logger;
+        this.from = from;
+        this.to = to;
+
+        PathNode prefixNode = PathNode.of(pathPrefix == null ? "/" : pathPrefix);
+        prefix = prefixNode.getDepth() == 0 ? null : prefixNode;
+
+        prefixNames = new String[prefixNode.getDepth()];
+        for (PathNode node = prefixNode; node.getDepth() > 0; node = node.getParent())
+            prefixNames[node.getDepth() - 1] = toBytes(node.getName());
+    }
+
+    /**
+     * Counts the lines skipped and parsed in the registry, or stops counting
+     * if it is null.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        if (metrics == null)
+        {
+            linesSkipped = null;
+            linesParsed = null;
+            return;
+        }
+
+        linesParsed = metrics.counter("query.lines.parsed");
+        linesSkipped = metrics.counter("query.lines.skipped");
+    }
+
+    /**
+     * Reads the file and logs the matching actions.
+     */
+    public void run()
+    {
+        interpreter = new EventInterpreter(new MatchingLogger());
+
+        MappedEventReader.LineScanner scanner = reader.scanLines(0, -1);
+        CharSequence line = scanner.nextLine();
+        long numEventsLeft = -1;
+
+        if (line != null && LineEventIterator.parseNumEvents(line) >= 0)
+        {
+            numEventsLeft = LineEventIterator.parseNumEvents(line);
+            line = scanner.nextLine();
+        }
+
+        if (numEventsLeft == 0)
+            line = null;
+
+        History history = new History(line == null ? scanner.getPosition() : scanner.getLineStart(), false, 0);
+        boolean isLastLineValid = false;
+        long lastTimestamp = 0;
+
+        while (line != null)
+        {
+            if (numEventsLeft > 0)
+                numEventsLeft--;
+
+            boolean isValid = parser.scan(line);
+            boolean isChronological = isValid && (!isLastLineValid || parser.getTimestamp() >= lastTimestamp);
+            boolean wasLastLineValid = isLastLineValid;
+            long previousTimestamp = lastTimestamp;
+
+            isLastLineValid = isValid;
+            lastTimestamp = isValid ? parser.getTimestamp() : lastTimestamp;
+
+            if (isChronological)
+            {
+                scanPath(parser.getLine(), parser.getPathStart(), parser.getPathEnd());
+                boolean isDelete = parser.getEventType() == EventType.DEL;
+
+                // A delete starts a new history unless it is below the
+                // directory deleted first in the current one, with nothing
+                // added yet, or a file directly below a directory of it
+                boolean isNestedDelete = isDelete && history.isDeletingDirectory
+                                && ancestorHashes.contains(history.directoryHash);
+
+                if (!isDelete)
+                    history.isDeletingDirectory = false;
+
+                if (isDelete && !isNestedDelete && (parser.isDirectory() || !directoryHashes.contains(parentHash)))
+                {
+                    finish(scanner, history, scanner.getLineStart(), true);
+
+                    if (parser.getTimestamp() >= to)
+                        break;
+
+                    history = new History(scanner.getLineStart(), wasLastLineValid, previousTimestamp);
+                    history.startsWithDirectoryDelete = parser.isDirectory();
+                    history.isDeletingDirectory = parser.isDirectory();
+                    history.directoryHash = pathHash;
+                    directoryHashes.clear();
+                    deletedDirectoryHashes.clear();
+                }
+
+                if (parser.isDirectory())
+                    directoryHashes.add(pathHash);
+
+                if (parser.isDirectory() && isDelete)
+                    deletedDirectoryHashes.add(pathHash);
+
+                if (pathRelation != NOT_UNDER)
+                    history.isUnderPrefix = true;
+            }
+
+            history.numLines++;
+            line = numEventsLeft == 0 ? null : scanner.nextLine();
+        }
+
+        if (line == null)
+            finish(scanner, history, scanner.getPosition(), false);
+
+        interpreter.flush();
+    }
+
+    /**
+     * Interprets the history if it touches the prefix or if the next one,
+     * whose path was scanned last, starts below a directory that may be the
+     * last logged event. Skips it otherwise.
+     */
+    private void finish(MappedEventReader.LineScanner fileScanner, History history, long end, boolean hasNextHistory)
+    {
+        if (history.numLines == 0)
+            return;
+
+        Event lastLoggedEvent = interpreter.endHistory();
+
+        if (prefix != null && !history.isUnderPrefix
+                        && !(hasNextHistory && isBelowDeletedDirectory(lastLoggedEvent)))
+        {
+            interpreter.skipHistory(history.startsWithDirectoryDelete);
+
+            if (linesSkipped != null)
+                linesSkipped.add(history.numLines);
+
+            return;
+        }
+
+        MappedEventReader.LineScanner scanner = fileScanner.scanLines(history.start, end);
+        boolean isLastLineValid = history.isLastLineValid;
+        long lastTimestamp = history.lastTimestamp;
+
+        for (CharSequence line = scanner.nextLine(); line != null; line = scanner.nextLine())
+        {
+            Event event = historyParser.parse(line);
+
+            if (event != null && (!isLastLineValid || event.getTimestamp() >= lastTimestamp))
+                interpreter.interpretEvent(event);
+
+            isLastLineValid = event != null;
+            lastTimestamp = event != null ? event.getTimestamp() : lastTimestamp;
+        }
+
+        if (linesParsed != null)
+            linesParsed.add(history.numLines);
+    }
+
+    /**
+     * Returns true if the path scanned last is below a directory deleted in
+     * the current history or below the last logged event, if it is a deleted
+     * directory. Paths are compared by their hashes, a collision only makes a
+     * history interpreted that could have been skipped.
+     */
+    private boolean isBelowDeletedDirectory(Event lastLoggedEvent)
+    {
+        boolean isLastLoggedDeletedDirectory = lastLoggedEvent != null && lastLoggedEvent.isDirectoryEvent()
+                        && lastLoggedEvent.getEventType() == EventType.DEL;
+        int lastLoggedHash = isLastLoggedDeletedDirectory ? hash(lastLoggedEvent.getPathNode()) : 0;
+
+        for (int i = 0; i < ancestorHashes.size(); i++)
+        {
+            int ancestorHash = ancestorHashes.get(i);
+
+            if (deletedDirectoryHashes.contains(ancestorHash)
+                            || (isLastLoggedDeletedDirectory && ancestorHash == lastLoggedHash))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds how the path between start and end of the line relates to the
+     * prefix and hashes it, its parent and its ancestors, name by name so that
+     * empty names are left out as they are from interned paths.
+     */
+    private void scanPath(CharSequence line, int start, int end)
+    {
+        int hash = 0;
+        int depth = 0;
+        boolean isUnder = true;
+        int offset = start;
+
+        parentHash = 0;
+        ancestorHashes.clear();
+
+        while (offset < end)
+        {
+            while (offset < end && line.charAt(offset) == '/')
+                offset++;
+
+            if (offset == end)
+                break;
+
+            int nameStart = offset;
+            while (offset < end && line.charAt(offset) != '/')
+                offset++;
+
+            if (depth > 0)
+                ancestorHashes.add(hash);
+
+            parentHash = hash;
+            hash = hash(hash, line, nameStart, offset);
+
+            if (isUnder && depth < prefixNames.length && !isName(prefixNames[depth], line, nameStart, offset))
+                isUnder = false;
+
+            depth++;
+        }
+
+        pathHash = hash;
+
+        if (!isUnder)
+            pathRelation = NOT_UNDER;
+        else
+            pathRelation = depth >= prefixNames.length ? UNDER : ABOVE;
+    }
+
+    /**
+     * Hashes the path of the node the same way as a scanned path.
+     */
+    private static int hash(PathNode node)
+    {
+        if (node.getDepth() == 0)
+            return 0;
+
+        String name = toBytes(node.getName());
+        return hash(hash(node.getParent()), name, 0, name.length());
+    }
+
+    private static int hash(int parentHash, CharSequence name, int start, int end)
+    {
+        int hash = 31 * parentHash + '/';
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + name.charAt(i);
+
+        return hash;
+    }
+
+    private static boolean isName(String name, CharSequence line, int start, int end)
+    {
+        if (name.length() != end - start)
+            return false;
+
+        for (int i = 0; i < name.length(); i++)
+        {
+            if (name.charAt(i) != line.charAt(start + i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the name as a char per byte, the way names
+     * are read from the undecoded lines.
+     */
+    private static String toBytes(String name)
+    {
+        return new String(name.getBytes(UTF_8), ISO_8859_1);
+    }
+
+    private boolean isUnderPrefix(PathNode path)
+    {
+        return prefix == null || path.isSame(prefix) || path.isUnder(prefix);
+    }
+
+    /**
+     * The lines of a history, from its start in the file to the start of the
+     * next one, and the state of the reader before it.
+     */
+    private static class History
+    {
+        private final long start;
+        private final boolean isLastLineValid;
+        private final long lastTimestamp;
+        private long numLines;
+        private boolean startsWithDirectoryDelete;
+        private boolean isDeletingDirectory;
+        private int directoryHash;
+        private boolean isUnderPrefix;
+
+        History(long start, boolean isLastLineValid, long lastTimestamp)
+        {
+            this.start = start;
+            this.isLastLineValid = isLastLineValid;
+            this.lastTimestamp = lastTimestamp;
+        }
+    }
+
+    /**
+     * Path hashes, searched one by one as a history or a path holds few.
+     */
+    private static class HashList
+    {
+        private int[] hashes = new int[16];
+        private int size;
+
+        int size()
+        {
+            return size;
+        }
+
+        int get(int index)
+        {
+            return hashes[index];
+        }
+
+        boolean contains(int hash)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                if (hashes[i] == hash)
+                    return true;
+            }
+
+            return false;
+        }
+
+        void add(int hash)
+        {
+            if (size == hashes.length)
+                hashes = Arrays.copyOf(hashes, size * 2);
+
+            hashes[size++] = hash;
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+    }
+
+    /**
+     * Passes on the actions in the range under the prefix.
+     */
+    private class MatchingLogger extends Logger
+    {
+        @Override
+        public void printHeader()
+        {
+            logger.printHeader();
+        }
+
+        @Override
+        public void log(Event event, Action action, String destinationPath)
+        {
+            if (isMatching(event, destinationPath))
+                logger.log(event, action, destinationPath);
+        }
+
+        @Override
+        public void prettyLog(Event event, Action action, String text)
+        {
+            if (isMatching(event, null))
+                logger.prettyLog(event, action, text);
+        }
+
+        @Override
+        public void logLine(String text)
+        {
+            logger.logLine(text);
+        }
+
+        @Override
+        public void flush()
+        {
+            logger.flush();
+        }
+
+        private boolean isMatching(Event event, String destinationPath)
+        {
+            if (event.getTimestamp() < from || event.getTimestamp() >= to)
+                return false;
+
+            return isUnderPrefix(event.getPathNode())
+                            || (destinationPath != null && isUnderPrefix(PathNode.of(destinationPath)));
+        }
+    }
+}
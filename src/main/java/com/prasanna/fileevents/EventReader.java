@@ -5,23 +5,33 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Reads a event from the provided input stream. The input event pattern must
  * match [event] [timestamp] [path] [content hash] where valid events are add
- * and del.
+ * and del. Lines are parsed by the {@link EventLineParser}. Gzip compressed
+ * input is decompressed on a thread of its own, see
+ * {@link DecompressingInputStream}.
+ * 
+ * <p>
+ * Events can either be read as a whole batch using {@link #read()}, or
+ * {@link #readBatch()} for an {@link EventBatch}, or pulled one at a time
+ * using {@link #iterator()}. The iterator only holds the current line in
+ * memory and treats the leading event count line as optional, so it can be
+ * used on endless streams such as stdin.
+ * </p>
  * 
  * @author prasanna
  */
-public class EventReader
+public class EventReader implements Iterable<Event>
 {
     private final InputStream inputStream;
     private final BufferedReader reader;
-    private final static String eventInputPattern = "(^add|del)\\s+(\\d+)\\s+(/[^\\$/\\^\\*%#@!\\(\\);:\\\\<>\\?\\,\\&]+[/[^\\$/\\^\\*%#@!\\(\\);:\\\\<>\\?\\,\\&]*]*)\\s+(\\w{8}|\\-$)";
-    private final Pattern pattern;
+    private final EventLineParser parser;
+    private MetricsRegistry metrics;
+    private boolean isOutOfOrderDropped = true;
 
     public EventReader(InputStream inputStream)
     {
@@ -29,79 +39,94 @@ public class EventReader
             throw new IllegalArgumentException("Cannot initialize reader without input stream");
 
         this.inputStream = inputStream;
-        reader = new BufferedReader(new InputStreamReader(this.inputStream));
-        pattern = Pattern.compile(eventInputPattern, Pattern.CASE_INSENSITIVE);
+        reader = new BufferedReader(new InputStreamReader(new DecompressingInputStream(this.inputStream)));
+        parser = new EventLineParser();
     }
 
     public List<Event> read()
     {
         List<Event> events = new ArrayList<Event>();
-        Event lastEvent = null;
-        int numEvents = readNumEvents();
-
-        while (numEvents > 0)
-        {
-            try
-            {
-                String inputEvent = reader.readLine();
-                Event event = parse(inputEvent);
-                if (event != null && (lastEvent == null || isChronological(lastEvent, event)))
-                    events.add(event);
-
-                lastEvent = event;
-            }
-            catch (IOException e)
-            {
-                e.printStackTrace();
-            }
+        Iterator<Event> iterator = iterator();
 
-            numEvents--;
-        }
+        while (iterator.hasNext())
+            events.add(iterator.next());
 
         return events;
     }
 
-    private boolean isChronological(Event lastEvent, Event event)
+    /**
+     * Reads all the events into a columnar batch, which takes a fraction of the
+     * memory of a list of events.
+     */
+    public EventBatch readBatch()
     {
-        return lastEvent != null && event.getTimestamp() >= lastEvent.getTimestamp();
+        return EventBatch.of(iterator());
     }
 
-    public Event parse(String text)
+    /**
+     * Returns an iterator that reads and parses the input lazily. If the first
+     * line is a number, it is taken as the count of events to read, otherwise
+     * events are read until the end of the stream. Invalid lines and events out
+     * of chronological order are skipped.
+     */
+    @Override
+    public Iterator<Event> iterator()
     {
-        Event event = null;
-        Matcher matcher = pattern.matcher(text);
+        return new EventIterator();
+    }
 
-        if (matcher.find() && matcher.groupCount() == 4)
-        {
-            event = new Event();
-            event.setEventType(EventType.valueOf(matcher.group(1)));
-            event.setTimestamp(Long.valueOf(matcher.group(2)));
-            event.setPath(matcher.group(3));
-            event.setContentHash(matcher.group(4));
-        }
+    /**
+     * Counts what the iterators created afterwards read in the registry, see
+     * {@link LineEventIterator}, null to stop counting.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        this.metrics = metrics;
+    }
 
-        return event;
+    /**
+     * Makes the iterators created afterwards keep the events out of
+     * chronological order rather than drop them, for a
+     * {@link ReorderingIterator} to put them back in order.
+     */
+    public void setOutOfOrderDropped(boolean isOutOfOrderDropped)
+    {
+        this.isOutOfOrderDropped = isOutOfOrderDropped;
     }
 
-    private int readNumEvents()
+    public Event parse(String text)
     {
-        String numEventsInStr = null;
-        int numEvents = 0;
+        return parser.parse(text);
+    }
 
+    private String readLine()
+    {
         try
         {
-            numEventsInStr = reader.readLine();
-            numEvents = Integer.parseInt(numEventsInStr);
+            return reader.readLine();
         }
         catch (IOException e)
         {
             e.printStackTrace();
         }
-        catch (NumberFormatException e)
+
+        return null;
+    }
+
+    private class EventIterator extends LineEventIterator
+    {
+        EventIterator()
         {
+            super(parser);
+            setMetrics(metrics);
+            setOutOfOrderDropped(isOutOfOrderDropped);
         }
 
-        return numEvents;
+        @Override
+        protected CharSequence readLine()
+        {
+            return EventReader.this.readLine();
+        }
     }
 
     @Override
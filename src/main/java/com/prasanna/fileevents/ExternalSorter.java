@@ -0,0 +1,299 @@
+package com.prasanna.fileevents;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Sorts more records than fit in memory. Records are lines of tab separated
+ * fields, held in memory up to a run size, then sorted and written to a run
+ * file of their own in the temporary directory. Once all are added, the runs
+ * are merged as they are read back, so at most a run of records and a line
+ * per run file are in memory at any time. Records that fit in one run are
+ * never written.
+ * </p>
+ *
+ * <p>
+ * Records are in {@link #RECORD_ORDER}, in which a tab is lower than a slash,
+ * itself lower than any other character, so records sorted on a first path
+ * field have every directory right before the paths below it. They are held
+ * with tabs and slashes replaced by the two lowest characters, so they are
+ * sorted and merged in their natural order, and must not hold these. Run
+ * files are deleted when the sorter is closed. A sorter is not thread safe.
+ * </p>
+ *
+ * @author prasanna
+ */
+class ExternalSorter implements Closeable
+{
+    public static final int DEFAULT_RUN_SIZE = 100000;
+
+    /**
+     * Orders records character by character, a tab then a slash before any
+     * other character, and a record before the longer ones it starts.
+     */
+    static final Comparator<String> RECORD_ORDER = new Comparator<String>()
+    {
+        @Override
+        public int compare(String a, String b)
+        {
+            int length = Math.min(a.length(), b.length());
+
+            for (int i = 0; i < length; i++)
+            {
+                char aChar = a.charAt(i);
+                char bChar = b.charAt(i);
+
+                if (aChar != bChar)
+                    return rank(aChar) - rank(bChar);
+            }
+
+            return a.length() - b.length();
+        }
+    };
+
+    private static final char TAB = '\u0000';
+    private static final char SLASH = '\u0001';
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int runSize;
+    private final File tempDirectory;
+    private final List<File> runFiles = new ArrayList<File>();
+    private String[] records = new String[1024];
+    private int numRecords;
+    private boolean isSorted;
+
+    ExternalSorter(int runSize, File tempDirectory)
+    {
+        if (runSize <= 0)
+            throw new IllegalArgumentException("Run size must be positive");
+
+        this.runSize = runSize;
+        this.tempDirectory = tempDirectory;
+    }
+
+    static int rank(char c)
+    {
+        return c == '\t' ? -2 : c == '/' ? -1 : c;
+    }
+
+    void add(String record) throws IOException
+    {
+        if (isSorted)
+            throw new IllegalStateException("Cannot add records once sorted");
+
+        if (numRecords == runSize)
+            writeRun();
+
+        if (numRecords == records.length)
+            records = Arrays.copyOf(records, Math.min(runSize, records.length * 2));
+
+        records[numRecords++] = record.replace('\t', TAB).replace('/', SLASH);
+    }
+
+    int getNumRunFiles()
+    {
+        return runFiles.size();
+    }
+
+    /**
+     * Returns the records added in order. Can only be called once.
+     */
+    SortedRecords sort() throws IOException
+    {
+        if (isSorted)
+            throw new IllegalStateException("Records are already sorted");
+
+        isSorted = true;
+
+        if (runFiles.isEmpty())
+        {
+            Arrays.sort(records, 0, numRecords);
+            return new MemoryRecords(records, numRecords);
+        }
+
+        if (numRecords > 0)
+            writeRun();
+
+        records = null;
+        return new MergedRecords(runFiles);
+    }
+
+    @Override
+    public void close()
+    {
+        for (File runFile : runFiles)
+            runFile.delete();
+
+        runFiles.clear();
+        records = null;
+    }
+
+    private void writeRun() throws IOException
+    {
+        Arrays.sort(records, 0, numRecords);
+
+        File runFile = File.createTempFile("fileevents-", ".run", tempDirectory);
+        runFile.deleteOnExit();
+        runFiles.add(runFile);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(runFile), UTF_8), BUFFER_SIZE);
+
+        try
+        {
+            for (int i = 0; i < numRecords; i++)
+            {
+                writer.write(records[i]);
+                writer.write('\n');
+                records[i] = null;
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        numRecords = 0;
+    }
+
+    private static String decode(String record)
+    {
+        return record.replace(TAB, '\t').replace(SLASH, '/');
+    }
+
+    /**
+     * Sorted records read one at a time.
+     */
+    interface SortedRecords extends Closeable
+    {
+        /**
+         * Returns the next record, or null after the last one.
+         */
+        String next() throws IOException;
+    }
+
+    private static class MemoryRecords implements SortedRecords
+    {
+        private final String[] records;
+        private final int numRecords;
+        private int index;
+
+        MemoryRecords(String[] records, int numRecords)
+        {
+            this.records = records;
+            this.numRecords = numRecords;
+        }
+
+        @Override
+        public String next()
+        {
+            if (index == numRecords)
+                return null;
+
+            String record = records[index];
+            records[index++] = null;
+            return decode(record);
+        }
+
+        @Override
+        public void close()
+        {
+            index = numRecords;
+        }
+    }
+
+    /**
+     * Merges the run files on the current record of each.
+     */
+    private static class MergedRecords implements SortedRecords
+    {
+        private final PriorityQueue<Run> runs;
+
+        MergedRecords(List<File> runFiles) throws IOException
+        {
+            runs = new PriorityQueue<Run>(runFiles.size(), new Comparator<Run>()
+            {
+                @Override
+                public int compare(Run a, Run b)
+                {
+                    return a.record.compareTo(b.record);
+                }
+            });
+
+            try
+            {
+                for (File runFile : runFiles)
+                {
+                    Run run = new Run(runFile);
+
+                    if (run.advance())
+                        runs.add(run);
+                    else
+                        run.reader.close();
+                }
+            }
+            catch (IOException e)
+            {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public String next() throws IOException
+        {
+            Run run = runs.poll();
+            if (run == null)
+                return null;
+
+            String record = decode(run.record);
+
+            if (run.advance())
+                runs.add(run);
+            else
+                run.reader.close();
+
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            Run run;
+            while ((run = runs.poll()) != null)
+                run.reader.close();
+        }
+    }
+
+    private static class Run
+    {
+        private final BufferedReader reader;
+        private String record;
+
+        Run(File runFile) throws IOException
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(runFile), UTF_8), BUFFER_SIZE);
+        }
+
+        boolean advance() throws IOException
+        {
+            record = reader.readLine();
+            return record != null;
+        }
+    }
+}
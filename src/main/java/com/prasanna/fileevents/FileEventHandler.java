@@ -1,15 +1,858 @@
 package com.prasanna.fileevents;
 
-import java.util.List;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.zip.DeflaterOutputStream;
 
+/**
+ * Reads events from stdin, or from a file with --file, and logs the
+ * interpreted actions to stdout. A file can be interpreted in parallel with
+ * --parallel. The actions are logged as a table unless another
+ * {@link OutputFormat} is chosen with --format. With --pipeline, reading,
+ * interpreting and writing run on threads of their own, see
+ * {@link EventPipeline}, and the buffers between them either block or drop
+ * when full. With --watch, the events are the changes to a directory tree as
+ * they happen, see {@link DirectoryWatcher}. With --sharded, the events of
+ * every top level directory, or of every path prefix --shard-depth levels
+ * deep, are interpreted independently on a pool of threads, see
+ * {@link ShardedEventInterpreter}. With --checkpoint, the progress through
+ * the file is saved every --checkpoint-interval events and --resume continues
+ * from there, see {@link CheckpointingInterpreter}.
+ *
+ * On endless streams, --window, --wall-clock and --max-history bound how long
+ * and how many events are held waiting for a move or rename to complete, see
+ * {@link CoalescingWindow}.
+ *
+ * With --metrics, what the reader and interpreter do is reported every given
+ * number of seconds to stderr, or to the file given with --metrics-file, and
+ * over JMX, see {@link MetricsRegistry}.
+ *
+ * Gzip compressed input, from stdin or a file, is detected by its magic bytes
+ * and decompressed on a thread of its own. With --compress gzip, the output
+ * is gzip compressed, flushed as the actions are written, see
+ * {@link Compression}.
+ *
+ * Event logs are read faster from the binary event log format, which --file
+ * detects by its magic bytes. With --convert, the events read are written to
+ * a binary event log instead of being interpreted, see
+ * {@link BinaryEventLogWriter}.
+ *
+ * With --from, --to or --prefix, only the actions in the range of time
+ * [from, to) on paths under the prefix are logged, skipping the lines of the
+ * file that cannot be part of them before they are parsed, see
+ * {@link EventQuery}.
+ *
+ * With --reorder, events out of chronological order by up to the given
+ * number of milliseconds are put back in order instead of being dropped,
+ * holding at most --reorder-capacity events, see {@link ReorderingIterator}.
+ *
+ * With --batch, every file of a directory or matching a glob is interpreted
+ * in this one process into an output file of its own under --output-dir, at
+ * most --batch-threads files at a time, see {@link BatchProcessor}.
+ *
+ * With --diff, the actions that turn a snapshot of a tree into another are
+ * logged from the manifests of the two snapshots, see {@link SnapshotDiff}.
+ *
+ * With --memory-budget, a history of events held waiting for a move or rename
+ * to complete is spilled to disk once it takes more than the given number of
+ * megabytes, under --spill-dir or the temporary directory, and logged from
+ * there, see {@link EventHistory}. With --off-heap, held events are kept in
+ * direct buffers rather than objects, so that long running streams do not
+ * promote them to the old generation, see {@link OffHeapEventStore}.
+ *
+ * Usage: FileEventHandler [--format table|ndjson|csv|binary] [--pipeline
+ * block|drop] [--window &lt;millis&gt; [--wall-clock]] [--max-history
+ * &lt;events&gt;] [--sharded &lt;threads&gt; [--shard-depth &lt;levels&gt;]]
+ * [--file &lt;event log&gt; [--parallel &lt;threads&gt;] | --watch
+ * &lt;directory&gt;] [--checkpoint &lt;file&gt; [--checkpoint-interval
+ * &lt;events&gt;] [--resume]] [--metrics &lt;seconds&gt; [--metrics-file
+ * &lt;file&gt;]] [--compress none|gzip] [--convert &lt;binary event log&gt;]
+ * [--from &lt;millis&gt;] [--to &lt;millis&gt;] [--prefix &lt;path&gt;] [--reorder
+ * &lt;millis&gt; [--reorder-capacity &lt;events&gt;]] [--batch
+ * &lt;directory or glob&gt; --output-dir &lt;directory&gt; [--batch-threads
+ * &lt;files&gt;]] [--diff &lt;old manifest&gt; &lt;new manifest&gt;]
+ * [--memory-budget &lt;megabytes&gt; [--spill-dir &lt;directory&gt;]] [--off-heap]
+ *
+ * @author prasanna
+ */
 public class FileEventHandler
 {
     public static void main(String[] args)
     {
-        EventReader reader = new EventReader(System.in);
-        List<Event> events = reader.read();
+        Options options = parseOptions(args);
+        options.output = options.batchInput == null ? createOutput(options) : null;
+        MetricsReporter metricsReporter = startMetrics(options);
 
-        EventInterpreter eventInterpreter = new EventInterpreter();
-        eventInterpreter.interpret(events);
+        try
+        {
+            if (options.batchInput != null)
+                processBatch(options);
+            else if (options.oldManifest != null)
+                diff(options);
+            else if (options.convertFile != null)
+                convert(new File(options.convertFile), options);
+            else if (options.watchedDirectory != null)
+                watch(new File(options.watchedDirectory), options);
+            else if (options.inputFile == null && options.shardThreads > 0)
+                interpretSharded(reorder(createReader(openStdin(), options).iterator(), options), options);
+            else if (options.inputFile == null)
+            {
+                Logger logger = new Logger(options.output, OutputFormat.forName(options.format));
+
+                // The pipeline flushes the output itself when no action is
+                // pending. Otherwise it is flushed as input is read, which is
+                // after decompressing so the flush happens on this thread.
+                if (isPipelined(options))
+                    interpret(reorder(createReader(openStdin(), options).iterator(), options), logger, options);
+                else
+                    interpret(reorder(createReader(new FlushingInputStream(openStdin(), logger), options).iterator(),
+                                    options), logger, options);
+            }
+            else
+                interpretFile(new File(options.inputFile), options);
+        }
+        finally
+        {
+            finishOutput(options.output);
+
+            if (metricsReporter != null)
+                metricsReporter.close();
+        }
+    }
+
+    private static Options parseOptions(String[] args)
+    {
+        Options options = new Options();
+        long quietPeriod = 0;
+        WindowClock clock = WindowClock.EVENT_TIME;
+        int maxHistorySize = 0;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                if ((args[i].equals("-f") || args[i].equals("--file")) && i + 1 < args.length)
+                    options.inputFile = args[++i];
+                else if ((args[i].equals("-p") || args[i].equals("--parallel")) && i + 1 < args.length)
+                    options.parallelism = Integer.parseInt(args[++i]);
+                else if ((args[i].equals("-o") || args[i].equals("--format")) && i + 1 < args.length)
+                    options.format = args[++i];
+                else if ((args[i].equals("-w") || args[i].equals("--watch")) && i + 1 < args.length)
+                    options.watchedDirectory = args[++i];
+                else if (args[i].equals("--pipeline") && i + 1 < args.length)
+                    options.backpressure = Backpressure.valueOf(args[++i].toUpperCase());
+                else if (args[i].equals("--window") && i + 1 < args.length)
+                    quietPeriod = Long.parseLong(args[++i]);
+                else if (args[i].equals("--wall-clock"))
+                    clock = WindowClock.WALL_CLOCK;
+                else if (args[i].equals("--max-history") && i + 1 < args.length)
+                    maxHistorySize = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--sharded") && i + 1 < args.length)
+                    options.shardThreads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--shard-depth") && i + 1 < args.length)
+                    options.shardDepth = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--checkpoint") && i + 1 < args.length)
+                    options.checkpointFile = args[++i];
+                else if (args[i].equals("--checkpoint-interval") && i + 1 < args.length)
+                    options.checkpointInterval = Long.parseLong(args[++i]);
+                else if (args[i].equals("--resume"))
+                    options.resume = true;
+                else if (args[i].equals("--metrics") && i + 1 < args.length)
+                    options.metricsPeriod = Long.parseLong(args[++i]) * 1000;
+                else if (args[i].equals("--metrics-file") && i + 1 < args.length)
+                    options.metricsFile = args[++i];
+                else if (args[i].equals("--compress") && i + 1 < args.length)
+                    options.compression = Compression.forName(args[++i]);
+                else if (args[i].equals("--convert") && i + 1 < args.length)
+                    options.convertFile = args[++i];
+                else if (args[i].equals("--from") && i + 1 < args.length)
+                    options.from = Long.parseLong(args[++i]);
+                else if (args[i].equals("--to") && i + 1 < args.length)
+                    options.to = Long.parseLong(args[++i]);
+                else if (args[i].equals("--prefix") && i + 1 < args.length)
+                    options.pathPrefix = args[++i];
+                else if (args[i].equals("--reorder") && i + 1 < args.length)
+                    options.lateness = Long.parseLong(args[++i]);
+                else if (args[i].equals("--reorder-capacity") && i + 1 < args.length)
+                    options.reorderCapacity = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--batch") && i + 1 < args.length)
+                    options.batchInput = args[++i];
+                else if (args[i].equals("--output-dir") && i + 1 < args.length)
+                    options.outputDirectory = args[++i];
+                else if (args[i].equals("--batch-threads") && i + 1 < args.length)
+                    options.batchThreads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--memory-budget") && i + 1 < args.length)
+                    options.memoryBudget = Long.parseLong(args[++i]) * 1024 * 1024;
+                else if (args[i].equals("--spill-dir") && i + 1 < args.length)
+                    options.spillDirectory = args[++i];
+                else if (args[i].equals("--off-heap"))
+                    options.isOffHeap = true;
+                else if (args[i].equals("--diff") && i + 2 < args.length)
+                {
+                    options.oldManifest = args[++i];
+                    options.newManifest = args[++i];
+                }
+                else
+                    exitWithUsage();
+            }
+
+            options.window = new CoalescingWindow(quietPeriod, clock, maxHistorySize);
+        }
+        catch (IllegalArgumentException e)
+        {
+            exitWithUsage();
+        }
+
+        boolean hasWindow = options.window.hasQuietPeriod() || options.window.hasMaxHistorySize();
+
+        if (options.parallelism < 0
+                        || (options.parallelism > 0 && (options.inputFile == null || options.backpressure != null
+                                        || hasWindow)) || OutputFormat.forName(options.format) == null)
+            exitWithUsage();
+
+        if (options.watchedDirectory != null
+                        && (options.inputFile != null || options.backpressure != null || hasWindow))
+            exitWithUsage();
+
+        if (options.shardThreads < 0 || options.shardDepth <= 0
+                        || (options.shardThreads > 0 && (options.parallelism > 0 || options.backpressure != null
+                                        || hasWindow || options.watchedDirectory != null)))
+            exitWithUsage();
+
+        // Checkpoints need an input that can be read again from an offset
+        if (options.checkpointInterval <= 0
+                        || (options.resume && options.checkpointFile == null)
+                        || (options.checkpointFile != null && (options.inputFile == null || options.parallelism > 0
+                                        || options.shardThreads > 0 || isPipelined(options))))
+            exitWithUsage();
+
+        // Checkpoints cut the output back by its uncompressed length
+        if (options.compression == null || options.compression == Compression.ZSTD
+                        || (options.compression != Compression.NONE && options.checkpointFile != null))
+            exitWithUsage();
+
+        // Converting only reads the events, it does not interpret them
+        if (options.convertFile != null
+                        && (options.watchedDirectory != null || options.parallelism > 0 || options.shardThreads > 0
+                                        || options.checkpointFile != null || isPipelined(options) || hasWindow
+                                        || options.compression != Compression.NONE))
+            exitWithUsage();
+
+        // A query skips lines of a text file it reads whole on this thread
+        if (isQuery(options)
+                        && (options.inputFile == null || options.parallelism > 0 || options.shardThreads > 0
+                                        || options.checkpointFile != null || isPipelined(options) || hasWindow
+                                        || options.convertFile != null || options.from >= options.to
+                                        || (options.pathPrefix != null && !options.pathPrefix.startsWith("/"))))
+            exitWithUsage();
+
+        // Events are put back in order as they are read, from the start of
+        // the input, and a query reads by offset
+        if (options.lateness < -1 || options.reorderCapacity <= 0
+                        || (options.lateness >= 0 && (options.parallelism > 0 || options.checkpointFile != null
+                                        || options.watchedDirectory != null || isQuery(options)
+                                        || options.batchInput != null)))
+            exitWithUsage();
+
+        // Every file of a batch is read whole into an output file of its own
+        if (options.batchThreads <= 0 || (options.batchInput == null) != (options.outputDirectory == null)
+                        || (options.batchInput != null && (options.inputFile != null
+                                        || options.watchedDirectory != null || options.parallelism > 0
+                                        || options.shardThreads > 0 || options.checkpointFile != null
+                                        || isPipelined(options) || hasWindow || options.convertFile != null
+                                        || isQuery(options))))
+            exitWithUsage();
+
+        // A diff reads manifests, not events
+        if (options.oldManifest != null
+                        && (options.inputFile != null || options.watchedDirectory != null || options.parallelism > 0
+                                        || options.shardThreads > 0 || options.checkpointFile != null
+                                        || isPipelined(options) || hasWindow || options.convertFile != null
+                                        || isQuery(options) || options.lateness >= 0 || options.batchInput != null))
+            exitWithUsage();
+
+        // Only the interpreter reading the events on this thread spills them,
+        // and neither a query nor a diff holds histories
+        if (options.memoryBudget < 0 || (options.spillDirectory != null && options.memoryBudget == 0)
+                        || (options.memoryBudget > 0 && (options.watchedDirectory != null || options.parallelism > 0
+                                        || options.shardThreads > 0 || options.checkpointFile != null
+                                        || isPipelined(options) || options.convertFile != null || isQuery(options)
+                                        || options.batchInput != null || options.oldManifest != null)))
+            exitWithUsage();
+
+        // Only the interpreter of this thread or of the pipeline holds its
+        // events off heap
+        if (options.isOffHeap
+                        && (options.watchedDirectory != null || options.parallelism > 0 || options.shardThreads > 0
+                                        || options.checkpointFile != null || options.convertFile != null
+                                        || isQuery(options) || options.batchInput != null
+                                        || options.oldManifest != null))
+            exitWithUsage();
+
+        if (options.spillDirectory != null && !new File(options.spillDirectory).isDirectory())
+        {
+            System.err.println("Cannot spill to " + options.spillDirectory + ", it is not a directory");
+            System.exit(1);
+        }
+
+        // Chunks of a parallel run may be interpreted twice and the watcher
+        // has no reader, neither would be measured right
+        if (options.metricsPeriod < 0 || (options.metricsFile != null && options.metricsPeriod == 0)
+                        || (options.metricsPeriod > 0 && (options.parallelism > 0 || options.watchedDirectory != null)))
+            exitWithUsage();
+
+        return options;
+    }
+
+    /**
+     * Creates the metrics if they were asked for, registers them with JMX and
+     * starts reporting them to stderr or to the metrics file.
+     */
+    private static MetricsReporter startMetrics(Options options)
+    {
+        if (options.metricsPeriod == 0)
+            return null;
+
+        options.metrics = new MetricsRegistry();
+        options.metrics.registerMBeans();
+
+        MetricsReporter reporter;
+        if (options.metricsFile == null)
+            reporter = new MetricsReporter(options.metrics, System.err, options.metricsPeriod);
+        else
+            reporter = new MetricsReporter(options.metrics, new File(options.metricsFile), options.metricsPeriod);
+
+        reporter.start();
+        return reporter;
+    }
+
+    /**
+     * Returns stdout, compressed if asked for.
+     */
+    private static OutputStream createOutput(Options options)
+    {
+        try
+        {
+            return options.compression.compress(System.out);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot compress output: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Returns stdin, decompressed if compressed. Waits for the first bytes to
+     * tell an unsupported compression apart before anything is read.
+     */
+    private static InputStream openStdin()
+    {
+        DecompressingInputStream inputStream = new DecompressingInputStream(System.in);
+
+        try
+        {
+            inputStream.getCompression();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot read stdin: " + e.getMessage());
+            System.exit(1);
+        }
+
+        return inputStream;
+    }
+
+    /**
+     * Writes the end of compressed output, which is only complete once
+     * finished.
+     */
+    private static void finishOutput(OutputStream output)
+    {
+        if (output == null)
+            return;
+
+        try
+        {
+            if (output instanceof DeflaterOutputStream)
+                ((DeflaterOutputStream) output).finish();
+
+            output.flush();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Failed to finish output.");
+        }
+    }
+
+    private static EventReader createReader(InputStream inputStream, Options options)
+    {
+        EventReader reader = new EventReader(inputStream);
+        reader.setMetrics(options.metrics);
+        reader.setOutOfOrderDropped(options.lateness < 0);
+        return reader;
+    }
+
+    /**
+     * Puts the events back in chronological order if asked for, see
+     * {@link ReorderingIterator}.
+     */
+    private static Iterator<Event> reorder(Iterator<Event> events, Options options)
+    {
+        if (options.lateness < 0)
+            return events;
+
+        ReorderingIterator reorderingIterator = new ReorderingIterator(events, options.lateness,
+                        options.reorderCapacity);
+        reorderingIterator.setMetrics(options.metrics);
+        return reorderingIterator;
+    }
+
+    private static boolean isQuery(Options options)
+    {
+        return options.from != Long.MIN_VALUE || options.to != Long.MAX_VALUE || options.pathPrefix != null;
+    }
+
+    /**
+     * Returns true if the events are interpreted on a pipeline, which is also
+     * the case when the quiet period is measured by the wall clock, as its
+     * interpreter thread notices when the input goes quiet.
+     */
+    private static boolean isPipelined(Options options)
+    {
+        return options.backpressure != null
+                        || (options.window.hasQuietPeriod() && options.window.getClock() == WindowClock.WALL_CLOCK);
+    }
+
+    private static void interpret(Iterator<Event> events, Logger logger, Options options)
+    {
+        if (!isPipelined(options))
+        {
+            EventInterpreter eventInterpreter = new EventInterpreter(logger);
+            eventInterpreter.setWindow(options.window);
+            eventInterpreter.setMetrics(options.metrics);
+            eventInterpreter.setOffHeap(options.isOffHeap);
+
+            if (options.memoryBudget > 0)
+                eventInterpreter.setMemoryBudget(options.memoryBudget, new File(options.spillDirectory == null
+                                ? System.getProperty("java.io.tmpdir") : options.spillDirectory));
+
+            eventInterpreter.interpret(events);
+            return;
+        }
+
+        Backpressure backpressure = options.backpressure == null ? Backpressure.BLOCK : options.backpressure;
+        EventPipeline pipeline = new EventPipeline(events, logger, backpressure, EventPipeline.DEFAULT_CAPACITY,
+                        options.window);
+        pipeline.setMetrics(options.metrics);
+        pipeline.setOffHeap(options.isOffHeap);
+
+        try
+        {
+            pipeline.run();
+        }
+        catch (InterruptedException e)
+        {
+            System.err.println("Interrupted while interpreting events.");
+            System.exit(1);
+        }
+
+        if (options.backpressure != null)
+            pipeline.printStats(System.err);
+    }
+
+    private static void interpretSharded(Iterator<Event> events, Options options)
+    {
+        ShardedEventInterpreter interpreter = new ShardedEventInterpreter(options.output, options.format,
+                        new PathPrefixShardKey(options.shardDepth), options.shardThreads,
+                        ShardedEventInterpreter.DEFAULT_MAX_PENDING_EVENTS);
+        interpreter.setMetrics(options.metrics);
+
+        try
+        {
+            interpreter.interpret(events);
+        }
+        catch (InterruptedException e)
+        {
+            System.err.println("Interrupted while interpreting events.");
+            System.exit(1);
+        }
+    }
+
+    private static void interpretWithCheckpoints(MappedEventReader reader, File inputFile, Options options)
+                    throws IOException
+    {
+        CheckpointingInterpreter interpreter = new CheckpointingInterpreter(reader, inputFile, new Logger(
+                        options.output, OutputFormat.forName(options.format)), new File(options.checkpointFile),
+                        options.checkpointInterval);
+        interpreter.setWindow(options.window);
+        interpreter.setMetrics(options.metrics);
+        interpreter.setOutputFile(getOutputFile());
+        interpreter.interpret(options.resume);
+    }
+
+    /**
+     * Returns the channel of the file stdout is written to, or null if it is
+     * not a file, in which case actions logged after a checkpoint are logged
+     * again on resume.
+     */
+    private static FileChannel getOutputFile()
+    {
+        FileChannel channel = new FileOutputStream(FileDescriptor.out).getChannel();
+
+        try
+        {
+            // Pipes and terminals cannot be positioned
+            channel.position();
+            return channel;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    private static void watch(File directory, Options options)
+    {
+        if (!directory.isDirectory())
+        {
+            System.err.println("Cannot watch " + directory + ", it is not a directory");
+            System.exit(1);
+        }
+
+        Logger logger = new Logger(options.output, OutputFormat.forName(options.format));
+
+        try
+        {
+            int hashingThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            DirectoryWatcher watcher = new DirectoryWatcher(Paths.get(directory.getPath()), logger, hashingThreads);
+            logger.flush();
+            watcher.watch();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot watch " + directory + ": " + e.getMessage());
+            System.exit(1);
+        }
+        catch (InterruptedException e)
+        {
+            System.err.println("Interrupted while watching " + directory);
+            System.exit(1);
+        }
+    }
+
+    private static void processBatch(Options options)
+    {
+        BatchProcessor processor = new BatchProcessor(new File(options.outputDirectory), options.format,
+                        options.compression, options.batchThreads);
+        processor.setMetrics(options.metrics);
+
+        try
+        {
+            processor.process(options.batchInput);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot process " + options.batchInput + ": " + e.getMessage());
+            System.exit(1);
+        }
+        catch (InterruptedException e)
+        {
+            System.err.println("Interrupted while processing " + options.batchInput);
+            System.exit(1);
+        }
+
+        if (processor.getNumFailedFiles() > 0)
+            System.exit(1);
+    }
+
+    private static void diff(Options options)
+    {
+        Logger logger = new Logger(options.output, OutputFormat.forName(options.format));
+        SnapshotDiff snapshotDiff = new SnapshotDiff(logger);
+
+        try
+        {
+            snapshotDiff.diff(new File(options.oldManifest), new File(options.newManifest));
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot diff " + options.oldManifest + " and " + options.newManifest + ": "
+                            + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void interpretFile(File inputFile, Options options)
+    {
+        MappedEventReader reader = null;
+
+        try
+        {
+            Compression compression = Compression.detect(inputFile);
+            if (isQuery(options)
+                            && (compression != Compression.NONE || BinaryEventLogReader.isBinaryEventLog(inputFile)))
+            {
+                System.err.println("Cannot query " + inputFile + ", only uncompressed text event logs can be "
+                                + "queried");
+                System.exit(1);
+            }
+
+            if (compression != Compression.NONE)
+            {
+                interpretCompressedFile(inputFile, compression, options);
+                return;
+            }
+
+            if (BinaryEventLogReader.isBinaryEventLog(inputFile))
+            {
+                interpretBinaryFile(inputFile, options);
+                return;
+            }
+
+            reader = new MappedEventReader(inputFile);
+            reader.setMetrics(options.metrics);
+            reader.setOutOfOrderDropped(options.lateness < 0);
+
+            if (isQuery(options))
+                query(reader, options);
+            else if (options.parallelism > 0)
+                new ParallelEventInterpreter(reader, options.output, options.format, options.parallelism).interpret();
+            else if (options.checkpointFile != null)
+                interpretWithCheckpoints(reader, inputFile, options);
+            else if (options.shardThreads > 0)
+                interpretSharded(reorder(reader.iterator(), options), options);
+            else
+                interpret(reorder(reader.iterator(), options), new Logger(options.output,
+                                OutputFormat.forName(options.format)), options);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot read " + inputFile + ": " + e.getMessage());
+            System.exit(1);
+        }
+        finally
+        {
+            close(reader);
+        }
+    }
+
+    private static void query(MappedEventReader reader, Options options)
+    {
+        EventQuery query = new EventQuery(reader, new Logger(options.output, OutputFormat.forName(options.format)),
+                        options.from, options.to, options.pathPrefix);
+        query.setMetrics(options.metrics);
+        query.run();
+    }
+
+    /**
+     * Interprets a compressed file as a stream, decompressed on a thread of
+     * its own. A compressed file cannot be mapped and read from an offset, so
+     * it cannot be interpreted in parallel or with checkpoints.
+     */
+    private static void interpretCompressedFile(File inputFile, Compression compression, Options options)
+                    throws IOException
+    {
+        if (compression == Compression.ZSTD)
+        {
+            System.err.println("Cannot read " + inputFile + ", Zstandard compressed files are not supported, "
+                            + "decompress it with zstd -d");
+            System.exit(1);
+        }
+
+        if (options.parallelism > 0 || options.checkpointFile != null)
+        {
+            System.err.println("Cannot read " + inputFile + " from an offset, compressed files cannot be "
+                            + "interpreted in parallel or with checkpoints");
+            System.exit(1);
+        }
+
+        InputStream inputStream = new FileInputStream(inputFile);
+
+        try
+        {
+            EventReader reader = createReader(inputStream, options);
+
+            if (options.shardThreads > 0)
+                interpretSharded(reorder(reader.iterator(), options), options);
+            else
+                interpret(reorder(reader.iterator(), options), new Logger(options.output,
+                                OutputFormat.forName(options.format)), options);
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Interprets a binary event log. Its events are decoded one block after
+     * another, it cannot be interpreted in parallel or with checkpoints.
+     */
+    private static void interpretBinaryFile(File inputFile, Options options) throws IOException
+    {
+        if (options.parallelism > 0 || options.checkpointFile != null)
+        {
+            System.err.println("Cannot read " + inputFile + " from an offset, binary event logs cannot be "
+                            + "interpreted in parallel or with checkpoints");
+            System.exit(1);
+        }
+
+        BinaryEventLogReader reader = new BinaryEventLogReader(inputFile);
+
+        try
+        {
+            if (options.shardThreads > 0)
+                interpretSharded(reorder(reader.iterator(), options), options);
+            else
+                interpret(reorder(reader.iterator(), options), new Logger(options.output,
+                                OutputFormat.forName(options.format)), options);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes the events read from stdin or the input file, in any format, to a
+     * binary event log.
+     */
+    private static void convert(File outputFile, Options options)
+    {
+        try
+        {
+            if (options.inputFile == null)
+            {
+                Iterator<Event> events = createReader(openStdin(), options).iterator();
+                BinaryEventLogWriter.convert(reorder(events, options), outputFile);
+                return;
+            }
+
+            File inputFile = new File(options.inputFile);
+            Compression compression = Compression.detect(inputFile);
+
+            if (compression == Compression.ZSTD)
+            {
+                System.err.println("Cannot read " + inputFile + ", Zstandard compressed files are not supported, "
+                                + "decompress it with zstd -d");
+                System.exit(1);
+            }
+
+            Closeable input;
+            Iterator<Event> events;
+
+            if (compression == Compression.GZIP)
+            {
+                InputStream inputStream = new FileInputStream(inputFile);
+                events = createReader(inputStream, options).iterator();
+                input = inputStream;
+            }
+            else if (BinaryEventLogReader.isBinaryEventLog(inputFile))
+            {
+                BinaryEventLogReader reader = new BinaryEventLogReader(inputFile);
+                events = reader.iterator();
+                input = reader;
+            }
+            else
+            {
+                MappedEventReader reader = new MappedEventReader(inputFile);
+                reader.setMetrics(options.metrics);
+                reader.setOutOfOrderDropped(options.lateness < 0);
+                events = reader.iterator();
+                input = reader;
+            }
+
+            try
+            {
+                BinaryEventLogWriter.convert(reorder(events, options), outputFile);
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot convert to " + outputFile + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void close(MappedEventReader reader)
+    {
+        if (reader != null)
+        {
+            try
+            {
+                reader.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Failed to close input file.");
+            }
+        }
+    }
+
+    private static void exitWithUsage()
+    {
+        System.err.println("Usage: FileEventHandler [--format table|ndjson|csv|binary] [--pipeline block|drop] "
+                        + "[--window <millis> [--wall-clock]] [--max-history <events>] "
+                        + "[--sharded <threads> [--shard-depth <levels>]] "
+                        + "[--file <event log> [--parallel <threads>] | --watch <directory>] "
+                        + "[--checkpoint <file> [--checkpoint-interval <events>] [--resume]] "
+                        + "[--metrics <seconds> [--metrics-file <file>]] [--compress none|gzip] "
+                        + "[--convert <binary event log>] [--from <millis>] [--to <millis>] [--prefix <path>] "
+                        + "[--reorder <millis> [--reorder-capacity <events>]] "
+                        + "[--batch <directory or glob> --output-dir <directory> [--batch-threads <files>]] "
+                        + "[--diff <old manifest> <new manifest>] "
+                        + "[--memory-budget <megabytes> [--spill-dir <directory>]] [--off-heap]");
+        System.err.println("When no file or directory is provided events are read from stdin. "
+                        + "Gzip compressed input and binary event log files are detected and read.");
+        System.exit(1);
+    }
+
+    private static class Options
+    {
+        private String inputFile;
+        private String watchedDirectory;
+        private int parallelism;
+        private String format = OutputFormat.TABLE;
+        private Backpressure backpressure;
+        private CoalescingWindow window = CoalescingWindow.NONE;
+        private int shardThreads;
+        private int shardDepth = 1;
+        private String checkpointFile;
+        private long checkpointInterval = CheckpointingInterpreter.DEFAULT_INTERVAL;
+        private boolean resume;
+        private long metricsPeriod;
+        private String metricsFile;
+        private MetricsRegistry metrics;
+        private Compression compression = Compression.NONE;
+        private OutputStream output;
+        private String convertFile;
+        private long from = Long.MIN_VALUE;
+        private long to = Long.MAX_VALUE;
+        private String pathPrefix;
+        private long lateness = -1;
+        private int reorderCapacity = ReorderingIterator.DEFAULT_CAPACITY;
+        private String batchInput;
+        private String outputDirectory;
+        private int batchThreads = BatchProcessor.DEFAULT_MAX_CONCURRENT_FILES;
+        private String oldManifest;
+        private String newManifest;
+        private long memoryBudget;
+        private String spillDirectory;
+        private boolean isOffHeap;
     }
 }
@@ -0,0 +1,109 @@
+package com.prasanna.fileevents;
+
+/**
+ * <p>
+ * 64 bit fingerprints of files and directory trees, equal for trees with the
+ * same names and contents wherever they are. A file is fingerprinted by its
+ * content hash. A directory is fingerprinted by the sum of the fingerprints of
+ * its children, each mixed with its name, so it does not depend on the order
+ * the children are added in and is built bottom up as a tree is walked, one
+ * addition per path.
+ * </p>
+ *
+ * <p>
+ * The entries of a tree can also be summed up in any order without walking
+ * it, each fingerprinted with its path relative to the root of the tree, as
+ * the {@link EventHistory} does for the events below a deleted or added
+ * directory.
+ * </p>
+ *
+ * @author prasanna
+ */
+final class Fingerprint
+{
+    /**
+     * Fingerprint of an empty directory, to which its children are added.
+     */
+    static final long EMPTY_DIRECTORY = 0x6a09e667f3bcc908L;
+
+    private static final long FILE_SEED = 0xbb67ae8584caa73bL;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private Fingerprint()
+    {
+    }
+
+    static long ofFile(String contentHash)
+    {
+        return mix(hash(contentHash) ^ FILE_SEED);
+    }
+
+    /**
+     * Returns what a child of the name and fingerprint adds to the fingerprint
+     * of its directory.
+     */
+    static long ofChild(String name, long fingerprint)
+    {
+        return mix(hash(name) * GOLDEN_GAMMA + fingerprint);
+    }
+
+    /**
+     * Returns what an entry of the content hash at the path below root adds to
+     * the fingerprint of the tree below root, the fingerprint of the file
+     * mixed with each name from the path up to root, so it only depends on the
+     * path relative to root.
+     */
+    static long ofEntry(PathNode path, PathNode root, String contentHash)
+    {
+        long fingerprint = ofFile(contentHash);
+
+        for (PathNode node = path; node.getDepth() > root.getDepth(); node = node.getParent())
+        {
+            String nodePath = node.getPath();
+            int nameStart = nodePath.length() - node.getNameLength();
+            fingerprint = mix(hash(nodePath, nameStart, nodePath.length()) * GOLDEN_GAMMA + fingerprint);
+        }
+
+        return fingerprint;
+    }
+
+    static String toHex(long fingerprint)
+    {
+        String hex = Long.toHexString(fingerprint);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * FNV-1a over the characters.
+     */
+    private static long hash(String s)
+    {
+        return hash(s, 0, s.length());
+    }
+
+    private static long hash(String s, int start, int end)
+    {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (int i = start; i < end; i++)
+        {
+            hash ^= s.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * The finalizer of SplitMix64, so that sums of fingerprints do not cancel
+     * out on similar names.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
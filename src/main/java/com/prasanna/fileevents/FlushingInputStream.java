@@ -0,0 +1,44 @@
+package com.prasanna.fileevents;
+
+import java.io.FilterInputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that flushes the given output before a read would block, so
+ * that actions logged for a live stream such as stdin are written while
+ * waiting for more events instead of staying buffered.
+ *
+ * @author prasanna
+ */
+class FlushingInputStream extends FilterInputStream
+{
+    private final Flushable output;
+
+    FlushingInputStream(InputStream inputStream, Flushable output)
+    {
+        super(inputStream);
+        this.output = output;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        flushIfBlocking();
+        return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        flushIfBlocking();
+        return super.read(b, off, len);
+    }
+
+    private void flushIfBlocking() throws IOException
+    {
+        if (in.available() == 0)
+            output.flush();
+    }
+}
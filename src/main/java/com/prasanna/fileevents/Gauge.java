@@ -0,0 +1,47 @@
+package com.prasanna.fileevents;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last value set of something that goes up and down, such as the number
+ * of events held by the interpreter, along with the highest value ever set.
+ * Safe to use from multiple threads.
+ *
+ * @author prasanna
+ */
+public class Gauge implements GaugeMBean
+{
+    private volatile long value;
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void set(long value)
+    {
+        this.value = value;
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value))
+            currentMax = max.get();
+    }
+
+    @Override
+    public long getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Returns the highest value set, 0 if none was.
+     */
+    @Override
+    public long getMax()
+    {
+        long currentMax = max.get();
+        return currentMax == Long.MIN_VALUE ? 0 : currentMax;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getValue() + " (max " + getMax() + ")";
+    }
+}
@@ -0,0 +1,13 @@
+package com.prasanna.fileevents;
+
+/**
+ * JMX view of a {@link Gauge}.
+ *
+ * @author prasanna
+ */
+public interface GaugeMBean
+{
+    long getValue();
+
+    long getMax();
+}
@@ -0,0 +1,142 @@
+package com.prasanna.fileevents;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Distribution of non-negative values, such as latencies in nanoseconds or
+ * sizes, with percentiles. Values are counted in log-linear buckets: below
+ * 64 every value has a bucket of its own, above every power of two range is
+ * split into 32 buckets of equal width. A percentile is reported as the
+ * highest value of its bucket, at most about 3% above the actual value,
+ * whatever the magnitude of the values, in a fixed 15KB of counts.
+ * </p>
+ *
+ * <p>
+ * Recording does not allocate or lock and is safe from multiple threads.
+ * Readings taken while values are recorded may be off by those values.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class Histogram implements HistogramMBean
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records the value, negative values are recorded as 0.
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value))
+            currentMax = max.get();
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    @Override
+    public double getMean()
+    {
+        long currentCount = count.get();
+        return currentCount == 0 ? 0 : (double) sum.get() / currentCount;
+    }
+
+    @Override
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the value the given percentage of the recorded values are at or
+     * below, 0 if none were recorded.
+     */
+    public long getPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            total += counts.get(i);
+
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+
+        for (int i = 0; i < NUM_BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    @Override
+    public long getP50()
+    {
+        return getPercentile(50);
+    }
+
+    @Override
+    public long getP99()
+    {
+        return getPercentile(99);
+    }
+
+    @Override
+    public long getP999()
+    {
+        return getPercentile(99.9);
+    }
+
+    static int indexOf(long value)
+    {
+        if (value < 2 * SUB_BUCKETS)
+            return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValueOf(int index)
+    {
+        if (index < 2 * SUB_BUCKETS)
+            return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count " + getCount() + " mean " + Math.round(getMean()) + " p50 " + getP50() + " p99 " + getP99()
+                        + " p99.9 " + getP999() + " max " + getMax();
+    }
+}
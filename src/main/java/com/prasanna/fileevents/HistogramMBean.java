@@ -0,0 +1,21 @@
+package com.prasanna.fileevents;
+
+/**
+ * JMX view of a {@link Histogram}.
+ *
+ * @author prasanna
+ */
+public interface HistogramMBean
+{
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP99();
+
+    long getP999();
+}
@@ -0,0 +1,189 @@
+package com.prasanna.fileevents;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * The events of an {@link EventHistory} that no longer fit in its memory
+ * budget, written in order to a file of their own in the spill directory, the
+ * way a {@link Checkpoint} writes events. Their content hashes are kept in a
+ * Bloom filter of a fixed size, which may take a content hash for one of the
+ * history that is not, but never the other way around.
+ * </p>
+ *
+ * <p>
+ * The events are read back, followed by the events the history still holds,
+ * as many times as needed, each read sharing the nodes of its paths in a
+ * bounded {@link PathTrie}. The file is deleted when the spill is closed, as
+ * are the reads not finished by then.
+ * </p>
+ *
+ * @author prasanna
+ */
+class HistorySpill
+{
+    private static final int NUM_HASHES = 4;
+    private static final int MIN_FILTER_BITS = 1 << 16;
+    private static final int MAX_TRIE_NODES = 1 << 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final DataOutputStream output;
+    private final long[] filter;
+    private final long filterMask;
+    private final List<DataInputStream> inputs = new ArrayList<DataInputStream>();
+    private int numEvents;
+
+    /**
+     * Creates a spill whose Bloom filter takes a bit per byte of the memory
+     * budget.
+     */
+    HistorySpill(File directory, long memoryBudget) throws IOException
+    {
+        long numBits = Long.highestOneBit(Math.max(MIN_FILTER_BITS, Math.min(memoryBudget, 1L << 33)));
+
+        file = File.createTempFile("fileevents-", ".history", directory);
+        file.deleteOnExit();
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        filter = new long[(int) (numBits >>> 6)];
+        filterMask = numBits - 1;
+    }
+
+    void write(Event event) throws IOException
+    {
+        Checkpoint.writeEvent(output, event);
+        numEvents++;
+    }
+
+    int getNumEvents()
+    {
+        return numEvents;
+    }
+
+    void addContentHash(String contentHash)
+    {
+        long hash = Fingerprint.ofFile(contentHash);
+
+        for (int i = 0; i < NUM_HASHES; i++)
+        {
+            long bit = getBit(hash, i);
+            filter[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Returns false if the content hash was never added, true if it may have
+     * been.
+     */
+    boolean mayContainContentHash(String contentHash)
+    {
+        long hash = Fingerprint.ofFile(contentHash);
+
+        for (int i = 0; i < NUM_HASHES; i++)
+        {
+            long bit = getBit(hash, i);
+
+            if ((filter[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Double hashing on the two halves of the fingerprint of the content hash.
+     */
+    private long getBit(long hash, int i)
+    {
+        return ((hash >>> 32) + i * (hash & 0xffffffffL)) & filterMask;
+    }
+
+    /**
+     * Returns the spilled events followed by the held ones.
+     */
+    Iterator<Event> iterator(final List<Event> heldEvents) throws IOException
+    {
+        output.flush();
+
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                        BUFFER_SIZE));
+        inputs.add(input);
+
+        return new Iterator<Event>()
+        {
+            private final PathTrie pathTrie = new PathTrie(MAX_TRIE_NODES);
+            private int index;
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < numEvents + heldEvents.size();
+            }
+
+            @Override
+            public Event next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                if (index >= numEvents)
+                    return heldEvents.get(index++ - numEvents);
+
+                try
+                {
+                    Event event = Checkpoint.readEvent(input, pathTrie);
+
+                    if (++index == numEvents)
+                        closeInput(input);
+
+                    return event;
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException("Cannot read spilled events from " + file, e);
+                }
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("Events cannot be removed from a history");
+            }
+        };
+    }
+
+    private void closeInput(DataInputStream input) throws IOException
+    {
+        inputs.remove(input);
+        input.close();
+    }
+
+    void close()
+    {
+        try
+        {
+            output.close();
+
+            for (DataInputStream input : inputs)
+                input.close();
+        }
+        catch (IOException e)
+        {
+            // Deleted regardless
+        }
+
+        inputs.clear();
+        file.delete();
+    }
+}
@@ -0,0 +1,83 @@
+package com.prasanna.fileevents;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Formats actions as newline delimited JSON, one object per line with the
+ * timestamp in milliseconds, the action, the type, the source path and the
+ * destination path, which is null unless the action is a move or rename, e.g.
+ *
+ * <pre>
+ * {"timestamp":1365015611000,"action":"MOVED","type":"file","source":"/a/b","destination":"/c/b"}
+ * </pre>
+ *
+ * There is no header. Text is encoded as UTF-8.
+ *
+ * @author prasanna
+ */
+public class JsonLinesFormat extends OutputFormat
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder line = new StringBuilder(128);
+
+    @Override
+    public void writeHeader(OutputBuffer output)
+    {
+    }
+
+    @Override
+    public void writeAction(OutputBuffer output, long timestamp, Action action, String fileType,
+                    String sourcePath, String destinationPath) throws IOException
+    {
+        line.setLength(0);
+        line.append("{\"timestamp\":").append(timestamp);
+        line.append(",\"action\":\"").append(action.name());
+        line.append("\",\"type\":\"").append(fileType);
+        line.append("\",\"source\":");
+        appendString(sourcePath);
+        line.append(",\"destination\":");
+        appendString(destinationPath);
+        line.append("}\n");
+
+        output.write(line, UTF_8);
+    }
+
+    private void appendString(String s)
+    {
+        if (s == null)
+        {
+            line.append("null");
+            return;
+        }
+
+        line.append('"');
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+
+            if (c == '"' || c == '\\')
+                line.append('\\').append(c);
+            else if (c < 0x20)
+            {
+                line.append("\\u00");
+                line.append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+            else
+                line.append(c);
+        }
+
+        line.append('"');
+    }
+
+    /**
+     * Lines of free text have no place in the output and are left out.
+     */
+    @Override
+    public void writeLine(OutputBuffer output, String text)
+    {
+    }
+}
@@ -0,0 +1,237 @@
+package com.prasanna.fileevents;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the events parsed from the lines of an input. If the first
+ * line is a number, it is taken as the count of events to read, otherwise
+ * events are read until the end of the input. Invalid lines and events out of
+ * chronological order are skipped, unless they are to be put back in order.
+ *
+ * With a {@link MetricsRegistry} set, the lines read, the lines rejected by
+ * reason and the events dropped for being out of order are counted.
+ *
+ * @author prasanna
+ */
+abstract class LineEventIterator implements Iterator<Event>
+{
+    private final EventLineParser parser;
+    private boolean isHeaderRead;
+    private long numEventsLeft = -1;
+    private CharSequence pendingLine;
+    private Event lastEvent;
+    private Event nextEvent;
+    private boolean isOutOfOrderDropped = true;
+    private Counter linesRead;
+    private Counter linesRejected;
+    private Counter[] linesRejectedByError;
+    private Counter eventsOutOfOrder;
+
+    LineEventIterator(EventLineParser parser)
+    {
+        this.parser = parser;
+    }
+
+    /**
+     * Creates an iterator that continues reading an input past its first line.
+     * The input is not checked for an event count line and lastEvent is the
+     * event parsed from the line preceding the input, null if there is none or
+     * if it was invalid.
+     */
+    LineEventIterator(EventLineParser parser, Event lastEvent)
+    {
+        this(parser, lastEvent, -1);
+    }
+
+    /**
+     * Creates an iterator that continues an earlier iteration of an input,
+     * which had numEventsLeft events of its count line left to read, -1 if it
+     * had no count line.
+     */
+    LineEventIterator(EventLineParser parser, Event lastEvent, long numEventsLeft)
+    {
+        this.parser = parser;
+        this.lastEvent = lastEvent;
+        this.numEventsLeft = numEventsLeft;
+        isHeaderRead = true;
+    }
+
+    /**
+     * Returns the next line without its line terminator or null at the end of
+     * the input. The returned sequence is only valid until the next call.
+     */
+    protected abstract CharSequence readLine();
+
+    @Override
+    public boolean hasNext()
+    {
+        if (!isHeaderRead)
+            readHeader();
+
+        while (nextEvent == null && numEventsLeft != 0)
+        {
+            CharSequence inputEvent = pendingLine != null ? pendingLine : readLine();
+            pendingLine = null;
+
+            if (inputEvent == null)
+            {
+                numEventsLeft = 0;
+                break;
+            }
+
+            if (numEventsLeft > 0)
+                numEventsLeft--;
+
+            Event event = parser.parse(inputEvent);
+            if (event != null && (!isOutOfOrderDropped || lastEvent == null || isChronological(lastEvent, event)))
+                nextEvent = event;
+
+            if (linesRead != null)
+                count(event);
+
+            lastEvent = event;
+        }
+
+        return nextEvent != null;
+    }
+
+    @Override
+    public Event next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        Event event = nextEvent;
+        nextEvent = null;
+        return event;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Events cannot be removed from the input");
+    }
+
+    /**
+     * Keeps the events out of chronological order if false, for them to be
+     * put back in order, see {@link ReorderingIterator}.
+     */
+    void setOutOfOrderDropped(boolean isOutOfOrderDropped)
+    {
+        this.isOutOfOrderDropped = isOutOfOrderDropped;
+    }
+
+    /**
+     * Counts what the iterator reads in the registry, or stops counting if it
+     * is null.
+     */
+    void setMetrics(MetricsRegistry metrics)
+    {
+        if (metrics == null)
+        {
+            linesRead = null;
+            return;
+        }
+
+        linesRejected = metrics.counter("reader.lines.rejected");
+        linesRejectedByError = new Counter[ParseError.values().length];
+        for (ParseError error : ParseError.values())
+            linesRejectedByError[error.ordinal()] = metrics.counter("reader.lines.rejected."
+                            + error.name().toLowerCase());
+
+        eventsOutOfOrder = metrics.counter("reader.events.out_of_order");
+        linesRead = metrics.counter("reader.lines");
+    }
+
+    private void count(Event event)
+    {
+        linesRead.increment();
+
+        if (event == null)
+        {
+            linesRejected.increment();
+
+            ParseError error = parser.getLastError();
+            if (error != null)
+                linesRejectedByError[error.ordinal()].increment();
+        }
+        else if (nextEvent != event)
+            eventsOutOfOrder.increment();
+    }
+
+    /**
+     * Returns the number of events of the count line left to read, -1 if the
+     * input has no count line or if it was not read yet.
+     */
+    long getNumEventsLeft()
+    {
+        return numEventsLeft;
+    }
+
+    /**
+     * Returns the event parsed from the last line read, null if there is none
+     * or if the line was invalid.
+     */
+    Event getLastEvent()
+    {
+        return lastEvent;
+    }
+
+    private boolean isChronological(Event lastEvent, Event event)
+    {
+        return lastEvent != null && event.getTimestamp() >= lastEvent.getTimestamp();
+    }
+
+    private void readHeader()
+    {
+        isHeaderRead = true;
+        CharSequence firstLine = readLine();
+
+        if (firstLine == null)
+            numEventsLeft = 0;
+        else
+        {
+            long numEvents = parseNumEvents(firstLine);
+
+            if (numEvents < 0)
+                pendingLine = firstLine;
+            else
+                numEventsLeft = numEvents;
+        }
+    }
+
+    /**
+     * Returns the event count on the line or -1 if the line is not a number.
+     */
+    static long parseNumEvents(CharSequence line)
+    {
+        int start = 0;
+        int end = line.length();
+
+        while (start < end && Character.isWhitespace(line.charAt(start)))
+            start++;
+
+        while (end > start && Character.isWhitespace(line.charAt(end - 1)))
+            end--;
+
+        if (start == end || end - start > 10)
+            return -1;
+
+        boolean isNegative = line.charAt(start) == '-';
+        if (isNegative && ++start == end)
+            return -1;
+
+        long numEvents = 0;
+        for (int i = start; i < end; i++)
+        {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+
+            numEvents = numEvents * 10 + (c - '0');
+        }
+
+        return isNegative ? 0 : numEvents;
+    }
+}
@@ -1,96 +1,103 @@
 package com.prasanna.fileevents;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
-public class Logger
+/**
+ * <p>
+ * Logs the interpreted actions in an {@link OutputFormat}, by default as rows
+ * of a table. Records are encoded into a buffer which is written to the output
+ * stream when it fills up or when the logger is flushed, so nothing is written
+ * until {@link #flush()} is called or enough actions are logged.
+ * </p>
+ *
+ * <p>
+ * Any output stream can be used as the sink. A logger is not thread safe.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class Logger implements Flushable
 {
-    private static int ACTION_COLUMN_WIDTH = 9;
-    private static int TYPE_COLUMN_WIDTH = 9;
-    private static int TIME_COLUMN_WIDTH = 26;
-    private static int DETAILS_COLUMN_WIDTH = 51;
-
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd yyyy HH:mm:ss:SSS");
-    private PrintStream outputStream;
+    private final OutputFormat format;
+    private final OutputBuffer output;
 
     public Logger(OutputStream outputStream)
     {
-        if (outputStream == null)
-            throw new IllegalArgumentException("Cannot initialize logger with null output stream.");
-
-    }
-
-    public static String padRight(String s, int padding)
-    {
-        return String.format("%1$-" + padding + "s", s);
+        this(outputStream, new TableFormat());
     }
 
-    private String getDate(Long timestamp)
+    /**
+     * Creates a logger without output for subclasses that pass the actions on
+     * instead of writing them, which must override all the logging methods.
+     */
+    Logger()
     {
-        Date date = new Date(timestamp);
-        return dateFormat.format(date);
+        this.format = null;
+        this.output = null;
     }
 
-    public void printHeader()
+    public Logger(OutputStream outputStream, OutputFormat format)
     {
-        printBoundary();
+        if (outputStream == null)
+            throw new IllegalArgumentException("Cannot initialize logger with null output stream.");
 
-        outputStream.format("|%1$-" + TIME_COLUMN_WIDTH + "s|%2$-" + ACTION_COLUMN_WIDTH + "s|%3$-" + TYPE_COLUMN_WIDTH
-                        + "s|%4$-" + DETAILS_COLUMN_WIDTH + "s%5$s", "Occurence", "Event", "Type", "Details", "|");
-        outputStream.println();
+        if (format == null)
+            throw new IllegalArgumentException("Cannot initialize logger without output format.");
 
-        printBoundary();
+        this.format = format;
+        this.output = new OutputBuffer(outputStream);
     }
 
-    private void printBoundary()
+    public static String padRight(String s, int padding)
     {
-        for (int i = 0; i < 100; i++)
-            outputStream.print("-");
-
-        outputStream.println();
+        StringBuilder builder = new StringBuilder(Math.max(padding, 0));
+        TableFormat.appendPadded(builder, s, padding);
+        return builder.toString();
     }
 
-    public void prettyLog(Event event, Action action, String text)
+    public void printHeader()
     {
-        if (text != null)
+        try
         {
-            if (text.length() > DETAILS_COLUMN_WIDTH)
-                printMultiRowStatement(event, action, text);
-            else
-            {
-                logLine("|" + padRight(getDate(event.getTimestamp()), TIME_COLUMN_WIDTH) + "|"
-                                + padRight(action.getName(), ACTION_COLUMN_WIDTH) + "|"
-                                + padRight(event.getFileType(), TYPE_COLUMN_WIDTH) + "|"
-                                + padRight(text, DETAILS_COLUMN_WIDTH) + "|");
-            }
+            format.writeHeader(output);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cannot log to output stream: " + e.getMessage());
         }
-        printBoundary();
     }
 
-    private void printMultiRowStatement(Event event, Action action, String text)
+    /**
+     * Logs the action for the event. The destination path is null unless the
+     * action is a move or rename.
+     */
+    public void log(Event event, Action action, String destinationPath)
     {
-        int numRows = text.length() / DETAILS_COLUMN_WIDTH;
-        String firstRowText = text.substring(0, DETAILS_COLUMN_WIDTH);
-
-        logLine("|" + padRight(getDate(event.getTimestamp()), TIME_COLUMN_WIDTH) + "|"
-                        + padRight(action.getName(), ACTION_COLUMN_WIDTH) + "|"
-                        + padRight(event.getFileType(), TYPE_COLUMN_WIDTH) + "|"
-                        + padRight(firstRowText, DETAILS_COLUMN_WIDTH) + "|");
-
-        int offset = DETAILS_COLUMN_WIDTH;
-        int end = DETAILS_COLUMN_WIDTH;
-        for (int i = 1; i <= numRows; i++)
+        try
+        {
+            format.writeAction(output, event.getTimestamp(), action, event.getFileType(), event.getPath(),
+                            destinationPath);
+        }
+        catch (IOException e)
         {
-            if (offset + end > text.length())
-                end = text.length();
+            System.out.println("Cannot log to output stream: " + e.getMessage());
+        }
+    }
 
-            String rowText = text.substring(offset, end);
-            logLine("|" + padRight("", TIME_COLUMN_WIDTH) + "|" + padRight("", ACTION_COLUMN_WIDTH) + "|"
-                            + padRight("", TYPE_COLUMN_WIDTH) + "|" + padRight(rowText, DETAILS_COLUMN_WIDTH) + "|");
-            offset += DETAILS_COLUMN_WIDTH;
+    /**
+     * Logs the action for the event with the given text in place of its path.
+     */
+    public void prettyLog(Event event, Action action, String text)
+    {
+        try
+        {
+            format.writeAction(output, event.getTimestamp(), action, event.getFileType(), text, null);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cannot log to output stream: " + e.getMessage());
         }
     }
 
@@ -100,8 +107,7 @@ public class Logger
         {
             try
             {
-                outputStream.write(text.getBytes());
-                outputStream.write("\n".getBytes());
+                format.writeLine(output, text);
             }
             catch (IOException e)
             {
@@ -110,10 +116,27 @@ public class Logger
         }
     }
 
+    /**
+     * Returns the number of bytes logged so far, the header included.
+     */
+    long getNumBytesLogged()
+    {
+        return output == null ? 0 : output.size();
+    }
+
+    /**
+     * Writes the actions logged so far to the output stream and flushes it.
+     */
     @Override
-    public void finalize()
+    public void flush()
     {
-        if (outputStream != null)
-            outputStream.close();
+        try
+        {
+            output.flush();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cannot log to output stream: " + e.getMessage());
+        }
     }
 }
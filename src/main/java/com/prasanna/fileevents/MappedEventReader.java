@@ -0,0 +1,313 @@
+package com.prasanna.fileevents;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * <p>
+ * Reads events from a file by memory mapping it, in the same format as the
+ * {@link EventReader}. Lines are parsed straight from the mapped bytes without
+ * decoding them into Strings, only the path and content hash of each event are
+ * copied.
+ * </p>
+ *
+ * <p>
+ * The file is mapped one segment at a time so files larger than the address
+ * space, or than a single mapping which is limited to 2GB, can be read. A line
+ * crossing the end of a segment is read by mapping the next segment from the
+ * start of that line.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class MappedEventReader implements Iterable<Event>, Closeable
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private MetricsRegistry metrics;
+    private boolean isOutOfOrderDropped = true;
+
+    public MappedEventReader(File file) throws IOException
+    {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedEventReader(File file, int segmentSize) throws IOException
+    {
+        if (file == null)
+            throw new IllegalArgumentException("Cannot initialize reader without input file");
+
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Segment size must be positive");
+
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Counts what the iterators created afterwards read in the registry, see
+     * {@link LineEventIterator}, null to stop counting.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Makes the iterators created afterwards keep the events out of
+     * chronological order rather than drop them, for a
+     * {@link ReorderingIterator} to put them back in order.
+     */
+    public void setOutOfOrderDropped(boolean isOutOfOrderDropped)
+    {
+        this.isOutOfOrderDropped = isOutOfOrderDropped;
+    }
+
+    @Override
+    public Iterator<Event> iterator()
+    {
+        return new MappedEventIterator();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    /**
+     * Iterates over the events of the byte range [start, end) of the file. The
+     * range must start at the beginning of a line and is not checked for an
+     * event count line. The chronological order of the first event is checked
+     * against lastEvent, the event parsed from the line preceding the range.
+     */
+    Iterator<Event> iterator(long start, long end, Event lastEvent)
+    {
+        return new MappedEventIterator(new LineScanner(start, end), lastEvent);
+    }
+
+    /**
+     * Returns an iterator over all the events of the file that knows the
+     * offset of the line following the last event it read.
+     */
+    MappedEventIterator positionedIterator()
+    {
+        return new MappedEventIterator();
+    }
+
+    /**
+     * Returns an iterator that continues an earlier iteration of the file
+     * from the given offset, the start of a line, to the end of the file. The
+     * earlier iteration had numEventsLeft events of the count line left to
+     * read and lastEvent was the event parsed from the line before the offset.
+     */
+    MappedEventIterator positionedIterator(long start, long numEventsLeft, Event lastEvent)
+    {
+        return new MappedEventIterator(new LineScanner(start, -1), lastEvent, numEventsLeft);
+    }
+
+    LineScanner scanLines(long start, long end)
+    {
+        return new LineScanner(start, end);
+    }
+
+    long size() throws IOException
+    {
+        return channel.size();
+    }
+
+    class MappedEventIterator extends LineEventIterator
+    {
+        private final LineScanner scanner;
+
+        MappedEventIterator()
+        {
+            super(new EventLineParser());
+            scanner = new LineScanner(0, -1);
+            setMetrics(metrics);
+            setOutOfOrderDropped(isOutOfOrderDropped);
+        }
+
+        MappedEventIterator(LineScanner scanner, Event lastEvent)
+        {
+            super(new EventLineParser(), lastEvent);
+            this.scanner = scanner;
+            setMetrics(metrics);
+            setOutOfOrderDropped(isOutOfOrderDropped);
+        }
+
+        MappedEventIterator(LineScanner scanner, Event lastEvent, long numEventsLeft)
+        {
+            super(new EventLineParser(), lastEvent, numEventsLeft);
+            this.scanner = scanner;
+            setMetrics(metrics);
+            setOutOfOrderDropped(isOutOfOrderDropped);
+        }
+
+        /**
+         * Returns the offset in the file following the last line read. Once
+         * {@link #next()} returned an event, and until {@link #hasNext()} is
+         * called again, it is the offset following the line of that event.
+         */
+        long getPosition()
+        {
+            return scanner.getPosition();
+        }
+
+        @Override
+        protected CharSequence readLine()
+        {
+            return scanner.nextLine();
+        }
+    }
+
+    /**
+     * Reads the lines of a byte range of the file, mapping it one segment at a
+     * time.
+     */
+    class LineScanner
+    {
+        private final ByteSequence line = new ByteSequence();
+        private final long start;
+        private long end;
+        private ByteBuffer segment;
+        private long segmentStart;
+        private long lineStart;
+
+        /**
+         * Scans the lines in [start, end), an end of -1 scans to the end of
+         * the file.
+         */
+        LineScanner(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        private LineScanner(long start, long end, ByteBuffer segment, long segmentStart)
+        {
+            this(start, end);
+            this.segment = segment;
+            this.segmentStart = segmentStart;
+        }
+
+        /**
+         * Returns a scanner of the lines in [start, end), which shares the
+         * segment of this one if it holds the range rather than mapping it
+         * again.
+         */
+        LineScanner scanLines(long start, long end)
+        {
+            if (segment == null || start < segmentStart || end > segmentStart + segment.limit())
+                return new LineScanner(start, end);
+
+            ByteBuffer range = segment.duplicate();
+            range.limit((int) (end - segmentStart));
+            range.position((int) (start - segmentStart));
+            return new LineScanner(start, end, range, segmentStart);
+        }
+
+        /**
+         * Returns the next line without its line terminator or null at the end
+         * of the range. The returned sequence is only valid until the next
+         * call.
+         */
+        CharSequence nextLine()
+        {
+            try
+            {
+                if (segment == null)
+                {
+                    if (end < 0)
+                        end = channel.size();
+
+                    map(start, segmentSize);
+                }
+
+                int lineStart = segment.position();
+                int lineEnd = findLineEnd(lineStart);
+
+                if (lineEnd < 0)
+                {
+                    if (segmentStart + segment.limit() >= end)
+                    {
+                        if (lineStart == segment.limit())
+                            return null;
+
+                        lineEnd = segment.limit();
+                    }
+                    else
+                    {
+                        // The line crosses the end of the segment, map the next
+                        // segment from the start of the line. Grow the segment
+                        // if it cannot hold a single line.
+                        long size = lineStart == 0 ? segment.limit() * 2L : segmentSize;
+                        map(segmentStart + lineStart, size);
+                        return nextLine();
+                    }
+                }
+
+                this.lineStart = segmentStart + lineStart;
+                segment.position(Math.min(lineEnd + 1, segment.limit()));
+
+                int length = lineEnd - lineStart;
+                if (length > 0 && segment.get(lineEnd - 1) == '\r')
+                    length--;
+
+                line.set(segment, lineStart, length);
+                return line;
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+
+            return null;
+        }
+
+        /**
+         * Returns the offset in the file of the line last returned.
+         */
+        long getLineStart()
+        {
+            return lineStart;
+        }
+
+        /**
+         * Returns the offset in the file following the line last returned.
+         */
+        long getPosition()
+        {
+            return segment == null ? start : segmentStart + segment.position();
+        }
+
+        private int findLineEnd(int start)
+        {
+            int limit = segment.limit();
+
+            for (int i = start; i < limit; i++)
+            {
+                if (segment.get(i) == '\n')
+                    return i;
+            }
+
+            return -1;
+        }
+
+        private void map(long start, long size) throws IOException
+        {
+            segmentStart = start;
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(Math.min(size, Integer.MAX_VALUE), end - start));
+        }
+    }
+}
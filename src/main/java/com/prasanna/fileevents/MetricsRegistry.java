@@ -0,0 +1,159 @@
+package com.prasanna.fileevents;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Named {@link Counter}s, {@link Gauge}s and {@link Histogram}s of what the
+ * readers and interpreters do. A metric is created the first time its name is
+ * asked for and the same metric is returned afterwards, so components sharing
+ * a registry add up into the same metrics.
+ * </p>
+ *
+ * <p>
+ * Measuring is off unless a registry is set on a component, in which case it
+ * looks up its metrics once. Components without a registry only check that
+ * they have none, which keeps the cost of metrics when they are off to a
+ * null check per measurement.
+ * </p>
+ *
+ * <p>
+ * The metrics can be read as a line of text, dumped one per line, reported
+ * periodically with a {@link MetricsReporter} or registered as MBeans in the
+ * domain {@value #JMX_DOMAIN}. A registry is thread safe.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class MetricsRegistry
+{
+    public static final String JMX_DOMAIN = "com.prasanna.fileevents";
+
+    private final Map<String, Object> metrics = new TreeMap<String, Object>();
+    private MBeanServer mBeanServer;
+
+    public synchronized Counter counter(String name)
+    {
+        Object metric = metrics.get(name);
+
+        if (metric == null)
+        {
+            metric = new Counter();
+            add(name, metric);
+        }
+        else if (!(metric instanceof Counter))
+            throw new IllegalArgumentException("Metric " + name + " is not a counter");
+
+        return (Counter) metric;
+    }
+
+    public synchronized Gauge gauge(String name)
+    {
+        Object metric = metrics.get(name);
+
+        if (metric == null)
+        {
+            metric = new Gauge();
+            add(name, metric);
+        }
+        else if (!(metric instanceof Gauge))
+            throw new IllegalArgumentException("Metric " + name + " is not a gauge");
+
+        return (Gauge) metric;
+    }
+
+    public synchronized Histogram histogram(String name)
+    {
+        Object metric = metrics.get(name);
+
+        if (metric == null)
+        {
+            metric = new Histogram();
+            add(name, metric);
+        }
+        else if (!(metric instanceof Histogram))
+            throw new IllegalArgumentException("Metric " + name + " is not a histogram");
+
+        return (Histogram) metric;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, those created so
+     * far and those created later.
+     */
+    public synchronized void registerMBeans()
+    {
+        if (mBeanServer != null)
+            return;
+
+        mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        for (Map.Entry<String, Object> metric : metrics.entrySet())
+            register(metric.getKey(), metric.getValue());
+    }
+
+    /**
+     * Returns all the metrics on a single line, in the order of their names.
+     */
+    public synchronized String formatLine()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<String, Object> metric : metrics.entrySet())
+        {
+            if (builder.length() > 0)
+                builder.append(' ');
+
+            builder.append(metric.getKey()).append('=');
+
+            if (metric.getValue() instanceof Histogram)
+                builder.append('[').append(metric.getValue()).append(']');
+            else
+                builder.append(metric.getValue());
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the metrics one per line, in the order of their names.
+     */
+    public synchronized void writeTo(PrintStream output)
+    {
+        int width = 0;
+        for (String name : metrics.keySet())
+            width = Math.max(width, name.length());
+
+        for (Map.Entry<String, Object> metric : metrics.entrySet())
+            output.println(Logger.padRight(metric.getKey(), width + 2) + metric.getValue());
+    }
+
+    private void add(String name, Object metric)
+    {
+        metrics.put(name, metric);
+
+        if (mBeanServer != null)
+            register(name, metric);
+    }
+
+    private void register(String name, Object metric)
+    {
+        try
+        {
+            String type = metric.getClass().getSimpleName();
+            mBeanServer.registerMBean(metric, new ObjectName(JMX_DOMAIN + ":type=" + type + ",name="
+                            + ObjectName.quote(name)));
+        }
+        catch (JMException e)
+        {
+            System.err.println("Cannot register metric " + name + ": " + e.getMessage());
+        }
+    }
+}
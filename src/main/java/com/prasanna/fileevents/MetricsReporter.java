@@ -0,0 +1,144 @@
+package com.prasanna.fileevents;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * <p>
+ * Reports the metrics of a {@link MetricsRegistry} on a daemon thread every
+ * period and once more when closed. Reported to a stream, the metrics are
+ * printed as a single line prefixed with the time. Reported to a file, the
+ * file is replaced with the metrics one per line, so it always holds the last
+ * whole report.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class MetricsReporter implements Closeable
+{
+    private final MetricsRegistry registry;
+    private final PrintStream output;
+    private final File file;
+    private final long periodMillis;
+    private final Thread thread;
+
+    public MetricsReporter(MetricsRegistry registry, PrintStream output, long periodMillis)
+    {
+        this(registry, output, null, periodMillis);
+    }
+
+    public MetricsReporter(MetricsRegistry registry, File file, long periodMillis)
+    {
+        this(registry, null, file, periodMillis);
+    }
+
+    private MetricsReporter(MetricsRegistry registry, PrintStream output, File file, long periodMillis)
+    {
+        if (registry == null)
+            throw new IllegalArgumentException("Cannot initialize reporter without registry");
+
+        if (output == null && file == null)
+            throw new IllegalArgumentException("Cannot initialize reporter without output");
+
+        if (periodMillis <= 0)
+            throw new IllegalArgumentException("Period must be positive");
+
+        this.registry = registry;
+        this.output = output;
+        this.file = file;
+        this.periodMillis = periodMillis;
+
+        thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                reportPeriodically();
+            }
+        }, "metrics-reporter");
+        thread.setDaemon(true);
+    }
+
+    public void start()
+    {
+        thread.start();
+    }
+
+    public void report()
+    {
+        if (output != null)
+        {
+            output.println(new TimestampFormat().format(System.currentTimeMillis()) + " " + registry.formatLine());
+            output.flush();
+        }
+        else
+            writeFile();
+    }
+
+    /**
+     * Stops reporting and reports a last time.
+     */
+    @Override
+    public void close()
+    {
+        thread.interrupt();
+
+        try
+        {
+            thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        report();
+    }
+
+    private void reportPeriodically()
+    {
+        try
+        {
+            while (true)
+            {
+                Thread.sleep(periodMillis);
+                report();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Closed
+        }
+    }
+
+    private void writeFile()
+    {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+
+        try
+        {
+            PrintStream fileOutput = new PrintStream(new FileOutputStream(temporaryFile));
+
+            try
+            {
+                registry.writeTo(fileOutput);
+            }
+            finally
+            {
+                fileOutput.close();
+            }
+
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Cannot write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.prasanna.fileevents;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * The events of an {@link EventHistory} held outside the heap, so a history
+ * of many events neither churns the young generation nor gets promoted to the
+ * old one. Each event is a fixed width record in a direct buffer, holding its
+ * type, timestamp, content hash packed in a long and where its path is in an
+ * arena of characters, itself in direct buffers. An event is only created
+ * when it is read, the nodes of its path interned in a bounded
+ * {@link PathTrie} of the store, so reading the events of a directory shares
+ * the nodes of their parents.
+ * </p>
+ *
+ * <p>
+ * The content hashes added are kept in an open addressing table of packed
+ * hashes, also in a direct buffer. A content hash of more than 8 characters
+ * or that is not ASCII, which no reader creates, cannot be packed: it is
+ * kept in the arena after the path and in a set on the heap.
+ * </p>
+ *
+ * <p>
+ * Buffers are allocated in chunks as the store grows and kept when it is
+ * cleared, so a store reused for history after history allocates nothing
+ * once it has held the largest of them. Events can only be appended. A store
+ * is not thread safe.
+ * </p>
+ *
+ * @author prasanna
+ */
+class OffHeapEventStore extends AbstractList<Event>
+{
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int RECORD_SIZE = 32;
+    private static final int RECORDS_PER_CHUNK = CHUNK_SIZE / RECORD_SIZE;
+    private static final int CHUNK_CHARS = CHUNK_SIZE / 2;
+    private static final int MAX_TRIE_NODES = 1 << 16;
+    private static final int MIN_TABLE_SLOTS = 1 << 10;
+    private static final int SLOT_SIZE = 16;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Offsets of the fields of a record. The length of a content hash that
+     * cannot be packed is kept as a char, NO_CONTENT_HASH for a null one.
+     */
+    private static final int TIMESTAMP = 0;
+    private static final int CONTENT_HASH = 8;
+    private static final int PATH_CHUNK = 16;
+    private static final int PATH_OFFSET = 20;
+    private static final int PATH_LENGTH = 24;
+    private static final int CONTENT_HASH_LENGTH = 28;
+    private static final int EVENT_TYPE = 30;
+
+    private static final int NO_CONTENT_HASH = Character.MAX_VALUE;
+    private static final EventType[] EVENT_TYPES = EventType.values();
+
+    private final List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+    private final List<CharBuffer> paths = new ArrayList<CharBuffer>();
+    private int size;
+    private int pathChunk;
+    private int pathOffset;
+    private PathTrie pathTrie;
+
+    /**
+     * Slots of a packed content hash and the generation it was added in, a
+     * slot of an earlier generation is empty, so clearing the table is
+     * starting a new generation.
+     */
+    private ByteBuffer contentHashes = allocate(MIN_TABLE_SLOTS * SLOT_SIZE);
+    private int tableMask = MIN_TABLE_SLOTS - 1;
+    private int numContentHashes;
+    private long generation = 1;
+    private Set<String> unpackedContentHashes;
+
+    @Override
+    public boolean add(Event event)
+    {
+        String path = event.getPath();
+        String contentHash = event.getContentHash();
+        long packedHash = pack(contentHash);
+        int contentHashLength = contentHash == null ? NO_CONTENT_HASH : packedHash == 0 ? contentHash.length() : 0;
+
+        if (contentHashLength >= NO_CONTENT_HASH && contentHash != null)
+            throw new IllegalArgumentException("Content hash of " + path + " is too long to be held off heap");
+
+        int arenaLength = path.length() + (packedHash == 0 && contentHash != null ? contentHash.length() : 0);
+        CharBuffer arena = reserve(arenaLength);
+        int offset = pathOffset;
+
+        for (int i = 0; i < path.length(); i++)
+            arena.put(offset + i, path.charAt(i));
+
+        for (int i = path.length(); i < arenaLength; i++)
+            arena.put(offset + i, contentHash.charAt(i - path.length()));
+
+        pathOffset += arenaLength;
+
+        if (size / RECORDS_PER_CHUNK == records.size())
+            records.add(allocate(CHUNK_SIZE));
+
+        ByteBuffer chunk = records.get(size / RECORDS_PER_CHUNK);
+        int position = size % RECORDS_PER_CHUNK * RECORD_SIZE;
+
+        chunk.putLong(position + TIMESTAMP, event.getTimestamp());
+        chunk.putLong(position + CONTENT_HASH, packedHash);
+        chunk.putInt(position + PATH_CHUNK, pathChunk);
+        chunk.putInt(position + PATH_OFFSET, offset);
+        chunk.putInt(position + PATH_LENGTH, path.length());
+        chunk.putChar(position + CONTENT_HASH_LENGTH, (char) contentHashLength);
+        chunk.put(position + EVENT_TYPE, (byte) event.getEventType().ordinal());
+
+        size++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Returns the chunk of the arena the given number of characters are
+     * written to from the current offset, moving on to the next chunk if they
+     * do not fit, one larger than a chunk for longer paths.
+     */
+    private CharBuffer reserve(int length)
+    {
+        if (pathChunk < paths.size() && pathOffset + length <= paths.get(pathChunk).capacity())
+            return paths.get(pathChunk);
+
+        if (pathChunk < paths.size())
+        {
+            pathChunk++;
+            pathOffset = 0;
+        }
+
+        CharBuffer arena = pathChunk < paths.size() ? paths.get(pathChunk) : null;
+
+        if (arena == null || length > arena.capacity())
+        {
+            arena = allocate(2 * Math.max(CHUNK_CHARS, length)).asCharBuffer();
+
+            if (pathChunk < paths.size())
+                paths.set(pathChunk, arena);
+            else
+                paths.add(arena);
+        }
+
+        return arena;
+    }
+
+    /**
+     * Creates the event of the record at the index.
+     */
+    @Override
+    public Event get(int index)
+    {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+
+        ByteBuffer chunk = records.get(index / RECORDS_PER_CHUNK);
+        int position = index % RECORDS_PER_CHUNK * RECORD_SIZE;
+        CharBuffer arena = paths.get(chunk.getInt(position + PATH_CHUNK));
+        int start = chunk.getInt(position + PATH_OFFSET);
+        int end = start + chunk.getInt(position + PATH_LENGTH);
+
+        if (pathTrie == null)
+            pathTrie = new PathTrie(MAX_TRIE_NODES);
+
+        // A path with empty names keeps its original form
+        PathNode pathNode = pathTrie.intern(arena, start, end);
+        String path = pathNode.getPath();
+        if (path.length() != end - start)
+            path = arena.subSequence(start, end).toString();
+
+        Event event = new Event();
+        event.setEventType(EVENT_TYPES[chunk.get(position + EVENT_TYPE)]);
+        event.setTimestamp(chunk.getLong(position + TIMESTAMP));
+        event.setPath(path, pathNode);
+
+        long packedHash = chunk.getLong(position + CONTENT_HASH);
+        int contentHashLength = chunk.getChar(position + CONTENT_HASH_LENGTH);
+
+        if (packedHash != 0)
+            event.setContentHash(unpack(packedHash));
+        else if (contentHashLength != NO_CONTENT_HASH)
+            event.setContentHash(arena.subSequence(end, end + contentHashLength).toString());
+
+        return event;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    void addContentHash(String contentHash)
+    {
+        long packedHash = pack(contentHash);
+
+        if (packedHash == 0)
+        {
+            if (unpackedContentHashes == null)
+                unpackedContentHashes = new HashSet<String>();
+
+            unpackedContentHashes.add(contentHash);
+            return;
+        }
+
+        int slot = findSlot(packedHash);
+        if (isCurrent(slot))
+            return;
+
+        contentHashes.putLong(slot * SLOT_SIZE, packedHash);
+        contentHashes.putLong(slot * SLOT_SIZE + 8, generation);
+
+        // Kept at most half full
+        if (++numContentHashes > tableMask / 2)
+            growTable();
+    }
+
+    boolean containsContentHash(String contentHash)
+    {
+        long packedHash = pack(contentHash);
+
+        if (packedHash == 0)
+            return unpackedContentHashes != null && unpackedContentHashes.contains(contentHash);
+
+        return isCurrent(findSlot(packedHash));
+    }
+
+    /**
+     * Returns the slot holding the packed hash, or the empty slot it would be
+     * added to.
+     */
+    private int findSlot(long packedHash)
+    {
+        int slot = (int) ((packedHash * GOLDEN_GAMMA) >>> 32) & tableMask;
+
+        while (isCurrent(slot) && contentHashes.getLong(slot * SLOT_SIZE) != packedHash)
+            slot = (slot + 1) & tableMask;
+
+        return slot;
+    }
+
+    private boolean isCurrent(int slot)
+    {
+        return contentHashes.getLong(slot * SLOT_SIZE + 8) == generation;
+    }
+
+    private void growTable()
+    {
+        ByteBuffer oldContentHashes = contentHashes;
+        int oldNumSlots = tableMask + 1;
+
+        contentHashes = allocate(2 * oldNumSlots * SLOT_SIZE);
+        tableMask = 2 * oldNumSlots - 1;
+
+        for (int i = 0; i < oldNumSlots; i++)
+        {
+            if (oldContentHashes.getLong(i * SLOT_SIZE + 8) == generation)
+            {
+                long packedHash = oldContentHashes.getLong(i * SLOT_SIZE);
+                int slot = findSlot(packedHash);
+
+                contentHashes.putLong(slot * SLOT_SIZE, packedHash);
+                contentHashes.putLong(slot * SLOT_SIZE + 8, generation);
+            }
+        }
+    }
+
+    /**
+     * Removes the events and content hashes, keeping the buffers they took.
+     */
+    @Override
+    public void clear()
+    {
+        size = 0;
+        pathChunk = 0;
+        pathOffset = 0;
+        pathTrie = null;
+        numContentHashes = 0;
+        generation++;
+        unpackedContentHashes = null;
+        modCount++;
+    }
+
+    /**
+     * Packs a content hash of up to 8 ASCII characters in a long, one byte per
+     * character, or returns 0 if it cannot be packed. No character is 0, so
+     * no packed hash is and hashes of different lengths differ.
+     */
+    static long pack(String contentHash)
+    {
+        if (contentHash == null || contentHash.isEmpty() || contentHash.length() > 8)
+            return 0;
+
+        long packedHash = 0;
+
+        for (int i = 0; i < contentHash.length(); i++)
+        {
+            char c = contentHash.charAt(i);
+            if (c == 0 || c > 127)
+                return 0;
+
+            packedHash = packedHash << 8 | c;
+        }
+
+        return packedHash;
+    }
+
+    static String unpack(long packedHash)
+    {
+        if (packedHash == '-')
+            return Event.DIRECTORY_CONTENT_HASH;
+
+        char[] chars = new char[8];
+        int start = chars.length;
+
+        for (long hash = packedHash; hash != 0; hash >>>= 8)
+            chars[--start] = (char) (hash & 0xff);
+
+        return new String(chars, start, chars.length - start);
+    }
+
+    private static ByteBuffer allocate(int capacity)
+    {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
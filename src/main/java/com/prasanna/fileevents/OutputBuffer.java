@@ -0,0 +1,149 @@
+package com.prasanna.fileevents;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Buffers the bytes written by an {@link OutputFormat} and writes them to the
+ * output stream when the buffer fills up or when it is flushed. Text that is
+ * all ASCII is copied into the buffer as it is, anything else is encoded with
+ * the given charset. A buffer is not thread safe.
+ *
+ * @author prasanna
+ */
+public class OutputBuffer
+{
+    public static final int DEFAULT_SIZE = 64 * 1024;
+
+    private final OutputStream outputStream;
+    private final byte[] buffer;
+    private int count;
+    private long numBytesWritten;
+
+    public OutputBuffer(OutputStream outputStream)
+    {
+        this(outputStream, DEFAULT_SIZE);
+    }
+
+    public OutputBuffer(OutputStream outputStream, int size)
+    {
+        if (outputStream == null)
+            throw new IllegalArgumentException("Cannot initialize buffer with null output stream.");
+
+        if (size <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive");
+
+        this.outputStream = outputStream;
+        this.buffer = new byte[size];
+    }
+
+    public void write(int b) throws IOException
+    {
+        if (count == buffer.length)
+            flushBuffer();
+
+        buffer[count++] = (byte) b;
+    }
+
+    public void write(byte[] bytes) throws IOException
+    {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        if (length > buffer.length - count)
+            flushBuffer();
+
+        if (length > buffer.length)
+        {
+            outputStream.write(bytes, offset, length);
+            numBytesWritten += length;
+        }
+        else
+        {
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+    }
+
+    /**
+     * Writes the int in big endian order.
+     */
+    public void writeInt(int value) throws IOException
+    {
+        if (buffer.length - count < 4)
+            flushBuffer();
+
+        buffer[count++] = (byte) (value >>> 24);
+        buffer[count++] = (byte) (value >>> 16);
+        buffer[count++] = (byte) (value >>> 8);
+        buffer[count++] = (byte) value;
+    }
+
+    /**
+     * Writes the long in big endian order.
+     */
+    public void writeLong(long value) throws IOException
+    {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    public void write(CharSequence text, Charset charset) throws IOException
+    {
+        int length = text.length();
+
+        if (length > buffer.length - count)
+            flushBuffer();
+
+        if (length <= buffer.length)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                char c = text.charAt(i);
+                if (c >= 0x80)
+                {
+                    write(text.toString().getBytes(charset));
+                    return;
+                }
+
+                buffer[count + i] = (byte) c;
+            }
+
+            count += length;
+        }
+        else
+            write(text.toString().getBytes(charset));
+    }
+
+    /**
+     * Returns the number of bytes written to the buffer so far, whether they
+     * were written to the output stream yet or not.
+     */
+    public long size()
+    {
+        return numBytesWritten + count;
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream and flushes it.
+     */
+    public void flush() throws IOException
+    {
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (count > 0)
+        {
+            int length = count;
+            count = 0;
+            outputStream.write(buffer, 0, length);
+            numBytesWritten += length;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.prasanna.fileevents;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * Encodes the actions logged by the {@link Logger}. Each action is a record of
+ * the timestamp of the event, the {@link Action}, the file type and the source
+ * path, along with the destination path for moves and renames.
+ * </p>
+ *
+ * <p>
+ * Records are encoded independently of each other, so the output of several
+ * loggers using the same format can be concatenated after a single header.
+ * </p>
+ *
+ * @author prasanna
+ */
+public abstract class OutputFormat
+{
+    public static final String TABLE = "table";
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+    public static final String BINARY = "binary";
+
+    /**
+     * Returns a new instance of the format with the given name or null if
+     * there is no such format.
+     */
+    public static OutputFormat forName(String name)
+    {
+        if (TABLE.equals(name))
+            return new TableFormat();
+        else if (NDJSON.equals(name))
+            return new JsonLinesFormat();
+        else if (CSV.equals(name))
+            return new CsvFormat();
+        else if (BINARY.equals(name))
+            return new BinaryFormat();
+
+        return null;
+    }
+
+    public abstract void writeHeader(OutputBuffer output) throws IOException;
+
+    /**
+     * Writes the record of an action. The destination path is null unless the
+     * action is a move or rename.
+     */
+    public abstract void writeAction(OutputBuffer output, long timestamp, Action action, String fileType,
+                    String sourcePath, String destinationPath) throws IOException;
+
+    /**
+     * Writes a line of free text, if the format has room for it.
+     */
+    public abstract void writeLine(OutputBuffer output, String text) throws IOException;
+}
@@ -0,0 +1,346 @@
+package com.prasanna.fileevents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Interprets an event log file in parallel. The file is split into chunks
+ * that are interpreted independently on a {@link ForkJoinPool} and their
+ * output is written in order, which is the same as the output of a single
+ * {@link EventInterpreter}.
+ * </p>
+ *
+ * <p>
+ * Chunks start at a directory delete, which always logs the events pending in
+ * the interpreter and starts a new history, so a chunk can be interpreted
+ * without knowing the events before it. The only exception is a directory
+ * delete under a directory whose delete was just logged, which is ignored.
+ * This is checked as the chunks are merged and such a chunk is interpreted
+ * again following the chunk before it.
+ * </p>
+ *
+ * <p>
+ * A directory delete may also be a nested delete of the directory deleted in
+ * the history before it, which it then continues. A chunk only starts at a
+ * directory delete whose line before it is an event the interpreter takes,
+ * an add or a delete outside of the top directory of the one starting the
+ * chunk, after which it cannot be.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class ParallelEventInterpreter
+{
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final MappedEventReader reader;
+    private final OutputStream outputStream;
+    private final String format;
+    private final int parallelism;
+    private final long minChunkSize;
+
+    public ParallelEventInterpreter(MappedEventReader reader, OutputStream outputStream, int parallelism)
+    {
+        this(reader, outputStream, OutputFormat.TABLE, parallelism);
+    }
+
+    public ParallelEventInterpreter(MappedEventReader reader, OutputStream outputStream, int parallelism,
+                    long minChunkSize)
+    {
+        this(reader, outputStream, OutputFormat.TABLE, parallelism, minChunkSize);
+    }
+
+    /**
+     * Creates an interpreter logging in the output format with the given name,
+     * see {@link OutputFormat#forName(String)}.
+     */
+    public ParallelEventInterpreter(MappedEventReader reader, OutputStream outputStream, String format,
+                    int parallelism)
+    {
+        this(reader, outputStream, format, parallelism, MIN_CHUNK_SIZE);
+    }
+
+    public ParallelEventInterpreter(MappedEventReader reader, OutputStream outputStream, String format,
+                    int parallelism, long minChunkSize)
+    {
+        if (reader == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without reader");
+
+        if (outputStream == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without output stream");
+
+        if (OutputFormat.forName(format) == null)
+            throw new IllegalArgumentException("Unknown output format " + format);
+
+        if (parallelism <= 0 || minChunkSize <= 0)
+            throw new IllegalArgumentException("Parallelism and chunk size must be positive");
+
+        this.reader = reader;
+        this.outputStream = outputStream;
+        this.format = format;
+        this.parallelism = parallelism;
+        this.minChunkSize = minChunkSize;
+    }
+
+    public void interpret() throws IOException
+    {
+        Logger logger = new Logger(outputStream, OutputFormat.forName(format));
+        logger.printHeader();
+        logger.flush();
+
+        long size = reader.size();
+        long start = 0;
+        long end = size;
+
+        MappedEventReader.LineScanner scanner = reader.scanLines(0, size);
+        CharSequence firstLine = scanner.nextLine();
+        if (firstLine == null)
+            return;
+
+        long numEvents = LineEventIterator.parseNumEvents(firstLine);
+        if (numEvents >= 0)
+        {
+            start = scanner.getPosition();
+            while (numEvents > 0 && scanner.nextLine() != null)
+                numEvents--;
+
+            end = scanner.getPosition();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try
+        {
+            List<Boundary> boundaries = findBoundaries(pool, start, end);
+            interpretChunks(pool, boundaries, end);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        outputStream.flush();
+    }
+
+    private List<Boundary> findBoundaries(ForkJoinPool pool, long start, long end) throws IOException
+    {
+        long numChunks = Math.max(1, Math.min((end - start) / minChunkSize, parallelism * CHUNKS_PER_THREAD));
+        long chunkSize = (end - start) / numChunks;
+
+        List<Future<Boundary>> futures = new ArrayList<Future<Boundary>>();
+        for (long i = 1; i < numChunks; i++)
+        {
+            long from = start + i * chunkSize;
+            long to = i == numChunks - 1 ? end : from + chunkSize;
+            futures.add(pool.submit(new BoundarySearch(from, to, end)));
+        }
+
+        List<Boundary> boundaries = new ArrayList<Boundary>();
+        boundaries.add(new Boundary(start, null, null));
+
+        for (Future<Boundary> future : futures)
+        {
+            Boundary boundary = get(future);
+            if (boundary != null)
+                boundaries.add(boundary);
+        }
+
+        return boundaries;
+    }
+
+    private void interpretChunks(ForkJoinPool pool, List<Boundary> boundaries, long end) throws IOException
+    {
+        LinkedList<Future<ChunkResult>> pending = new LinkedList<Future<ChunkResult>>();
+        int nextChunk = 0;
+        Event lastLoggedEvent = null;
+
+        for (int i = 0; i < boundaries.size(); i++)
+        {
+            while (nextChunk < boundaries.size() && pending.size() < parallelism * 2)
+            {
+                pending.add(pool.submit(new ChunkInterpretation(boundaries, nextChunk, end, null)));
+                nextChunk++;
+            }
+
+            ChunkResult result = get(pending.removeFirst());
+            Boundary boundary = boundaries.get(i);
+
+            if (i > 0 && isIgnoredDirectoryDelete(boundary.event, lastLoggedEvent))
+                result = new ChunkInterpretation(boundaries, i, end, lastLoggedEvent).call();
+
+            result.output.writeTo(outputStream);
+            lastLoggedEvent = result.lastLoggedEvent;
+        }
+    }
+
+    /**
+     * Returns true if the interpreter ignores the delete of the directory that
+     * starts a chunk because the delete of its parent was logged last.
+     */
+    private boolean isIgnoredDirectoryDelete(Event event, Event lastLoggedEvent)
+    {
+        return lastLoggedEvent != null && lastLoggedEvent.isDirectoryEvent()
+                        && lastLoggedEvent.getEventType().equals(EventType.DEL)
+                        && event.isUnderParent(lastLoggedEvent);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while interpreting events", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Failed to interpret events", e.getCause());
+        }
+    }
+
+    /**
+     * Start of a chunk, a directory delete and the event parsed from the line
+     * before it.
+     */
+    private static class Boundary
+    {
+        private final long offset;
+        private final Event previousEvent;
+        private final Event event;
+
+        Boundary(long offset, Event previousEvent, Event event)
+        {
+            this.offset = offset;
+            this.previousEvent = previousEvent;
+            this.event = event;
+        }
+    }
+
+    private static class ChunkResult
+    {
+        private final ByteArrayOutputStream output;
+        private final Event lastLoggedEvent;
+
+        ChunkResult(ByteArrayOutputStream output, Event lastLoggedEvent)
+        {
+            this.output = output;
+            this.lastLoggedEvent = lastLoggedEvent;
+        }
+    }
+
+    /**
+     * Finds the first directory delete starting in [from, to) which is in
+     * chronological order with the line before it, itself taken by the
+     * interpreter, and cannot be a nested delete.
+     */
+    private class BoundarySearch implements Callable<Boundary>
+    {
+        private final long from;
+        private final long to;
+        private final long end;
+
+        BoundarySearch(long from, long to, long end)
+        {
+            this.from = from;
+            this.to = to;
+            this.end = end;
+        }
+
+        @Override
+        public Boundary call()
+        {
+            EventLineParser parser = new EventLineParser();
+            MappedEventReader.LineScanner scanner = reader.scanLines(from, end);
+
+            // The first line may start before from, it is only used once the
+            // next line is known to start at the beginning of a line.
+            if (scanner.nextLine() == null)
+                return null;
+
+            CharSequence line = scanner.nextLine();
+            if (line == null)
+                return null;
+
+            Event previousEvent = parser.parse(line);
+            boolean isPreviousTaken = false;
+
+            while ((line = scanner.nextLine()) != null && scanner.getLineStart() < to)
+            {
+                Event event = parser.parse(line);
+                boolean isTaken = event != null
+                                && (previousEvent == null || event.getTimestamp() >= previousEvent.getTimestamp());
+
+                if (isTaken && isPreviousTaken && event.isDirectoryEvent()
+                                && event.getEventType().equals(EventType.DEL) && !isNestedDelete(previousEvent, event))
+                    return new Boundary(scanner.getLineStart(), previousEvent, event);
+
+                previousEvent = event;
+                isPreviousTaken = isTaken;
+            }
+
+            return null;
+        }
+
+        /**
+         * Returns true if the event may be below a directory deleted with the
+         * events before it up to the previous one, which must be a delete
+         * below the same top directory.
+         */
+        private boolean isNestedDelete(Event previousEvent, Event event)
+        {
+            if (!previousEvent.getEventType().equals(EventType.DEL))
+                return false;
+
+            PathNode topDirectory = previousEvent.getPathNode();
+            while (topDirectory.getDepth() > 1)
+                topDirectory = topDirectory.getParent();
+
+            return event.getPathNode().isUnder(topDirectory);
+        }
+    }
+
+    private class ChunkInterpretation implements Callable<ChunkResult>
+    {
+        private final List<Boundary> boundaries;
+        private final int index;
+        private final long end;
+        private final Event lastLoggedEvent;
+
+        ChunkInterpretation(List<Boundary> boundaries, int index, long end, Event lastLoggedEvent)
+        {
+            this.boundaries = boundaries;
+            this.index = index;
+            this.end = end;
+            this.lastLoggedEvent = lastLoggedEvent;
+        }
+
+        @Override
+        public ChunkResult call()
+        {
+            Boundary boundary = boundaries.get(index);
+            long chunkEnd = index + 1 < boundaries.size() ? boundaries.get(index + 1).offset : end;
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            EventInterpreter interpreter = new EventInterpreter(new Logger(output, OutputFormat.forName(format)),
+                            lastLoggedEvent);
+            Iterator<Event> events = reader.iterator(boundary.offset, chunkEnd, boundary.previousEvent);
+
+            interpreter.interpret(events);
+            return new ChunkResult(output, interpreter.getLastLoggedEvent());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.prasanna.fileevents;
+
+/**
+ * Reason an input line was rejected by the {@link EventLineParser}.
+ * 
+ * @author prasanna
+ */
+public enum ParseError
+{
+    EMPTY_LINE("Empty line"),
+    INVALID_EVENT_TYPE("Event is neither add nor del"),
+    INVALID_TIMESTAMP("Timestamp is not a number"),
+    INVALID_PATH("Path is not absolute or has invalid characters"),
+    INVALID_CONTENT_HASH("Content hash is neither 8 characters nor -");
+
+    private final String description;
+
+    ParseError(String description)
+    {
+        this.description = description;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+}
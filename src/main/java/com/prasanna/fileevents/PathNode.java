@@ -0,0 +1,174 @@
+package com.prasanna.fileevents;
+
+/**
+ * <p>
+ * A path interned in a {@link PathTrie}. Each node knows its parent, its name
+ * and its depth, the root / being at depth 0, so ancestor checks walk up the
+ * parents without creating any objects.
+ * </p>
+ *
+ * <p>
+ * Nodes of the same trie are the same object for the same path. Nodes of
+ * different tries, or created outside of a trie, are compared by their path.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class PathNode
+{
+    private final Object owner;
+    private final int id;
+    private final PathNode parent;
+    private final int nameStart;
+    private final int nameHash;
+    private final int depth;
+    private final String path;
+
+    /**
+     * Creates a node whose name is the end of its path starting at nameStart.
+     */
+    PathNode(Object owner, int id, PathNode parent, String path, int nameStart, int nameHash)
+    {
+        this.owner = owner;
+        this.id = id;
+        this.parent = parent;
+        this.path = path;
+        this.nameStart = nameStart;
+        this.nameHash = nameHash;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+
+    /**
+     * Creates the nodes for a path that is not interned in any trie.
+     */
+    public static PathNode of(String path)
+    {
+        return new PathTrie(Integer.MAX_VALUE).intern(path);
+    }
+
+    /**
+     * Returns the id of the node in its trie.
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the parent node or null for the root.
+     */
+    public PathNode getParent()
+    {
+        return parent;
+    }
+
+    public String getName()
+    {
+        return path.substring(nameStart);
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    int getNameHash()
+    {
+        return nameHash;
+    }
+
+    int getNameLength()
+    {
+        return path.length() - nameStart;
+    }
+
+    /**
+     * Returns true if the name of this node is the sequence between start and
+     * end.
+     */
+    boolean isName(CharSequence sequence, int start, int end)
+    {
+        if (getNameLength() != end - start)
+            return false;
+
+        for (int i = start, j = nameStart; i < end; i++, j++)
+        {
+            if (sequence.charAt(i) != path.charAt(j))
+                return false;
+        }
+
+        return true;
+    }
+
+    private boolean hasSameName(PathNode other)
+    {
+        return nameHash == other.nameHash && getNameLength() == other.getNameLength()
+                        && path.regionMatches(nameStart, other.path, other.nameStart, getNameLength());
+    }
+
+    public boolean isSame(PathNode other)
+    {
+        if (this == other)
+            return true;
+
+        return other != null && owner != other.owner && depth == other.depth && path.equals(other.path);
+    }
+
+    /**
+     * Returns true if this path is below the given directory, at any depth.
+     * Nothing is below the root, as every path is.
+     */
+    public boolean isUnder(PathNode directory)
+    {
+        if (directory == null || directory.depth == 0 || directory.depth >= depth)
+            return false;
+
+        return getAncestor(depth - directory.depth).isSame(directory);
+    }
+
+    /**
+     * Returns true if this path, below root, has the same path relative to
+     * root as other has relative to otherRoot.
+     */
+    public boolean isRelocationOf(PathNode root, PathNode other, PathNode otherRoot)
+    {
+        int relativeDepth = depth - root.depth;
+        if (relativeDepth < 0 || relativeDepth != other.depth - otherRoot.depth)
+            return false;
+
+        PathNode node = this;
+        PathNode otherNode = other;
+
+        for (int i = 0; i < relativeDepth; i++)
+        {
+            if (!node.hasSameName(otherNode))
+                return false;
+
+            node = node.parent;
+            otherNode = otherNode.parent;
+        }
+
+        return node.isSame(root) && otherNode.isSame(otherRoot);
+    }
+
+    private PathNode getAncestor(int levels)
+    {
+        PathNode node = this;
+
+        for (int i = 0; i < levels; i++)
+            node = node.parent;
+
+        return node;
+    }
+
+    @Override
+    public String toString()
+    {
+        return path;
+    }
+}
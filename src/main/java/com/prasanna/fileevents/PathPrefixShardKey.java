@@ -0,0 +1,37 @@
+package com.prasanna.fileevents;
+
+/**
+ * Keys events by the first levels of their path, by default the top level
+ * directory, e.g. /user1 for /user1/docs/a.txt. Paths with fewer levels are
+ * their own key.
+ *
+ * @author prasanna
+ */
+public class PathPrefixShardKey implements ShardKey
+{
+    private final int depth;
+
+    public PathPrefixShardKey()
+    {
+        this(1);
+    }
+
+    public PathPrefixShardKey(int depth)
+    {
+        if (depth <= 0)
+            throw new IllegalArgumentException("Prefix depth must be positive");
+
+        this.depth = depth;
+    }
+
+    @Override
+    public String getKey(Event event)
+    {
+        PathNode node = event.getPathNode();
+
+        while (node.getDepth() > depth)
+            node = node.getParent();
+
+        return node.getPath();
+    }
+}
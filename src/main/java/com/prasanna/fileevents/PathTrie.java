@@ -0,0 +1,207 @@
+package com.prasanna.fileevents;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Interns paths as a trie of {@link PathNode}s sharing their common prefixes.
+ * Each node gets an id, its index in the trie. Looking up a path that is
+ * already interned does not create any objects, the names of the path are
+ * matched in place against a hash table keyed by parent node and name.
+ * </p>
+ *
+ * <p>
+ * The number of nodes is bounded so that an endless stream of distinct paths
+ * does not grow the trie forever. When the bound is reached the trie starts
+ * over empty, nodes interned before are still valid but are compared to new
+ * nodes by their path. A trie is not thread safe.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class PathTrie
+{
+    public static final int DEFAULT_MAX_NODES = 1 << 20;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxNodes;
+    private Object generation;
+    private List<PathNode> nodes;
+    private PathNode[] table;
+    private PathNode root;
+
+    public PathTrie()
+    {
+        this(DEFAULT_MAX_NODES);
+    }
+
+    public PathTrie(int maxNodes)
+    {
+        if (maxNodes <= 0)
+            throw new IllegalArgumentException("Maximum number of nodes must be positive");
+
+        this.maxNodes = maxNodes;
+        clear();
+    }
+
+    public PathNode getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Returns the node with the given id.
+     */
+    public PathNode getNode(int id)
+    {
+        return nodes.get(id);
+    }
+
+    public int size()
+    {
+        return nodes.size();
+    }
+
+    public PathNode intern(String path)
+    {
+        return intern(path, 0, path.length(), path);
+    }
+
+    /**
+     * Interns the path between start and end of the sequence. Names are
+     * matched character by character so the sequence must hold the decoded
+     * path.
+     */
+    public PathNode intern(CharSequence sequence, int start, int end)
+    {
+        return intern(sequence, start, end, null);
+    }
+
+    private PathNode intern(CharSequence sequence, int start, int end, String path)
+    {
+        if (nodes.size() >= maxNodes)
+            clear();
+
+        PathNode node = root;
+        boolean isCanonical = true;
+        int offset = start;
+
+        while (offset < end)
+        {
+            int separatorStart = offset;
+            while (offset < end && sequence.charAt(offset) == '/')
+                offset++;
+
+            // Paths of new nodes are taken from the sequence as long as it has
+            // no empty names
+            if (offset - separatorStart != 1)
+                isCanonical = false;
+
+            if (offset == end)
+                break;
+
+            int nameStart = offset;
+            int nameHash = 0;
+
+            while (offset < end && sequence.charAt(offset) != '/')
+            {
+                nameHash = 31 * nameHash + sequence.charAt(offset);
+                offset++;
+            }
+
+            PathNode child = find(node, sequence, nameStart, offset, nameHash);
+            if (child == null)
+            {
+                String childPath;
+                int childNameStart;
+
+                if (isCanonical)
+                {
+                    childPath = path != null && offset == end ? path : sequence.subSequence(start, offset)
+                                    .toString();
+                    childNameStart = nameStart - start;
+                }
+                else
+                {
+                    String parentPath = node.getDepth() == 0 ? "" : node.getPath();
+                    childPath = parentPath + "/" + sequence.subSequence(nameStart, offset);
+                    childNameStart = parentPath.length() + 1;
+                }
+
+                child = add(node, childPath, childNameStart, nameHash);
+            }
+
+            node = child;
+        }
+
+        return node;
+    }
+
+    private PathNode find(PathNode parent, CharSequence sequence, int start, int end, int nameHash)
+    {
+        int mask = table.length - 1;
+        int index = hash(parent.getId(), nameHash) & mask;
+
+        for (PathNode node = table[index]; node != null; node = table[index])
+        {
+            if (node.getParent() == parent && node.getNameHash() == nameHash && node.isName(sequence, start, end))
+                return node;
+
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    private PathNode add(PathNode parent, String path, int nameStart, int nameHash)
+    {
+        PathNode node = new PathNode(generation, nodes.size(), parent, path, nameStart, nameHash);
+        nodes.add(node);
+        insert(node);
+
+        if (nodes.size() * 2 > table.length)
+            resize();
+
+        return node;
+    }
+
+    private void insert(PathNode node)
+    {
+        int mask = table.length - 1;
+        int index = hash(node.getParent().getId(), node.getNameHash()) & mask;
+
+        while (table[index] != null)
+            index = (index + 1) & mask;
+
+        table[index] = node;
+    }
+
+    private void resize()
+    {
+        PathNode[] oldTable = table;
+        table = new PathNode[oldTable.length * 2];
+
+        for (PathNode node : oldTable)
+        {
+            if (node != null)
+                insert(node);
+        }
+    }
+
+    private void clear()
+    {
+        generation = new Object();
+        nodes = new ArrayList<PathNode>();
+        table = new PathNode[INITIAL_CAPACITY];
+        root = new PathNode(generation, 0, null, "/", 1, 0);
+        nodes.add(root);
+    }
+
+    private static int hash(int parentId, int nameHash)
+    {
+        int hash = parentId * 0x9E3779B9 + nameHash;
+        return hash ^ (hash >>> 16);
+    }
+}
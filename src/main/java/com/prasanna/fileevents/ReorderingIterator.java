@@ -0,0 +1,184 @@
+package com.prasanna.fileevents;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Puts the events of an input that are a little out of chronological order,
+ * such as a feed merged from several collectors, back in order. Events are
+ * held in a min-heap on their timestamp, events of the same timestamp in the
+ * order they arrived, and are passed on once they are at or before the
+ * watermark, the highest timestamp seen so far less the lateness. Events are
+ * passed on as the input is read, only the events within the lateness of the
+ * latest one are held.
+ * </p>
+ *
+ * <p>
+ * An event that arrives with a timestamp before the last event passed on is
+ * too late to be put in order and is dropped and counted. The heap holds at
+ * most a capacity of events, once full its earliest event is passed on ahead
+ * of the watermark. At the end of the input all the held events are passed
+ * on.
+ * </p>
+ *
+ * <p>
+ * The input must not drop events out of order itself, see
+ * {@link EventReader#setOutOfOrderDropped(boolean)}. With a
+ * {@link MetricsRegistry} set, the events put back in order, the late events
+ * and the events held are measured.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class ReorderingIterator implements Iterator<Event>
+{
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final Comparator<HeldEvent> CHRONOLOGICAL_ORDER = new Comparator<HeldEvent>()
+    {
+        @Override
+        public int compare(HeldEvent a, HeldEvent b)
+        {
+            long aTimestamp = a.event.getTimestamp();
+            long bTimestamp = b.event.getTimestamp();
+
+            if (aTimestamp != bTimestamp)
+                return aTimestamp < bTimestamp ? -1 : 1;
+
+            return a.arrival < b.arrival ? -1 : a.arrival == b.arrival ? 0 : 1;
+        }
+    };
+
+    private final Iterator<Event> events;
+    private final long lateness;
+    private final int capacity;
+    private final PriorityQueue<HeldEvent> heldEvents;
+    private long numArrived;
+    private long maxTimestamp;
+    private long lastTimestamp;
+    private boolean hasPassedOn;
+    private Counter eventsReordered;
+    private Counter eventsLate;
+    private Gauge eventsHeld;
+
+    public ReorderingIterator(Iterator<Event> events, long lateness)
+    {
+        this(events, lateness, DEFAULT_CAPACITY);
+    }
+
+    public ReorderingIterator(Iterator<Event> events, long lateness, int capacity)
+    {
+        if (events == null)
+            throw new IllegalArgumentException("Cannot initialize iterator without events");
+
+        if (lateness < 0 || capacity <= 0)
+            throw new IllegalArgumentException("Lateness cannot be negative and capacity must be positive");
+
+        this.events = events;
+        this.lateness = lateness;
+        this.capacity = capacity;
+        this.heldEvents = new PriorityQueue<HeldEvent>(Math.min(capacity, 1024), CHRONOLOGICAL_ORDER);
+    }
+
+    /**
+     * Measures the iterator in the registry, or stops measuring if it is
+     * null.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        if (metrics == null)
+        {
+            eventsReordered = null;
+            return;
+        }
+
+        eventsLate = metrics.counter("reorder.events.late");
+        eventsHeld = metrics.gauge("reorder.events.held");
+        eventsReordered = metrics.counter("reorder.events.reordered");
+    }
+
+    /**
+     * Returns the number of events held waiting for the watermark.
+     */
+    public int getNumHeldEvents()
+    {
+        return heldEvents.size();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while (!isEarliestReady() && events.hasNext())
+            hold(events.next());
+
+        return !heldEvents.isEmpty();
+    }
+
+    @Override
+    public Event next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        Event event = heldEvents.poll().event;
+        lastTimestamp = event.getTimestamp();
+        hasPassedOn = true;
+
+        if (eventsReordered != null)
+            eventsHeld.set(heldEvents.size());
+
+        return event;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Events cannot be removed from the input");
+    }
+
+    private boolean isEarliestReady()
+    {
+        if (heldEvents.isEmpty())
+            return false;
+
+        return heldEvents.size() >= capacity || maxTimestamp - heldEvents.peek().event.getTimestamp() >= lateness;
+    }
+
+    private void hold(Event event)
+    {
+        long timestamp = event.getTimestamp();
+
+        if (hasPassedOn && timestamp < lastTimestamp)
+        {
+            if (eventsReordered != null)
+                eventsLate.increment();
+
+            return;
+        }
+
+        if (numArrived == 0 || timestamp > maxTimestamp)
+            maxTimestamp = timestamp;
+        else if (timestamp < maxTimestamp && eventsReordered != null)
+            eventsReordered.increment();
+
+        heldEvents.add(new HeldEvent(event, numArrived++));
+
+        if (eventsReordered != null)
+            eventsHeld.set(heldEvents.size());
+    }
+
+    private static class HeldEvent
+    {
+        private final Event event;
+        private final long arrival;
+
+        HeldEvent(Event event, long arrival)
+        {
+            this.event = event;
+            this.arrival = arrival;
+        }
+    }
+}
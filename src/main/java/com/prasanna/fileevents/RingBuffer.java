@@ -0,0 +1,281 @@
+package com.prasanna.fileevents;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Bounded queue handing items from one thread to another, backed by an array
+ * used as a ring. An item added while the buffer is full either waits for room
+ * or is dropped, depending on the {@link Backpressure}. Items are taken in
+ * batches so the consumer does not contend for the lock on every item.
+ * </p>
+ *
+ * <p>
+ * Once closed, no more items are added and the consumer takes the items left
+ * before it is told the buffer is empty. The depth of the buffer is tracked as
+ * items are added, along with the number of items dropped and the number of
+ * times the producer had to wait.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class RingBuffer<T>
+{
+    private final Object[] items;
+    private final Backpressure backpressure;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int head;
+    private int count;
+    private boolean isClosed;
+
+    private long numAdded;
+    private long numDropped;
+    private long numBlocked;
+    private long totalSize;
+    private int maxSize;
+
+    public RingBuffer(int capacity, Backpressure backpressure)
+    {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+
+        if (backpressure == null)
+            throw new IllegalArgumentException("Cannot initialize buffer without backpressure");
+
+        this.items = new Object[capacity];
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * Adds the item, waiting for room or dropping it when the buffer is full.
+     * Returns false if the item was dropped or the buffer is closed.
+     */
+    public boolean put(T item) throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            if (count == items.length && !isClosed)
+            {
+                if (backpressure == Backpressure.DROP)
+                {
+                    numDropped++;
+                    return false;
+                }
+
+                numBlocked++;
+                while (count == items.length && !isClosed)
+                    notFull.await();
+            }
+
+            if (isClosed)
+                return false;
+
+            items[(head + count) % items.length] = item;
+            count++;
+
+            numAdded++;
+            totalSize += count;
+            if (count > maxSize)
+                maxSize = count;
+
+            if (count == 1)
+                notEmpty.signal();
+
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to max items to the batch, waiting until there is at least
+     * one. Returns the number of items moved, 0 once the buffer is closed and
+     * empty.
+     */
+    public int drainTo(List<? super T> batch, int max) throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            while (count == 0 && !isClosed)
+                notEmpty.await();
+
+            return drain(batch, max);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to max items to the batch, waiting at most the given time for
+     * there to be one. Returns the number of items moved, 0 if the time ran
+     * out or the buffer is closed and empty.
+     */
+    public int drainTo(List<? super T> batch, int max, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+
+        lock.lock();
+        try
+        {
+            while (count == 0 && !isClosed && nanos > 0)
+                nanos = notEmpty.awaitNanos(nanos);
+
+            return drain(batch, max);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int drain(List<? super T> batch, int max)
+    {
+        int n = Math.min(count, max);
+
+        for (int i = 0; i < n; i++)
+        {
+            batch.add((T) items[head]);
+            items[head] = null;
+            head = (head + 1) % items.length;
+        }
+
+        count -= n;
+        if (n > 0)
+            notFull.signal();
+
+        return n;
+    }
+
+    /**
+     * Stops adding items. Items already in the buffer can still be taken.
+     */
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            isClosed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed()
+    {
+        lock.lock();
+        try
+        {
+            return isClosed;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity()
+    {
+        return items.length;
+    }
+
+    public int size()
+    {
+        lock.lock();
+        try
+        {
+            return count;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxSize()
+    {
+        lock.lock();
+        try
+        {
+            return maxSize;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the average depth of the buffer right after adding an item.
+     */
+    public double getAverageSize()
+    {
+        lock.lock();
+        try
+        {
+            return numAdded == 0 ? 0 : (double) totalSize / numAdded;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long getNumAdded()
+    {
+        lock.lock();
+        try
+        {
+            return numAdded;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long getNumDropped()
+    {
+        lock.lock();
+        try
+        {
+            return numDropped;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times an item had to wait for room.
+     */
+    public long getNumBlocked()
+    {
+        lock.lock();
+        try
+        {
+            return numBlocked;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
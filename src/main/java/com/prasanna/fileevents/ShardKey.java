@@ -0,0 +1,12 @@
+package com.prasanna.fileevents;
+
+/**
+ * Tells which shard of a {@link ShardedEventInterpreter} an event belongs to.
+ * Events with equal keys are interpreted in order by the same shard.
+ *
+ * @author prasanna
+ */
+public interface ShardKey
+{
+    String getKey(Event event);
+}
@@ -0,0 +1,271 @@
+package com.prasanna.fileevents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Interprets a stream merged from independent roots, such as the directories
+ * of many users, with an {@link EventInterpreter} per shard. Events are routed
+ * to their shard by a {@link ShardKey}, by default the top level directory of
+ * their path, so the pending move of one root is not interpreted early because
+ * of an event of another root.
+ * </p>
+ *
+ * <p>
+ * Shards are interpreted on a pool of worker threads. A shard is run by one
+ * worker at a time, which interprets the events that arrived for it in order
+ * and writes the actions logged for them to the output as one block, so the
+ * output of a shard is in order while the output of different shards is
+ * interleaved. An operation spanning two shards, such as a move from one root
+ * to another, is interpreted as a delete and an add.
+ * </p>
+ *
+ * <p>
+ * Events are routed from a single thread. The number of events routed but not
+ * yet interpreted is bounded, routing waits once the bound is reached.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class ShardedEventInterpreter
+{
+    public static final int DEFAULT_MAX_PENDING_EVENTS = 64 * 1024;
+
+    private static final int BATCH_SIZE = 256;
+
+    private final OutputStream outputStream;
+    private final String format;
+    private final ShardKey shardKey;
+    private final ExecutorService workers;
+    private final int maxPendingEvents;
+    private final Semaphore pendingEvents;
+    private final Map<String, Shard> shards = new HashMap<String, Shard>();
+    private final Object outputLock = new Object();
+    private volatile Throwable failure;
+    private MetricsRegistry metrics;
+    private Gauge numShards;
+
+    public ShardedEventInterpreter(OutputStream outputStream, String format, int numThreads)
+    {
+        this(outputStream, format, new PathPrefixShardKey(), numThreads, DEFAULT_MAX_PENDING_EVENTS);
+    }
+
+    public ShardedEventInterpreter(OutputStream outputStream, String format, ShardKey shardKey, int numThreads,
+                    int maxPendingEvents)
+    {
+        if (outputStream == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without output stream");
+
+        if (OutputFormat.forName(format) == null)
+            throw new IllegalArgumentException("Unknown output format " + format);
+
+        if (shardKey == null)
+            throw new IllegalArgumentException("Cannot initialize interpreter without shard key");
+
+        if (numThreads <= 0 || maxPendingEvents <= 0)
+            throw new IllegalArgumentException("Number of threads and pending events must be positive");
+
+        this.outputStream = outputStream;
+        this.format = format;
+        this.shardKey = shardKey;
+        this.workers = Executors.newFixedThreadPool(numThreads);
+        this.maxPendingEvents = maxPendingEvents;
+        this.pendingEvents = new Semaphore(maxPendingEvents);
+
+        Logger logger = new Logger(outputStream, OutputFormat.forName(format));
+        logger.printHeader();
+        logger.flush();
+    }
+
+    /**
+     * Interprets all the events, then the events still pending in every shard,
+     * and stops the workers.
+     */
+    public void interpret(Iterator<Event> events) throws InterruptedException
+    {
+        try
+        {
+            while (events.hasNext())
+                interpretEvent(events.next());
+
+            flush();
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    /**
+     * Routes the event to its shard. The action for the event may only be
+     * logged once later events of the shard are known, call {@link #flush()}
+     * once the input ends.
+     */
+    public void interpretEvent(Event event) throws InterruptedException
+    {
+        checkFailure();
+
+        String key = shardKey.getKey(event);
+        Shard shard = shards.get(key);
+
+        if (shard == null)
+        {
+            shard = new Shard();
+            shards.put(key, shard);
+
+            if (numShards != null)
+                numShards.set(shards.size());
+        }
+
+        pendingEvents.acquire();
+        shard.events.add(event);
+        shard.schedule();
+    }
+
+    /**
+     * Waits for the events routed so far to be interpreted, then logs the
+     * actions for the events still pending in every shard.
+     */
+    public void flush() throws InterruptedException
+    {
+        // Once all the permits are back, no worker is running a shard
+        pendingEvents.acquire(maxPendingEvents);
+
+        try
+        {
+            checkFailure();
+
+            for (Shard shard : shards.values())
+            {
+                shard.interpreter.flush();
+                shard.writeOutput();
+            }
+
+            outputStream.flush();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cannot log to output stream: " + e.getMessage());
+        }
+        finally
+        {
+            pendingEvents.release(maxPendingEvents);
+        }
+    }
+
+    /**
+     * Stops the workers, events routed after this are not interpreted.
+     */
+    public void shutdown() throws InterruptedException
+    {
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Measures the interpreters of the shards created afterwards in the
+     * registry, along with the number of shards, null to stop measuring.
+     */
+    public void setMetrics(MetricsRegistry metrics)
+    {
+        this.metrics = metrics;
+        numShards = metrics == null ? null : metrics.gauge("sharded.shards");
+    }
+
+    public int getNumShards()
+    {
+        return shards.size();
+    }
+
+    private void checkFailure()
+    {
+        if (failure != null)
+            throw new IllegalStateException("Interpreting a shard failed", failure);
+    }
+
+    /**
+     * The interpreter of a shard along with the events routed to it. The shard
+     * is scheduled on a worker when events arrive while it is not running.
+     */
+    private class Shard implements Runnable
+    {
+        private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<Event>();
+        private final AtomicBoolean isScheduled = new AtomicBoolean();
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final Logger logger = new Logger(output, OutputFormat.forName(format));
+        private final EventInterpreter interpreter = new EventInterpreter(logger, null);
+
+        Shard()
+        {
+            interpreter.setMetrics(metrics);
+        }
+
+        void schedule()
+        {
+            if (isScheduled.compareAndSet(false, true))
+                workers.execute(this);
+        }
+
+        @Override
+        public void run()
+        {
+            List<Event> batch = new ArrayList<Event>(BATCH_SIZE);
+
+            try
+            {
+                Event event;
+                while (batch.size() < BATCH_SIZE && (event = events.poll()) != null)
+                    batch.add(event);
+
+                for (Event batchEvent : batch)
+                    interpreter.interpretEvent(batchEvent);
+
+                writeOutput();
+            }
+            catch (Throwable e)
+            {
+                failure = e;
+            }
+            finally
+            {
+                isScheduled.set(false);
+                pendingEvents.release(batch.size());
+
+                // Events may have arrived after the last poll
+                if (!events.isEmpty())
+                    schedule();
+            }
+        }
+
+        /**
+         * Writes the actions logged so far as one block.
+         */
+        void writeOutput() throws IOException
+        {
+            logger.flush();
+
+            if (output.size() > 0)
+            {
+                synchronized (outputLock)
+                {
+                    output.writeTo(outputStream);
+                }
+
+                output.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package com.prasanna.fileevents;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.prasanna.fileevents.ExternalSorter.SortedRecords;
+
+/**
+ * <p>
+ * Logs the actions that turn one snapshot of a tree into another, from the
+ * manifests of the two snapshots rather than from events. A manifest lists a
+ * path and its content hash per line, - for a directory, like the last two
+ * fields of an event line. Directories that are not listed are implied by the
+ * paths below them, lines that are not a valid path and content hash are
+ * skipped. Gzip compressed manifests are read as they are.
+ * </p>
+ *
+ * <p>
+ * A directory moved or renamed with everything below it is logged as one
+ * action. Every directory is fingerprinted by the names and contents of its
+ * tree, see {@link Fingerprint}, and the directories of the old snapshot that
+ * are gone are joined on their fingerprint with the directories of the new
+ * one that are new, those with the same name first. The files that are gone
+ * and new outside of these directories are then joined on their content hash
+ * the same way. A pair is renamed if it has the same parent, moved otherwise.
+ * A file of the same path with another content is deleted and added.
+ * Everything else below a directory that is gone or new is part of the
+ * deletion or addition of the directory and not logged on its own.
+ * </p>
+ *
+ * <p>
+ * Moves and renames are logged first, then deletions and additions, each in
+ * the order of their path, all with the timestamp of the new snapshot. The
+ * manifests and every join are sorted with an {@link ExternalSorter}, so a
+ * bounded number of records is in memory whatever the size of the manifests,
+ * a run of each of at most eight sorts at a time.
+ * </p>
+ *
+ * @author prasanna
+ */
+public class SnapshotDiff
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String DIRECTORY = Event.DIRECTORY_CONTENT_HASH;
+
+    // Ranks of the actions, in the order they are logged
+    private static final String MOVED_OR_RENAMED = "0";
+    private static final String DELETED = "1";
+    private static final String ADDED = "2";
+
+    private final Logger logger;
+    private final int runSize;
+    private final File tempDirectory;
+    private final List<ExternalSorter> sorters = new ArrayList<ExternalSorter>();
+    private long numInvalidLines;
+
+    public SnapshotDiff(Logger logger)
+    {
+        this(logger, ExternalSorter.DEFAULT_RUN_SIZE, null);
+    }
+
+    /**
+     * Creates a diff sorting runs of at most the given number of records in
+     * memory, spilled to the temporary directory, the default one if null.
+     */
+    public SnapshotDiff(Logger logger, int runSize, File tempDirectory)
+    {
+        if (logger == null)
+            throw new IllegalArgumentException("Cannot initialize diff without logger");
+
+        if (runSize <= 0)
+            throw new IllegalArgumentException("Run size must be positive");
+
+        this.logger = logger;
+        this.runSize = runSize;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Returns the number of manifest lines skipped for not being a valid path
+     * and content hash.
+     */
+    public long getNumInvalidLines()
+    {
+        return numInvalidLines;
+    }
+
+    /**
+     * Logs the actions from the old manifest to the new one, with the time
+     * the new one was last modified. Returns the number of actions logged.
+     */
+    public long diff(File oldManifest, File newManifest) throws IOException
+    {
+        InputStream oldInput = new DecompressingInputStream(new FileInputStream(oldManifest));
+
+        try
+        {
+            InputStream newInput = new DecompressingInputStream(new FileInputStream(newManifest));
+
+            try
+            {
+                return diff(oldInput, newInput, newManifest.lastModified());
+            }
+            finally
+            {
+                newInput.close();
+            }
+        }
+        finally
+        {
+            oldInput.close();
+        }
+    }
+
+    /**
+     * Logs the actions from the old manifest to the new one with the
+     * timestamp. Returns the number of actions logged.
+     */
+    public long diff(InputStream oldManifest, InputStream newManifest, long timestamp) throws IOException
+    {
+        try
+        {
+            ExternalSorter oldEntries = sortManifest(oldManifest);
+            ExternalSorter newEntries = sortManifest(newManifest);
+
+            TreeWalk walk = new TreeWalk();
+            walk.run(new ManifestEntries(oldEntries.sort()), new ManifestEntries(newEntries.sort()));
+            oldEntries.close();
+            newEntries.close();
+
+            ExternalSorter actions = newSorter();
+            ExternalSorter[] movedDirectories = joinDirectories(walk, actions);
+            ExternalSorter deletedFiles = newSorter();
+            ExternalSorter addedFiles = newSorter();
+
+            collect(walk.deletedPaths.sort(), new MovedDirectories(movedDirectories[0].sort()), Action.DELETED,
+                            deletedFiles, actions);
+            collect(walk.addedPaths.sort(), new MovedDirectories(movedDirectories[1].sort()), Action.ADDED,
+                            addedFiles, actions);
+            join(deletedFiles.sort(), addedFiles.sort(), false, actions);
+
+            return log(actions.sort(), timestamp);
+        }
+        finally
+        {
+            for (ExternalSorter sorter : sorters)
+                sorter.close();
+
+            sorters.clear();
+        }
+    }
+
+    private ExternalSorter newSorter()
+    {
+        ExternalSorter sorter = new ExternalSorter(runSize, tempDirectory);
+        sorters.add(sorter);
+        return sorter;
+    }
+
+    /**
+     * Sorts the valid lines of the manifest as records of the path and
+     * content hash.
+     */
+    private ExternalSorter sortManifest(InputStream manifest) throws IOException
+    {
+        ExternalSorter entries = newSorter();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(manifest, UTF_8), 64 * 1024);
+        String line;
+
+        while ((line = reader.readLine()) != null)
+        {
+            int pathStart = skipWhitespace(line, 0);
+            if (pathStart == line.length())
+                continue;
+
+            int pathEnd = skipNonWhitespace(line, pathStart);
+            int hashStart = skipWhitespace(line, pathEnd);
+            int hashEnd = skipNonWhitespace(line, hashStart);
+
+            if (skipWhitespace(line, hashEnd) < line.length() || !isValidPath(line, pathStart, pathEnd)
+                            || !EventLineParser.isValidContentHash(line, hashStart, hashEnd))
+            {
+                numInvalidLines++;
+                continue;
+            }
+
+            entries.add(line.substring(pathStart, pathEnd) + '\t' + line.substring(hashStart, hashEnd));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Joins the directories that are gone with the new ones on their
+     * fingerprints, keeping the outermost of nested pairs, and adds the pairs
+     * to the actions. Returns the sources of the pairs and their destinations.
+     */
+    private ExternalSorter[] joinDirectories(TreeWalk walk, ExternalSorter actions) throws IOException
+    {
+        ExternalSorter pairs = newSorter();
+        join(walk.deletedDirectories.sort(), walk.addedDirectories.sort(), true, pairs);
+
+        // Pairs are ordered by source, so a pair below another is right after it
+        SortedRecords pairsBySource = pairs.sort();
+        ExternalSorter pairsByDestination = newSorter();
+        String lastSource = null;
+        String pair;
+
+        while ((pair = pairsBySource.next()) != null)
+        {
+            String[] fields = pair.split("\t");
+
+            if (lastSource == null || !isUnder(fields[1], lastSource))
+            {
+                lastSource = fields[1];
+                pairsByDestination.add(fields[4] + '\t' + fields[1] + '\t' + fields[2]);
+            }
+        }
+
+        ExternalSorter sources = newSorter();
+        ExternalSorter destinations = newSorter();
+        SortedRecords pairsInOrder = pairsByDestination.sort();
+        String lastDestination = null;
+
+        while ((pair = pairsInOrder.next()) != null)
+        {
+            String[] fields = pair.split("\t");
+
+            if (lastDestination == null || !isUnder(fields[0], lastDestination))
+            {
+                lastDestination = fields[0];
+                sources.add(fields[1]);
+                destinations.add(fields[0]);
+                actions.add(action(Action.valueOf(fields[2]), fields[1], DIRECTORY, fields[0]));
+            }
+        }
+
+        return new ExternalSorter[] { sources, destinations };
+    }
+
+    /**
+     * Goes through the paths of the walk that are gone or new, leaving out
+     * those of moved directories. Files are added as records keyed on their
+     * content hash and name, the outermost directories as actions.
+     */
+    private static void collect(SortedRecords paths, MovedDirectories movedDirectories, Action action,
+                    ExternalSorter files, ExternalSorter actions) throws IOException
+    {
+        String record;
+
+        while ((record = paths.next()) != null)
+        {
+            String[] fields = record.split("\t");
+
+            if (movedDirectories.contains(fields[0]))
+                continue;
+
+            if (DIRECTORY.equals(fields[1]))
+                actions.add(action(action, fields[0], DIRECTORY, null));
+            else
+                files.add(fields[1] + '\t' + getName(fields[0]) + '\t' + fields[0] + '\t' + fields[2]);
+        }
+    }
+
+    /**
+     * Pairs the records of the same key and name, in order, then those of
+     * the same key left. Records are the key, name, path and whether the path
+     * is below a directory that is gone or new. Pairs are added as actions,
+     * as are the files left that are not below a directory that is gone or
+     * new.
+     */
+    private void join(SortedRecords deleted, SortedRecords added, boolean areDirectories, ExternalSorter actions)
+                    throws IOException
+    {
+        ExternalSorter deletedLeft = newSorter();
+        ExternalSorter addedLeft = newSorter();
+
+        join(deleted, added, 2, areDirectories, actions, deletedLeft, addedLeft);
+        join(deletedLeft.sort(), addedLeft.sort(), 1, areDirectories, actions, null, null);
+    }
+
+    private void join(SortedRecords deleted, SortedRecords added, int numKeyFields, boolean areDirectories,
+                    ExternalSorter actions, ExternalSorter deletedLeft, ExternalSorter addedLeft) throws IOException
+    {
+        String deletedRecord = deleted.next();
+        String addedRecord = added.next();
+
+        while (deletedRecord != null || addedRecord != null)
+        {
+            int comparison = deletedRecord == null ? 1 : addedRecord == null ? -1 : ExternalSorter.RECORD_ORDER
+                            .compare(getKey(deletedRecord, numKeyFields), getKey(addedRecord, numKeyFields));
+
+            if (comparison == 0)
+            {
+                String[] from = deletedRecord.split("\t");
+                String[] to = addedRecord.split("\t");
+                Action action = getParentPath(from[2]).equals(getParentPath(to[2])) ? Action.RENAMED : Action.MOVED;
+
+                actions.add(action(action, from[2], areDirectories ? DIRECTORY : from[0], to[2]));
+                deletedRecord = deleted.next();
+                addedRecord = added.next();
+            }
+            else if (comparison < 0)
+            {
+                leave(deletedRecord, Action.DELETED, areDirectories, deletedLeft, actions);
+                deletedRecord = deleted.next();
+            }
+            else
+            {
+                leave(addedRecord, Action.ADDED, areDirectories, addedLeft, actions);
+                addedRecord = added.next();
+            }
+        }
+    }
+
+    /**
+     * Keeps a record left unpaired for the next join, or once there is none
+     * adds it as an action if it is a file that is not below a directory
+     * that is gone or new.
+     */
+    private static void leave(String record, Action action, boolean isDirectory, ExternalSorter left,
+                    ExternalSorter actions) throws IOException
+    {
+        if (left != null)
+            left.add(record);
+        else if (!isDirectory && record.endsWith("\t0"))
+        {
+            String[] fields = record.split("\t");
+            actions.add(action(action, fields[2], fields[0], null));
+        }
+    }
+
+    private long log(SortedRecords actions, long timestamp) throws IOException
+    {
+        logger.printHeader();
+        long numActions = 0;
+        String record;
+
+        while ((record = actions.next()) != null)
+        {
+            String[] fields = record.split("\t");
+            Action action = Action.valueOf(fields[2]);
+
+            Event event = new Event();
+            event.setEventType(action == Action.ADDED ? EventType.ADD : EventType.DEL);
+            event.setTimestamp(timestamp);
+            event.setPath(fields[1]);
+            event.setContentHash(fields[3]);
+
+            logger.log(event, action, fields.length > 4 ? fields[4] : null);
+            numActions++;
+        }
+
+        logger.flush();
+        return numActions;
+    }
+
+    /**
+     * Returns the record of an action, ranked in the order actions are
+     * logged.
+     */
+    private static String action(Action action, String path, String contentHash, String destination)
+    {
+        String rank = action == Action.DELETED ? DELETED : action == Action.ADDED ? ADDED : MOVED_OR_RENAMED;
+        String record = rank + '\t' + path + '\t' + action.name() + '\t' + contentHash;
+        return destination == null ? record : record + '\t' + destination;
+    }
+
+    private static String getKey(String record, int numKeyFields)
+    {
+        int end = -1;
+
+        for (int i = 0; i < numKeyFields; i++)
+            end = record.indexOf('\t', end + 1);
+
+        return record.substring(0, end);
+    }
+
+    private static String getName(String path)
+    {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String getParentPath(String path)
+    {
+        return path.substring(0, path.lastIndexOf('/'));
+    }
+
+    /**
+     * Returns true if the path is below the directory, the root being the
+     * empty path.
+     */
+    private static boolean isUnder(String path, String directory)
+    {
+        return path.length() > directory.length() && path.startsWith(directory)
+                        && path.charAt(directory.length()) == '/';
+    }
+
+    /**
+     * Only the paths an event line accepts, without empty names or control
+     * characters.
+     */
+    private static boolean isValidPath(String line, int start, int end)
+    {
+        if (!EventLineParser.isValidPath(line, start, end) || line.charAt(end - 1) == '/')
+            return false;
+
+        for (int i = start + 1; i < end; i++)
+        {
+            if (line.charAt(i) < ' ' || (line.charAt(i) == '/' && line.charAt(i - 1) == '/'))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static int skipWhitespace(String line, int offset)
+    {
+        while (offset < line.length() && Character.isWhitespace(line.charAt(offset)))
+            offset++;
+
+        return offset;
+    }
+
+    private static int skipNonWhitespace(String line, int offset)
+    {
+        while (offset < line.length() && !Character.isWhitespace(line.charAt(offset)))
+            offset++;
+
+        return offset;
+    }
+
+    /**
+     * The entries of a sorted manifest, with a directory entry for every
+     * directory that is only implied by the paths below it, right before
+     * them. Repeated paths and paths below a file are skipped.
+     */
+    private static class ManifestEntries
+    {
+        private final SortedRecords records;
+        private final ArrayDeque<String> directories = new ArrayDeque<String>();
+        private final ArrayDeque<String[]> pending = new ArrayDeque<String[]>();
+        private String lastPath;
+        private String lastFile;
+        private String path;
+        private String contentHash;
+
+        ManifestEntries(SortedRecords records) throws IOException
+        {
+            this.records = records;
+            advance();
+        }
+
+        boolean hasEntry()
+        {
+            return path != null;
+        }
+
+        void advance() throws IOException
+        {
+            String record;
+
+            while (pending.isEmpty() && (record = records.next()) != null)
+            {
+                int tab = record.indexOf('\t');
+                String recordPath = record.substring(0, tab);
+
+                if (recordPath.equals(lastPath) || (lastFile != null && isUnder(recordPath, lastFile)))
+                    continue;
+
+                while (!directories.isEmpty() && !isUnder(recordPath, directories.peek()))
+                    directories.pop();
+
+                int start = directories.isEmpty() ? 0 : directories.peek().length();
+                int slash;
+
+                while ((slash = recordPath.indexOf('/', start + 1)) > 0)
+                {
+                    String directory = recordPath.substring(0, slash);
+                    pending.add(new String[] { directory, DIRECTORY });
+                    directories.push(directory);
+                    start = slash;
+                }
+
+                String recordHash = record.substring(tab + 1);
+                pending.add(new String[] { recordPath, recordHash });
+
+                if (DIRECTORY.equals(recordHash))
+                {
+                    directories.push(recordPath);
+                    lastFile = null;
+                }
+                else
+                    lastFile = recordPath;
+
+                lastPath = recordPath;
+            }
+
+            String[] entry = pending.poll();
+            path = entry == null ? null : entry[0];
+            contentHash = entry == null ? null : entry[1];
+        }
+    }
+
+    /**
+     * A directory on the walk of both trees, with the fingerprints of its
+     * tree in each snapshot it is a directory in.
+     */
+    private static class Frame
+    {
+        private final String path;
+        private final boolean isOld;
+        private final boolean isNew;
+        private long oldFingerprint = Fingerprint.EMPTY_DIRECTORY;
+        private long newFingerprint = Fingerprint.EMPTY_DIRECTORY;
+
+        Frame(String path, boolean isOld, boolean isNew)
+        {
+            this.path = path;
+            this.isOld = isOld;
+            this.isNew = isNew;
+        }
+    }
+
+    /**
+     * Walks the entries of both manifests in order of their paths, sorting
+     * the files and the outermost directories that are gone or new by path,
+     * and the directories that are gone or new by their fingerprint and name.
+     */
+    private class TreeWalk
+    {
+        private final ExternalSorter deletedPaths = newSorter();
+        private final ExternalSorter addedPaths = newSorter();
+        private final ExternalSorter deletedDirectories = newSorter();
+        private final ExternalSorter addedDirectories = newSorter();
+        private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+
+        void run(ManifestEntries oldEntries, ManifestEntries newEntries) throws IOException
+        {
+            frames.push(new Frame("", true, true));
+
+            while (oldEntries.hasEntry() || newEntries.hasEntry())
+            {
+                int comparison = !oldEntries.hasEntry() ? 1 : !newEntries.hasEntry() ? -1
+                                : ExternalSorter.RECORD_ORDER.compare(oldEntries.path, newEntries.path);
+
+                visit(comparison <= 0 ? oldEntries.path : newEntries.path, comparison <= 0 ? oldEntries.contentHash
+                                : null, comparison >= 0 ? newEntries.contentHash : null);
+
+                if (comparison <= 0)
+                    oldEntries.advance();
+
+                if (comparison >= 0)
+                    newEntries.advance();
+            }
+
+            while (frames.size() > 1)
+                finish(frames.pop());
+        }
+
+        private void visit(String path, String oldHash, String newHash) throws IOException
+        {
+            while (!isUnder(path, frames.peek().path))
+                finish(frames.pop());
+
+            Frame parent = frames.peek();
+            String name = getName(path);
+            boolean isSame = oldHash != null && oldHash.equals(newHash);
+
+            if (oldHash != null && !DIRECTORY.equals(oldHash))
+            {
+                parent.oldFingerprint += Fingerprint.ofChild(name, Fingerprint.ofFile(oldHash));
+
+                if (!isSame)
+                    deletedPaths.add(path + '\t' + oldHash + '\t' + (parent.isNew ? '0' : '1'));
+            }
+
+            if (newHash != null && !DIRECTORY.equals(newHash))
+            {
+                parent.newFingerprint += Fingerprint.ofChild(name, Fingerprint.ofFile(newHash));
+
+                if (!isSame)
+                    addedPaths.add(path + '\t' + newHash + '\t' + (parent.isOld ? '0' : '1'));
+            }
+
+            if (DIRECTORY.equals(oldHash) || DIRECTORY.equals(newHash))
+                frames.push(new Frame(path, DIRECTORY.equals(oldHash), DIRECTORY.equals(newHash)));
+        }
+
+        private void finish(Frame frame) throws IOException
+        {
+            Frame parent = frames.peek();
+            String name = getName(frame.path);
+
+            if (frame.isOld)
+                parent.oldFingerprint += Fingerprint.ofChild(name, frame.oldFingerprint);
+
+            if (frame.isNew)
+                parent.newFingerprint += Fingerprint.ofChild(name, frame.newFingerprint);
+
+            // Empty directories are all alike, pairing them would be a guess
+            if (frame.isOld && !frame.isNew)
+            {
+                if (frame.oldFingerprint != Fingerprint.EMPTY_DIRECTORY)
+                    deletedDirectories.add(Fingerprint.toHex(frame.oldFingerprint) + '\t' + name + '\t' + frame.path
+                                    + '\t' + (parent.isNew ? '0' : '1'));
+
+                if (parent.isNew)
+                    deletedPaths.add(frame.path + '\t' + DIRECTORY + "\t0");
+            }
+
+            if (frame.isNew && !frame.isOld)
+            {
+                if (frame.newFingerprint != Fingerprint.EMPTY_DIRECTORY)
+                    addedDirectories.add(Fingerprint.toHex(frame.newFingerprint) + '\t' + name + '\t' + frame.path
+                                    + '\t' + (parent.isOld ? '0' : '1'));
+
+                if (parent.isOld)
+                    addedPaths.add(frame.path + '\t' + DIRECTORY + "\t0");
+            }
+        }
+    }
+
+    /**
+     * Tells whether paths asked in order are moved directories or below one,
+     * from the moved directories in order.
+     */
+    private static class MovedDirectories
+    {
+        private final SortedRecords directories;
+        private String directory;
+
+        MovedDirectories(SortedRecords directories) throws IOException
+        {
+            this.directories = directories;
+            this.directory = directories.next();
+        }
+
+        boolean contains(String path) throws IOException
+        {
+            while (directory != null && ExternalSorter.RECORD_ORDER.compare(directory, path) < 0
+                            && !isUnder(path, directory))
+                directory = directories.next();
+
+            return directory != null && (directory.equals(path) || isUnder(path, directory));
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package com.prasanna.fileevents;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <p>
+ * The steps of the {@link EventInterpreter} that pair up the events of a
+ * history in a map, done for a history spilled to disk on records sorted by
+ * an {@link ExternalSorter}, so they take the same bounded memory however many
+ * events the history holds. Each logs what its counterpart in the interpreter
+ * logs and returns the same.
+ * </p>
+ *
+ * <p>
+ * The interpreter puts and removes events in the map as it reads them in
+ * order. Here every event is a record starting with its key in the map and
+ * its index in the history, so the sorted records of a key follow each other
+ * in the order the events arrived. Which event the map held for the key at
+ * any time is known from them, and what was left in the map when the
+ * interpreter stopped reading is written to another sorter in the order the
+ * keys were put in the map, which is the order the interpreter logs them in.
+ * </p>
+ *
+ * <p>
+ * Paths are escaped in records, so they hold no tabs or line breaks.
+ * </p>
+ *
+ * @author prasanna
+ */
+class SpilledHistoryOperations
+{
+    private static final long NONE = Long.MAX_VALUE;
+    private static final String ZEROS = "0000000000000000000";
+
+    private final File tempDirectory;
+    private final int runSize;
+
+    SpilledHistoryOperations(File tempDirectory, int runSize)
+    {
+        this.tempDirectory = tempDirectory;
+        this.runSize = runSize;
+    }
+
+    /**
+     * Returns the index of the first file add that is not the first event and
+     * whose content hash no event before it has, so it could only have been
+     * taken as part of the history on a wrong answer of the Bloom filter, or
+     * -1 if there is none.
+     */
+    int findUnseenContentHash(EventHistory eventHistory) throws IOException
+    {
+        ExternalSorter events = new ExternalSorter(runSize, tempDirectory);
+
+        try
+        {
+            long index = 0;
+
+            for (Event event : eventHistory)
+            {
+                if (!event.isDirectoryEvent())
+                    events.add(event.getContentHash() + '\t' + toIndex(index) + '\t' + event.getEventType());
+
+                index++;
+            }
+
+            ExternalSorter.SortedRecords records = events.sort();
+            long firstUnseen = NONE;
+            String contentHash = null;
+
+            try
+            {
+                String record;
+                while ((record = records.next()) != null)
+                {
+                    String[] fields = record.split("\t");
+
+                    if (fields[0].equals(contentHash))
+                        continue;
+
+                    contentHash = fields[0];
+                    long recordIndex = Long.parseLong(fields[1]);
+
+                    if (recordIndex > 0 && fields[2].equals(EventType.ADD.name()))
+                        firstUnseen = Math.min(firstUnseen, recordIndex);
+                }
+            }
+            finally
+            {
+                records.close();
+            }
+
+            return firstUnseen == NONE ? -1 : (int) firstUnseen;
+        }
+        finally
+        {
+            events.close();
+        }
+    }
+
+    /**
+     * Does what {@link EventInterpreter} does to find whether a history is a
+     * directory operation, in a map of the deletes keyed by content hash.
+     * Directories all have the same content hash, so their key is kept in
+     * memory, and the first failure is known once all the keys are read.
+     */
+    boolean isADirOperation(EventHistory eventHistory, Logger logger) throws IOException
+    {
+        ExternalSorter events = new ExternalSorter(runSize, tempDirectory);
+        ExternalSorter entries = new ExternalSorter(runSize, tempDirectory);
+
+        try
+        {
+            Event oldDirEvent = null;
+            Event newDirEvent = null;
+            MapEntry dirEntry = new MapEntry();
+            long newDirIndex = NONE;
+            long failureIndex = NONE;
+            long index = 0;
+
+            for (Event event : eventHistory)
+            {
+                boolean isDelete = event.getEventType().equals(EventType.DEL);
+
+                if (event.isDirectoryEvent() && isDelete)
+                {
+                    oldDirEvent = event;
+                    dirEntry.put(index, encode(event), entries);
+                }
+                else if (event.isDirectoryEvent())
+                {
+                    if (!dirEntry.remove(index, entries))
+                    {
+                        failureIndex = index;
+                        break;
+                    }
+
+                    newDirEvent = event;
+                    newDirIndex = Math.min(newDirIndex, index);
+                }
+                else if (isDelete)
+                    events.add(event.getContentHash() + '\t' + toIndex(index) + "\tD\t" + encode(event));
+                else
+                {
+                    String relocation = oldDirEvent == null || newDirEvent == null ? "-" : getRelocation(
+                                    oldDirEvent, event, newDirEvent);
+                    events.add(event.getContentHash() + '\t' + toIndex(index) + "\tA\t" + relocation);
+                }
+
+                index++;
+            }
+
+            dirEntry.end(entries);
+
+            ExternalSorter.SortedRecords records = events.sort();
+            MapEntry entry = new MapEntry();
+            String contentHash = null;
+
+            try
+            {
+                String record;
+                while ((record = records.next()) != null)
+                {
+                    String[] fields = record.split("\t", 4);
+
+                    if (!fields[0].equals(contentHash))
+                    {
+                        entry.end(entries);
+                        contentHash = fields[0];
+                    }
+
+                    long recordIndex = Long.parseLong(fields[1]);
+
+                    if (fields[2].equals("D"))
+                        entry.put(recordIndex, fields[3], entries);
+                    else
+                    {
+                        String deleted = entry.value;
+
+                        if (!entry.remove(recordIndex, entries) || !isRelocation(deleted, fields[3]))
+                            failureIndex = Math.min(failureIndex, recordIndex);
+                    }
+                }
+
+                entry.end(entries);
+            }
+            finally
+            {
+                records.close();
+            }
+
+            // A directory delete followed only by deletes of its contents is
+            // not a move or rename
+            if (newDirIndex >= failureIndex)
+                return false;
+
+            logLeftEntries(entries, failureIndex, false, logger);
+            return failureIndex == NONE;
+        }
+        finally
+        {
+            events.close();
+            entries.close();
+        }
+    }
+
+    /**
+     * Returns the path of the added event relative to the new directory after
+     * the path of the old directory, or - if it is not below it.
+     */
+    private static String getRelocation(Event oldDirEvent, Event event, Event newDirEvent)
+    {
+        String relativePath = getRelativePath(event.getPathNode().getPath(), newDirEvent.getPathNode().getPath());
+        if (relativePath == null)
+            return "-";
+
+        return escape(oldDirEvent.getPathNode().getPath()) + '\t' + escape(relativePath);
+    }
+
+    /**
+     * Returns true if the deleted event, as encoded, has the path relative to
+     * the old directory that the relocation has.
+     */
+    private static boolean isRelocation(String deleted, String relocation)
+    {
+        if (deleted == null || relocation.equals("-"))
+            return false;
+
+        String[] directoryAndPath = relocation.split("\t", 2);
+        String relativePath = getRelativePath(decode(deleted).getPathNode().getPath(), unescape(directoryAndPath[0]));
+        return relativePath != null && relativePath.equals(unescape(directoryAndPath[1]));
+    }
+
+    /**
+     * Returns the path relative to the directory, empty for the directory
+     * itself, or null if it is not below it.
+     */
+    private static String getRelativePath(String path, String directory)
+    {
+        if (path.equals(directory))
+            return "";
+
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : null;
+    }
+
+    /**
+     * Does what {@link EventInterpreter} does to find whether a history with
+     * nested directories was partly moved, in a map of the deletes keyed by
+     * their path relative to the old directory. Returns true and logs the
+     * deleted entries that were not added back if every entry added below the
+     * new directory was deleted at the same relative path with the same
+     * contents, and there is at least one.
+     */
+    boolean logPartialRelocation(EventHistory eventHistory, Logger logger) throws IOException
+    {
+        ExternalSorter events = new ExternalSorter(runSize, tempDirectory);
+        ExternalSorter entries = new ExternalSorter(runSize, tempDirectory);
+
+        try
+        {
+            int oldDirLength = eventHistory.getFirst().getPathNode().getPath().length();
+            int newDirLength = eventHistory.getAddedDirectory().getPathNode().getPath().length();
+            int newDirIndex = eventHistory.getAddedDirectoryIndex();
+            long index = 0;
+
+            for (Event event : eventHistory)
+            {
+                if (index > 0 && index != newDirIndex)
+                {
+                    boolean isDelete = event.getEventType().equals(EventType.DEL);
+                    String relativePath = event.getPathNode().getPath().substring(isDelete ? oldDirLength
+                                    : newDirLength);
+
+                    events.add(escape(relativePath) + '\t' + toIndex(index) + (isDelete ? "\tD\t" : "\tA\t")
+                                    + encode(event));
+                }
+
+                index++;
+            }
+
+            ExternalSorter.SortedRecords records = events.sort();
+            MapEntry entry = new MapEntry();
+            String relativePath = null;
+            long numAddedEntries = 0;
+
+            try
+            {
+                String record;
+                while ((record = records.next()) != null)
+                {
+                    String[] fields = record.split("\t", 4);
+
+                    if (!fields[0].equals(relativePath))
+                    {
+                        entry.end(entries);
+                        relativePath = fields[0];
+                    }
+
+                    long recordIndex = Long.parseLong(fields[1]);
+
+                    if (fields[2].equals("D"))
+                        entry.put(recordIndex, fields[3], entries);
+                    else
+                    {
+                        String deleted = entry.value;
+
+                        if (!entry.remove(recordIndex, null)
+                                        || !decode(deleted).getContentHash().equals(decode(fields[3]).getContentHash()))
+                            return false;
+
+                        numAddedEntries++;
+                    }
+                }
+
+                entry.end(entries);
+            }
+            finally
+            {
+                records.close();
+            }
+
+            if (numAddedEntries == 0)
+                return false;
+
+            logLeftEntries(entries, NONE, true, logger);
+            return true;
+        }
+        finally
+        {
+            events.close();
+            entries.close();
+        }
+    }
+
+    /**
+     * Logs as deleted the entries that were in the map when the interpreter
+     * stopped reading at the failure index, or at the end, in the order their
+     * keys were put, leaving out the entries below the directory logged last
+     * if asked to.
+     */
+    private static void logLeftEntries(ExternalSorter entries, long failureIndex, boolean isSkippingBelowLogged,
+                    Logger logger) throws IOException
+    {
+        ExternalSorter.SortedRecords records = entries.sort();
+        Event deletedDirEvent = null;
+
+        try
+        {
+            String record;
+            while ((record = records.next()) != null)
+            {
+                String[] fields = record.split("\t", 4);
+
+                long endIndex = Long.parseLong(fields[2]);
+                boolean isLeft = failureIndex == NONE ? endIndex == NONE : Long.parseLong(fields[1]) < failureIndex
+                                && endIndex > failureIndex;
+
+                if (!isLeft)
+                    continue;
+
+                Event event = decode(fields[3]);
+
+                if (isSkippingBelowLogged && deletedDirEvent != null && event.isUnderParent(deletedDirEvent))
+                    continue;
+
+                logger.log(event, Action.DELETED, null);
+
+                if (event.isDirectoryEvent())
+                    deletedDirEvent = event;
+            }
+        }
+        finally
+        {
+            records.close();
+        }
+    }
+
+    private static String toIndex(long index)
+    {
+        String digits = Long.toString(index);
+        return ZEROS.substring(digits.length()) + digits;
+    }
+
+    /**
+     * Encodes the event as its type, timestamp, content hash and escaped path.
+     */
+    private static String encode(Event event)
+    {
+        return event.getEventType().name() + '\t' + event.getTimestamp() + '\t' + event.getContentHash() + '\t'
+                        + escape(event.getPath());
+    }
+
+    private static Event decode(String record)
+    {
+        String[] fields = record.split("\t", 4);
+
+        Event event = new Event();
+        event.setEventType(EventType.valueOf(fields[0]));
+        event.setTimestamp(Long.parseLong(fields[1]));
+        event.setContentHash(fields[2]);
+        event.setPath(unescape(fields[3]));
+        return event;
+    }
+
+    /**
+     * Escapes a backslash and the control characters with a backslash, the
+     * latter followed by the character 64 above them.
+     */
+    private static String escape(String path)
+    {
+        StringBuilder escaped = null;
+
+        for (int i = 0; i < path.length(); i++)
+        {
+            char c = path.charAt(i);
+
+            if (c >= ' ' && c != '\\')
+            {
+                if (escaped != null)
+                    escaped.append(c);
+
+                continue;
+            }
+
+            if (escaped == null)
+                escaped = new StringBuilder(path.length() + 8).append(path, 0, i);
+
+            escaped.append('\\').append(c == '\\' ? c : (char) (c + '@'));
+        }
+
+        return escaped == null ? path : escaped.toString();
+    }
+
+    private static String unescape(String path)
+    {
+        if (path.indexOf('\\') < 0)
+            return path;
+
+        StringBuilder unescaped = new StringBuilder(path.length());
+
+        for (int i = 0; i < path.length(); i++)
+        {
+            char c = path.charAt(i);
+
+            if (c == '\\' && i + 1 < path.length())
+            {
+                char escaped = path.charAt(++i);
+                unescaped.append(escaped == '\\' ? escaped : (char) (escaped - '@'));
+            }
+            else
+                unescaped.append(c);
+        }
+
+        return unescaped.toString();
+    }
+
+    /**
+     * The event the map holds for the key being read, if any, since the key
+     * was put in the map and since the event was.
+     */
+    private static class MapEntry
+    {
+        private String value;
+        private long putIndex;
+        private long valueIndex;
+
+        void put(long index, String event, ExternalSorter entries) throws IOException
+        {
+            if (value == null)
+                putIndex = index;
+            else
+                write(index, entries);
+
+            value = event;
+            valueIndex = index;
+        }
+
+        /**
+         * Removes the event, returns false if there was none.
+         */
+        boolean remove(long index, ExternalSorter entries) throws IOException
+        {
+            if (value == null)
+                return false;
+
+            if (entries != null)
+                write(index, entries);
+
+            value = null;
+            return true;
+        }
+
+        /**
+         * Ends the key, its event stays in the map.
+         */
+        void end(ExternalSorter entries) throws IOException
+        {
+            if (value != null)
+                write(NONE, entries);
+
+            value = null;
+        }
+
+        /**
+         * Writes the event with the indexes it was held between.
+         */
+        private void write(long endIndex, ExternalSorter entries) throws IOException
+        {
+            entries.add(toIndex(putIndex) + '\t' + toIndex(valueIndex) + '\t' + toIndex(endIndex) + '\t' + value);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.prasanna.fileevents;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Formats actions as rows of a fixed width table with the occurence, action,
+ * type and details columns, separated by boundary lines. Details longer than
+ * the column wrap into rows of their own. Text is encoded with the default
+ * charset.
+ *
+ * @author prasanna
+ */
+public class TableFormat extends OutputFormat
+{
+    private static final int ACTION_COLUMN_WIDTH = 9;
+    private static final int TYPE_COLUMN_WIDTH = 9;
+    private static final int TIME_COLUMN_WIDTH = 26;
+    private static final int DETAILS_COLUMN_WIDTH = 51;
+
+    private static final int BOUNDARY_LENGTH = 100;
+    private static final byte[] BOUNDARY = createBoundary();
+
+    private final Charset charset = Charset.defaultCharset();
+    private final TimestampFormat timestampFormat = new TimestampFormat();
+    private final StringBuilder row = new StringBuilder(128);
+    private final StringBuilder details = new StringBuilder(64);
+
+    private static byte[] createBoundary()
+    {
+        byte[] boundary = new byte[BOUNDARY_LENGTH + 1];
+
+        for (int i = 0; i < BOUNDARY_LENGTH; i++)
+            boundary[i] = '-';
+
+        boundary[BOUNDARY_LENGTH] = '\n';
+        return boundary;
+    }
+
+    static void appendPadded(StringBuilder builder, CharSequence s, int padding)
+    {
+        builder.append(s);
+
+        for (int i = s.length(); i < padding; i++)
+            builder.append(' ');
+    }
+
+    @Override
+    public void writeHeader(OutputBuffer output) throws IOException
+    {
+        output.write(BOUNDARY);
+
+        row.setLength(0);
+        row.append('|');
+        appendPadded(row, "Occurence", TIME_COLUMN_WIDTH);
+        row.append('|');
+        appendPadded(row, "Event", ACTION_COLUMN_WIDTH);
+        row.append('|');
+        appendPadded(row, "Type", TYPE_COLUMN_WIDTH);
+        row.append('|');
+        appendPadded(row, "Details", DETAILS_COLUMN_WIDTH);
+        row.append("|\n");
+        output.write(row, charset);
+
+        output.write(BOUNDARY);
+    }
+
+    @Override
+    public void writeAction(OutputBuffer output, long timestamp, Action action, String fileType,
+                    String sourcePath, String destinationPath) throws IOException
+    {
+        if (sourcePath != null)
+        {
+            details.setLength(0);
+            details.append(sourcePath);
+            if (destinationPath != null)
+                details.append(" to ").append(destinationPath);
+
+            row.setLength(0);
+            row.append('|');
+
+            int timeStart = row.length();
+            timestampFormat.appendTo(row, timestamp);
+            padTo(timeStart + TIME_COLUMN_WIDTH);
+            row.append('|');
+            appendPadded(row, action.getName(), ACTION_COLUMN_WIDTH);
+            row.append('|');
+            appendPadded(row, fileType, TYPE_COLUMN_WIDTH);
+            row.append('|');
+
+            // Details longer than the column wrap into rows of their own
+            int end = Math.min(details.length(), DETAILS_COLUMN_WIDTH);
+            appendDetails(0, end);
+
+            for (int start = end; start < details.length(); start = end)
+            {
+                end = Math.min(details.length(), start + DETAILS_COLUMN_WIDTH);
+
+                row.append('|');
+                padTo(row.length() + TIME_COLUMN_WIDTH);
+                row.append('|');
+                padTo(row.length() + ACTION_COLUMN_WIDTH);
+                row.append('|');
+                padTo(row.length() + TYPE_COLUMN_WIDTH);
+                row.append('|');
+                appendDetails(start, end);
+            }
+
+            output.write(row, charset);
+        }
+
+        output.write(BOUNDARY);
+    }
+
+    private void appendDetails(int start, int end)
+    {
+        int detailsStart = row.length();
+        row.append(details, start, end);
+        padTo(detailsStart + DETAILS_COLUMN_WIDTH);
+        row.append("|\n");
+    }
+
+    private void padTo(int length)
+    {
+        while (row.length() < length)
+            row.append(' ');
+    }
+
+    @Override
+    public void writeLine(OutputBuffer output, String text) throws IOException
+    {
+        row.setLength(0);
+        row.append(text).append('\n');
+        output.write(row, charset);
+    }
+}
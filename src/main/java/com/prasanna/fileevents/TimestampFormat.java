@@ -0,0 +1,71 @@
+package com.prasanna.fileevents;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Formats timestamps as MMM dd yyyy HH:mm:ss:SSS in the default time zone.
+ * The date and time up to the second is formatted once and cached, within the
+ * same second only the milliseconds are appended. Safe to use from multiple
+ * threads.
+ *
+ * @author prasanna
+ */
+public class TimestampFormat
+{
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd yyyy HH:mm:ss:");
+    private volatile CachedSecond cachedSecond;
+
+    public void appendTo(StringBuilder builder, long timestamp)
+    {
+        long second = floorDiv(timestamp, 1000);
+        int millis = (int) (timestamp - second * 1000);
+
+        CachedSecond cached = cachedSecond;
+        if (cached == null || cached.second != second)
+        {
+            cached = new CachedSecond(second, formatSecond(second));
+            cachedSecond = cached;
+        }
+
+        builder.append(cached.formatted);
+        if (millis < 100)
+            builder.append('0');
+        if (millis < 10)
+            builder.append('0');
+        builder.append(millis);
+    }
+
+    public String format(long timestamp)
+    {
+        StringBuilder builder = new StringBuilder();
+        appendTo(builder, timestamp);
+        return builder.toString();
+    }
+
+    private String formatSecond(long second)
+    {
+        synchronized (dateFormat)
+        {
+            return dateFormat.format(new Date(second * 1000));
+        }
+    }
+
+    private static long floorDiv(long value, long divisor)
+    {
+        long quotient = value / divisor;
+        return value % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    private static class CachedSecond
+    {
+        private final long second;
+        private final String formatted;
+
+        CachedSecond(long second, String formatted)
+        {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.prasanna.fileevents;
+
+/**
+ * The clock a {@link CoalescingWindow} measures quiet periods with.
+ *
+ * @author prasanna
+ */
+public enum WindowClock
+{
+    /** The timestamps of the events. */
+    EVENT_TIME,
+
+    /** The time the events arrive at the interpreter. */
+    WALL_CLOCK
+}